@@ -1,28 +1,160 @@
 package com.webserver;
 
+import com.webserver.archive.ArchiveManager;
+import com.webserver.balancer.LoadBalancer;
+import com.webserver.cache.AssetManifest;
+import com.webserver.cache.CacheWarmer;
+import com.webserver.cache.FileCache;
+import com.webserver.cache.MicroCache;
+import com.webserver.cache.OffHeapStore;
+import com.webserver.cluster.CacheCluster;
+import com.webserver.core.BandwidthShaper;
+import com.webserver.core.Bulkhead;
+import com.webserver.core.ConfigWatcher;
+import com.webserver.core.HashedWheelTimer;
+import com.webserver.core.RateLimiter;
 import com.webserver.core.ServerConfig;
 import com.webserver.core.ThreadPoolManager;
+import com.webserver.core.UnixDomainSocket;
+import com.webserver.handler.AdminHandler;
 import com.webserver.handler.ConnectionHandler;
+import com.webserver.handler.ConnectionRegistry;
+import com.webserver.handler.HandlerContext;
+import com.webserver.handler.HeaderGuard;
+import com.webserver.handler.SlowRequestWatchdog;
+import com.webserver.http.HttpResponse;
+import com.webserver.sse.EventStreamHub;
+import com.webserver.util.AccessLog;
+import com.webserver.util.BufferPool;
 import com.webserver.util.Logger;
+import com.webserver.websocket.WebSocketHub;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 // Main web server class - handles incoming connections and routes them to worker threads
 public class WebServer {
     private final ServerConfig config;
     private final ThreadPoolManager threadPool;
+    private final RateLimiter rateLimiter;
+    private final HashedWheelTimer timer;
+    private final AdminHandler adminHandler;
+    private final HandlerContext handlerContext;
+    private final ConnectionRegistry connectionRegistry;
+    private final FileCache fileCache;
+    private final SlowRequestWatchdog watchdog;
+    private final Bulkhead bulkhead;
+    private final BandwidthShaper bandwidthShaper;
+    private final ArchiveManager archiveManager;
+    private final CacheCluster cacheCluster;
+    private final LoadBalancer loadBalancer;
+    private final WebSocketHub webSocketHub;
+    private final EventStreamHub eventStreamHub;
+    private final MicroCache microCache;
+    private final HeaderGuard headerGuard;
+    private final AssetManifest assetManifest;
+    private final ThreadPoolExecutor rejecter;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private ServerSocket serverSocket;
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean(false);
+    private volatile ServerSocket serverSocket;
+    private volatile ServerSocketChannel unixListener;
+    private Path unixSocketFile;
     private Thread acceptorThread;
+    private Thread unixAcceptorThread;
+    private ConfigWatcher configWatcher;
     private final Logger logger;
 
     public WebServer(ServerConfig config) {
         this.config = config;
+        BufferPool.configure(config.getBufferThreadCacheSize(), config.getBufferMaxPooledPerClass(),
+            config.isBufferLeakDetection(), config.getBufferLeakThreshold());
         this.threadPool = new ThreadPoolManager(config);
+        this.rateLimiter = new RateLimiter(config);
+        // Refusals are written here, not on the acceptor, so a client that does not read cannot stall accept
+        this.rejecter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(256),
+            r -> {
+                Thread thread = new Thread(r, "Connection-Rejecter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.timer = new HashedWheelTimer(config.getTimerTickDuration(), TimeUnit.MILLISECONDS,
+            config.getTimerWheelSize());
+        this.adminHandler = new AdminHandler(config);
+        this.connectionRegistry = new ConnectionRegistry();
+        this.fileCache = new FileCache(config.getCacheMaxBytes(), config.getCacheMaxFileSize(),
+            config.getCacheMaxEntries(), config.getCacheOffHeapBytes() > 0 ? new OffHeapStore(config.getCacheOffHeapBytes(),
+                config.getCacheOffHeapSegmentSize(), config.getCacheOffHeapFile()) : null);
+        this.watchdog = new SlowRequestWatchdog(config, timer);
+        this.bulkhead = new Bulkhead(config);
+        this.bandwidthShaper = new BandwidthShaper(config);
+        this.loadBalancer = config.getBalancerBackends().trim().isEmpty() ? null : new LoadBalancer(config);
+        this.cacheCluster = config.isClusterEnabled() ? new CacheCluster(config, fileCache) : null;
+        this.archiveManager = config.getArchivePath().isEmpty() ? null
+            : new ArchiveManager(config.getArchivePath(), config.isArchiveWatch());
+        this.webSocketHub = config.isWebSocketEnabled() ? new WebSocketHub(config) : null;
+        this.eventStreamHub = config.isSseEnabled() ? new EventStreamHub(config) : null;
+        this.microCache = config.isMicroCacheEnabled() ? new MicroCache(config.getMicroCacheTtl(),
+            config.getMicroCacheStaleWhileRevalidate(), config.getMicroCacheMaxEntries(),
+            config.getMicroCacheVaryHeaders()) : null;
+        this.headerGuard = new HeaderGuard(config);
+        this.assetManifest = config.isFingerprintEnabled() && loadBalancer == null && archiveManager == null
+            ? new AssetManifest(config.getDocumentRoot(), config.getFingerprintExtensions(),
+                config.getFingerprintMaxHtmlSize()) : null;
+        this.handlerContext = new HandlerContext(config, rateLimiter, timer, adminHandler, connectionRegistry,
+            fileCache, watchdog, bulkhead, bandwidthShaper, archiveManager, cacheCluster, loadBalancer,
+            webSocketHub, eventStreamHub, microCache, headerGuard, assetManifest);
         this.logger = Logger.getInstance();
+        logger.setLevel(config.getLogLevel());
+
+        adminHandler.register("reload", this::reloadConfig);
+        adminHandler.register("stats", () -> threadPool.getStats() + "\n" + BufferPool.getInstance().getStats()
+            + "\n" + (archiveManager != null ? archiveManager : fileCache) + "\n");
+        adminHandler.register("connections", this::describeConnections);
+        adminHandler.register("slow", watchdog::describe);
+        adminHandler.register("bulkhead", bulkhead::describe);
+        adminHandler.register("bandwidth", bandwidthShaper::describe);
+        adminHandler.register("limits", headerGuard::describe);
+        if (cacheCluster != null) {
+            adminHandler.register("cluster", cacheCluster::describe);
+        }
+        if (loadBalancer != null) {
+            adminHandler.register("balancer", loadBalancer::describe);
+        }
+        if (webSocketHub != null) {
+            adminHandler.register("websocket", webSocketHub::describe);
+        }
+        if (eventStreamHub != null) {
+            adminHandler.register("sse", eventStreamHub::describe);
+        }
+        if (microCache != null) {
+            adminHandler.register("microcache", microCache::describe);
+        }
+        if (assetManifest != null) {
+            adminHandler.register("assets", assetManifest::describe);
+        }
+        adminHandler.register("drain", () -> {
+            new Thread(() -> drainConnections(config.getDrainTimeout()), "Drain-Thread").start();
+            return "Drain started\n" + describeConnections();
+        });
     }
 
     // Start the server
@@ -32,41 +164,94 @@ public class WebServer {
             return;
         }
 
-        serverSocket = new ServerSocket(config.getPort(), config.getBacklog());
-        serverSocket.setSoTimeout(config.getAcceptTimeout());
+        // Map the site archive, or warm the cache, before the listener opens; a balancer serves no files
+        if (loadBalancer != null) {
+            loadBalancer.start();
+        } else if (archiveManager != null) {
+            archiveManager.start();
+        } else if (config.isWarmupEnabled()) {
+            new CacheWarmer(fileCache, config.getDocumentRoot(), config.getWarmupPatterns(),
+                config.getWarmupMaxFileSize(), config.getWarmupParallelism()).warm();
+        }
+        if (assetManifest != null) {
+            assetManifest.build();
+        }
+
+        if (cacheCluster != null) {
+            cacheCluster.start();
+        }
+        if (webSocketHub != null) {
+            webSocketHub.start();
+        }
+        if (eventStreamHub != null) {
+            eventStreamHub.start();
+        }
+
+        if (!config.isTcpEnabled() && config.getUnixSocketPath().isEmpty()) {
+            throw new IOException("No listener configured: server.tcpEnabled is false and unixSocket.path is empty");
+        }
+        if (config.isTcpEnabled()) {
+            serverSocket = openListener(config.getPort());
+        }
+        if (!config.getUnixSocketPath().isEmpty()) {
+            try {
+                openUnixListener(Paths.get(config.getUnixSocketPath()));
+            } catch (IOException e) {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+                throw e;
+            }
+        }
         running.set(true);
 
-        logger.info(String.format("Web Server started on port %d", config.getPort()));
+        if (serverSocket != null) {
+            logger.info(String.format("Web Server started on port %d", serverSocket.getLocalPort()));
+        }
+        if (unixListener != null) {
+            logger.info(String.format("Web Server listening on Unix domain socket %s", unixSocketFile));
+        }
         logger.info(String.format("Thread pool size: %d-%d", config.getCorePoolSize(), config.getMaxPoolSize()));
         logger.info(String.format("Document root: %s", config.getDocumentRoot()));
 
-        // Start acceptor thread
-        acceptorThread = new Thread(this::acceptConnections, "Acceptor-Thread");
-        acceptorThread.start();
+        if (config.isBufferLeakDetection()) {
+            scheduleLeakCheck();
+        }
+
+        if (config.isAccessLogEnabled()) {
+            AccessLog.getInstance().start(config.getAccessLogPath(), config.getAccessLogFormat(),
+                config.getAccessLogQueueCapacity(), config.getAccessLogBufferSize(),
+                config.getAccessLogFlushInterval(), config.getAccessLogMaxFileSize(),
+                config.getAccessLogRotateInterval());
+        }
+
+        if (config.isConfigWatchEnabled() && config.getConfigFile() != null && config.getConfigFile().exists()) {
+            configWatcher = new ConfigWatcher(config.getConfigFile(), this::reloadConfig);
+            configWatcher.start();
+        }
+
+        // Start acceptor threads
+        if (serverSocket != null) {
+            acceptorThread = new Thread(this::acceptConnections, "Acceptor-Thread");
+            acceptorThread.start();
+        }
+        if (unixListener != null) {
+            unixAcceptorThread = new Thread(this::acceptUnixConnections, "Unix-Acceptor-Thread");
+            unixAcceptorThread.start();
+        }
     }
 
     // Keep accepting connections until server stops
     private void acceptConnections() {
         while (running.get()) {
+            ServerSocket listener = serverSocket;
             try {
-                Socket clientSocket = serverSocket.accept();
-                
-                // Configure socket
-                clientSocket.setSoTimeout(config.getSocketTimeout());
-                clientSocket.setKeepAlive(true);
-                
-                logger.debug(String.format("Accepted connection from %s:%d", 
-                    clientSocket.getInetAddress().getHostAddress(), 
-                    clientSocket.getPort()));
-
-                // Submit to thread pool
-                ConnectionHandler handler = new ConnectionHandler(clientSocket, config);
-                threadPool.submit(handler);
-
+                dispatch(listener.accept());
             } catch (SocketTimeoutException e) {
                 // Normal timeout, continue accepting
             } catch (IOException e) {
-                if (running.get()) {
+                // A listener closed by rebind is expected, keep accepting on the new one
+                if (running.get() && listener == serverSocket) {
                     logger.error("Error accepting connection: " + e.getMessage());
                 }
             }
@@ -74,16 +259,292 @@ public class WebServer {
     }
 
     /**
-     * Graceful shutdown of the server
+     * Accept loop for the Unix domain socket; closing the channel ends it
      */
-    public void shutdown() {
-        if (!running.get()) {
-            logger.warn("Server is not running");
+    private void acceptUnixConnections() {
+        while (running.get()) {
+            try {
+                SocketChannel channel = unixListener.accept();
+                dispatch(new UnixDomainSocket(channel));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.error("Error accepting Unix domain connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand an accepted connection to the thread pool, whichever listener it came from
+     */
+    private void dispatch(Socket clientSocket) throws IOException {
+        // Configure socket
+        clientSocket.setSoTimeout(config.getSocketTimeout());
+        clientSocket.setKeepAlive(true);
+
+        boolean unix = clientSocket instanceof UnixDomainSocket;
+        String clientAddress = unix ? UnixDomainSocket.PEER : clientSocket.getInetAddress().getHostAddress();
+        logger.debug(String.format("Accepted connection from %s:%d",
+            clientAddress,
+            clientSocket.getPort()));
+
+        // Enforce per-client connection cap before taking a worker; a Unix socket
+        // peer is a proxy carrying many clients, so it is not capped as one
+        if (!unix && !rateLimiter.tryOpenConnection(clientAddress)) {
+            logger.warn(String.format("Connection limit exceeded for %s", clientAddress));
+            try {
+                rejecter.execute(() -> rejectConnection(clientSocket));
+            } catch (RejectedExecutionException e) {
+                resetConnection(clientSocket);
+            }
             return;
         }
 
-        logger.info("Initiating graceful shutdown...");
-        running.set(false);
+        // Submit to thread pool
+        ConnectionHandler handler = new ConnectionHandler(clientSocket, handlerContext);
+        if (!threadPool.submit(handler)) {
+            try {
+                rejecter.execute(handler::rejectOverloaded);
+            } catch (RejectedExecutionException e) {
+                handler.abortOverloaded();
+            }
+        }
+    }
+
+    /**
+     * Re-read config.properties and apply it to the running server.
+     * Pool sizes, timeouts, limits and log level take effect immediately; a port
+     * change opens the new listener before closing the old one, so established
+     * connections keep being served. Returns a summary for the admin endpoint.
+     */
+    public synchronized String reloadConfig() {
+        int oldPort = config.getPort();
+        int oldCore = config.getCorePoolSize();
+        int oldMax = config.getMaxPoolSize();
+        int oldKeepAlive = config.getKeepAliveTime();
+        int oldQueueCapacity = config.getQueueCapacity();
+
+        try {
+            config.reload();
+        } catch (IOException e) {
+            logger.error("Config reload failed, keeping current settings: " + e.getMessage());
+            return "Reload failed: " + e.getMessage() + "\n";
+        }
+
+        StringBuilder summary = new StringBuilder("Configuration reloaded\n");
+        logger.setLevel(config.getLogLevel());
+
+        if (config.getCorePoolSize() != oldCore || config.getMaxPoolSize() != oldMax
+                || config.getKeepAliveTime() != oldKeepAlive) {
+            threadPool.resize(config.getCorePoolSize(), config.getMaxPoolSize(), config.getKeepAliveTime());
+            summary.append(String.format("Thread pool: core=%d, max=%d%n", config.getCorePoolSize(), config.getMaxPoolSize()));
+        }
+
+        if (config.getQueueCapacity() != oldQueueCapacity) {
+            logger.warn("threadPool.queueCapacity changes take effect after restart");
+        }
+
+        if (running.get() && serverSocket != null) {
+            try {
+                serverSocket.setSoTimeout(config.getAcceptTimeout());
+                if (config.getPort() != oldPort) {
+                    rebind(config.getPort());
+                    summary.append(String.format("Listening on port %d%n", config.getPort()));
+                }
+            } catch (IOException e) {
+                logger.error(String.format("Could not listen on port %d, staying on %d: %s",
+                    config.getPort(), oldPort, e.getMessage()));
+                config.setPort(oldPort);
+                summary.append("Port change failed: ").append(e.getMessage()).append('\n');
+            }
+        }
+
+        logger.info("Configuration reloaded from " + config.getConfigFile());
+        return summary.toString();
+    }
+
+    /**
+     * Bind a listening socket. With WebSockets or event streams on it is
+     * channel-backed, so a long-lived connection's socket can be moved to a selector.
+     */
+    private ServerSocket openListener(int port) throws IOException {
+        ServerSocket listener;
+        if (webSocketHub != null || eventStreamHub != null) {
+            listener = ServerSocketChannel.open().socket();
+            listener.bind(new InetSocketAddress(port), config.getBacklog());
+        } else {
+            listener = new ServerSocket(port, config.getBacklog());
+        }
+        listener.setSoTimeout(config.getAcceptTimeout());
+        return listener;
+    }
+
+    /**
+     * Bind the Unix domain socket. A socket file left by a server that did not
+     * shut down cleanly is replaced; one that still accepts connections is not.
+     */
+    private void openUnixListener(Path path) throws IOException {
+        if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+                throw new IOException("Not a socket file, refusing to replace it: " + path);
+            }
+            boolean inUse;
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+                inUse = true;
+            } catch (ConnectException e) {
+                inUse = false;
+            }
+            if (inUse) {
+                throw new IOException("Unix domain socket already in use: " + path);
+            }
+            logger.info("Removing stale Unix domain socket " + path);
+            Files.delete(path);
+        }
+
+        ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            listener.bind(UnixDomainSocketAddress.of(path), config.getBacklog());
+            if (!config.getUnixSocketPermissions().isEmpty()) {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(config.getUnixSocketPermissions()));
+            }
+        } catch (IOException | RuntimeException e) {
+            listener.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        unixListener = listener;
+        unixSocketFile = path;
+    }
+
+    /**
+     * Open a listener on the new port, then retire the old one
+     */
+    private void rebind(int port) throws IOException {
+        ServerSocket newSocket = openListener(port);
+
+        ServerSocket oldSocket = serverSocket;
+        serverSocket = newSocket;
+        try {
+            oldSocket.close();
+        } catch (IOException e) {
+            logger.error("Error closing old server socket: " + e.getMessage());
+        }
+        logger.info(String.format("Listener moved from port %d to %d", oldSocket.getLocalPort(), port));
+    }
+
+    /**
+     * Periodically report pooled buffers that were never released
+     */
+    private void scheduleLeakCheck() {
+        timer.schedule(() -> {
+            BufferPool.getInstance().reportLeaks();
+            if (running.get()) {
+                scheduleLeakCheck();
+            }
+        }, config.getBufferLeakThreshold(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Answer 429 and close a connection that exceeded its per-client cap; runs on the rejecter
+     */
+    private void rejectConnection(Socket clientSocket) {
+        try {
+            HttpResponse.tooManyRequests(1).send(clientSocket.getOutputStream());
+        } catch (IOException e) {
+            // Client went away, nothing to report
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Close with a reset and no response, when even the rejecter is backed up
+     */
+    private void resetConnection(Socket clientSocket) {
+        try {
+            clientSocket.setSoLinger(true, 0);
+            clientSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Stop accepting and wait for live connections to finish.
+     * Idle keep-alive connections are closed immediately, busy ones get
+     * "Connection: close" on their current response. Whatever is still open
+     * after the timeout is closed forcibly.
+     */
+    public void drainConnections(long timeoutMillis) {
+        stopAccepting();
+        if (!connectionRegistry.isDraining()) {
+            connectionRegistry.startDrain();
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long nextReport = 0;
+        while (connectionRegistry.getOpenCount() > 0 && System.currentTimeMillis() < deadline) {
+            long now = System.currentTimeMillis();
+            if (now >= nextReport) {
+                logger.info(String.format("Draining: %d connections open, %d in flight",
+                    connectionRegistry.getOpenCount(), connectionRegistry.getActiveCount()));
+                nextReport = now + 1000;
+            }
+            // Connections that finished a response and went idle can go now
+            connectionRegistry.closeIdle();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int remaining = connectionRegistry.getOpenCount();
+        if (remaining > 0) {
+            logger.warn(String.format("Drain timeout: force-closing %d connections", remaining));
+            connectionRegistry.closeAll();
+        } else {
+            logger.info("Drain complete: all connections closed");
+        }
+    }
+
+    /**
+     * Close the listener and stop the acceptor thread
+     */
+    private void stopAccepting() {
+        if (!running.getAndSet(false)) {
+            return;
+        }
+
+        if (configWatcher != null) {
+            configWatcher.stop();
+        }
+        if (archiveManager != null) {
+            archiveManager.stop();
+        }
+        if (cacheCluster != null) {
+            cacheCluster.stop();
+        }
+        if (loadBalancer != null) {
+            loadBalancer.stop();
+        }
+        if (webSocketHub != null) {
+            webSocketHub.stop();
+        }
+        if (eventStreamHub != null) {
+            eventStreamHub.stop();
+        }
+        if (microCache != null) {
+            microCache.stop();
+        }
 
         // Close server socket
         try {
@@ -93,22 +554,71 @@ public class WebServer {
         } catch (IOException e) {
             logger.error("Error closing server socket: " + e.getMessage());
         }
-
-        // Wait for acceptor thread
-        if (acceptorThread != null) {
+        if (unixListener != null) {
             try {
-                acceptorThread.join(5000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                unixListener.close();
+                Files.deleteIfExists(unixSocketFile);
+            } catch (IOException e) {
+                logger.error("Error closing Unix domain socket: " + e.getMessage());
+            }
+        }
+
+        // Wait for acceptor threads
+        for (Thread acceptor : new Thread[] {acceptorThread, unixAcceptorThread}) {
+            if (acceptor != null && acceptor != Thread.currentThread()) {
+                try {
+                    acceptor.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
+    }
+
+    private String describeConnections() {
+        return String.format("open=%d inFlight=%d draining=%b accepting=%b%n",
+            connectionRegistry.getOpenCount(), connectionRegistry.getActiveCount(),
+            connectionRegistry.isDraining(), running.get());
+    }
+
+    /**
+     * Graceful shutdown of the server
+     */
+    public void shutdown() {
+        if (!running.get() && !connectionRegistry.isDraining()) {
+            logger.warn("Server is not running");
+            return;
+        }
+        if (!shutdownStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        logger.info("Initiating graceful shutdown...");
+        drainConnections(config.getDrainTimeout());
 
         // Shutdown thread pool
         threadPool.shutdown();
+        rateLimiter.shutdown();
+        rejecter.shutdownNow();
+        timer.stop();
+        watchdog.stop();
+        if (fileCache.getOffHeapStore() != null) {
+            fileCache.getOffHeapStore().close();
+        }
+        logger.info("Buffer pool: " + BufferPool.getInstance().getStats());
+        AccessLog.getInstance().close();
 
         logger.info("Server shutdown complete");
     }
 
+    /**
+     * Port the listener is bound to; differs from server.port when that is 0
+     */
+    public int getLocalPort() {
+        ServerSocket listener = serverSocket;
+        return listener != null ? listener.getLocalPort() : -1;
+    }
+
     /**
      * Check if server is running
      */
@@ -0,0 +1,70 @@
+package com.webserver.archive;
+
+import com.webserver.core.ConfigWatcher;
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the site archive being served and swaps in a new one when the file is replaced.
+ * Requests already holding the old archive keep reading from its mapping,
+ * which is released once nothing references it.
+ */
+public class ArchiveManager {
+    private final File archiveFile;
+    private final boolean watch;
+    private final Logger logger;
+    private volatile SiteArchive current;
+    private ConfigWatcher watcher;
+
+    public ArchiveManager(String archivePath, boolean watch) {
+        this.archiveFile = new File(archivePath);
+        this.watch = watch;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Map the archive and start watching it for replacement
+     */
+    public void start() throws IOException {
+        current = SiteArchive.open(archiveFile.toPath());
+        logger.info("Serving from site archive: " + current);
+        if (watch) {
+            watcher = new ConfigWatcher(archiveFile, this::reload);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Open the archive file again and switch to it; the old one stays in use if the new one is invalid
+     */
+    public void reload() {
+        try {
+            SiteArchive next = SiteArchive.open(archiveFile.toPath());
+            current = next;
+            logger.info("Site archive swapped: " + next);
+        } catch (IOException e) {
+            logger.error("Site archive reload failed, keeping current content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The archive to serve from; null before start()
+     */
+    public SiteArchive getArchive() {
+        return current;
+    }
+
+    public void stop() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    @Override
+    public String toString() {
+        SiteArchive archive = current;
+        return archive != null ? archive.toString() : "SiteArchive{not loaded}";
+    }
+}
@@ -0,0 +1,184 @@
+package com.webserver.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A packed document root, memory-mapped read-only.
+ * The whole archive is one mapping; the path index is read into a hash map at
+ * open time and each entry points at its body (and optional gzip variant) by
+ * offset, so serving a file is a map lookup and a buffer slice with no
+ * filesystem calls. MIME type, ETag and Last-Modified are stored precomputed.
+ *
+ * Layout (big-endian), written by SiteArchiveBuilder:
+ * <pre>
+ *   int magic "WSPK", int version, int entryCount, long indexOffset
+ *   file bodies and gzip variants
+ *   index: per entry, sorted by path:
+ *     string path, long offset, long length, long gzipOffset, long gzipLength (-1 if none),
+ *     long lastModified, string contentType, string etag, string lastModifiedHeader
+ * </pre>
+ * Strings are an unsigned short length followed by UTF-8 bytes.
+ */
+public class SiteArchive {
+    static final int MAGIC = 0x5753504B; // "WSPK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private final Path path;
+    private final MappedByteBuffer mapping;
+    private final Map<String, Entry> index;
+    private final long totalBytes;
+
+    private SiteArchive(Path path, MappedByteBuffer mapping, Map<String, Entry> index, long totalBytes) {
+        this.path = path;
+        this.mapping = mapping;
+        this.index = index;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Map an archive file and read its index
+     */
+    public static SiteArchive open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Archive larger than 2 GB is not supported: " + path);
+            }
+            if (size < HEADER_SIZE) {
+                throw new IOException("Not a site archive: " + path);
+            }
+
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer buf = mapping.duplicate();
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a site archive: " + path);
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive version " + version + ": " + path);
+            }
+            int count = buf.getInt();
+            long indexOffset = buf.getLong();
+            if (indexOffset < HEADER_SIZE || indexOffset > size) {
+                throw new IOException("Corrupt archive index offset: " + path);
+            }
+
+            buf.position((int) indexOffset);
+            Map<String, Entry> index = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String entryPath = readString(buf);
+                long offset = buf.getLong();
+                long length = buf.getLong();
+                long gzipOffset = buf.getLong();
+                long gzipLength = buf.getLong();
+                long lastModified = buf.getLong();
+                String contentType = readString(buf);
+                String etag = readString(buf);
+                String lastModifiedHeader = readString(buf);
+                if (offset + length > indexOffset || gzipLength > 0 && gzipOffset + gzipLength > indexOffset) {
+                    throw new IOException("Corrupt archive entry " + entryPath + ": " + path);
+                }
+                index.put(entryPath, new Entry(mapping, entryPath, (int) offset, (int) length,
+                    (int) gzipOffset, (int) gzipLength, lastModified, contentType, etag, lastModifiedHeader));
+            }
+            return new SiteArchive(path, mapping, index, size);
+        }
+    }
+
+    static String readString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Entry for a normalized request path such as "/css/site.css", or null
+     */
+    public Entry get(String requestPath) {
+        return index.get(requestPath);
+    }
+
+    public Path getPath() { return path; }
+    public int getEntryCount() { return index.size(); }
+    public long getTotalBytes() { return totalBytes; }
+
+    @Override
+    public String toString() {
+        return String.format("SiteArchive{path=%s, entries=%d, bytes=%d}", path, index.size(), totalBytes);
+    }
+
+    /**
+     * One packed file with its precomputed response headers
+     */
+    public static class Entry {
+        private final MappedByteBuffer mapping;
+        private final String path;
+        private final int offset;
+        private final int length;
+        private final int gzipOffset;
+        private final int gzipLength;
+        private final long lastModified;
+        private final String contentType;
+        private final String etag;
+        private final String gzipEtag;
+        private final String lastModifiedHeader;
+
+        Entry(MappedByteBuffer mapping, String path, int offset, int length, int gzipOffset, int gzipLength,
+              long lastModified, String contentType, String etag, String lastModifiedHeader) {
+            this.mapping = mapping;
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.gzipOffset = gzipOffset;
+            this.gzipLength = gzipLength;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.etag = etag;
+            // The gzip variant is a different representation and needs its own validator
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+            this.lastModifiedHeader = lastModifiedHeader;
+        }
+
+        /**
+         * Read-only view of the body inside the mapping
+         */
+        public ByteBuffer body() {
+            return slice(offset, length);
+        }
+
+        /**
+         * Read-only view of the gzip variant; only valid if hasGzip()
+         */
+        public ByteBuffer gzipBody() {
+            return slice(gzipOffset, gzipLength);
+        }
+
+        private ByteBuffer slice(int from, int size) {
+            ByteBuffer view = mapping.duplicate();
+            view.limit(from + size);
+            view.position(from);
+            return view.slice();
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return length; }
+        public boolean hasGzip() { return gzipLength > 0; }
+        public long getGzipSize() { return gzipLength; }
+        public long getLastModified() { return lastModified; }
+        public String getContentType() { return contentType; }
+        public String getEtag() { return etag; }
+        public String getGzipEtag() { return gzipEtag; }
+        public String getLastModifiedHeader() { return lastModifiedHeader; }
+    }
+}
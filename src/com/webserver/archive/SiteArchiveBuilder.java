@@ -0,0 +1,182 @@
+package com.webserver.archive;
+
+import com.webserver.http.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packs a document root into a single site archive for SiteArchive.
+ * The archive is written next to the target and moved into place atomically,
+ * so a running server watching the file switches to the new content in one step.
+ *
+ * Usage: java -cp bin com.webserver.archive.SiteArchiveBuilder [--no-gzip] &lt;documentRoot&gt; &lt;archiveFile&gt;
+ */
+public class SiteArchiveBuilder {
+    private static final int MIN_GZIP_SIZE = 256;
+
+    private final Path documentRoot;
+    private final boolean gzip;
+
+    public SiteArchiveBuilder(Path documentRoot, boolean gzip) {
+        this.documentRoot = documentRoot.toAbsolutePath().normalize();
+        this.gzip = gzip;
+    }
+
+    public static void main(String[] args) {
+        boolean gzip = true;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if ("--no-gzip".equals(arg)) {
+                gzip = false;
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: SiteArchiveBuilder [--no-gzip] <documentRoot> <archiveFile>");
+            System.exit(2);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Summary summary = new SiteArchiveBuilder(Paths.get(paths.get(0)), gzip).build(Paths.get(paths.get(1)));
+            System.out.println(String.format("Packed %d files (%d gzip variants) into %s: %d bytes in %d ms",
+                summary.files, summary.gzipVariants, paths.get(1), summary.archiveBytes,
+                System.currentTimeMillis() - start));
+        } catch (IOException e) {
+            System.err.println("Failed to build archive: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write the archive to a temp file beside target, then atomically replace target
+     */
+    public Summary build(Path target) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(documentRoot)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        Path absoluteTarget = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absoluteTarget.getParent(), absoluteTarget.getFileName().toString(), ".tmp");
+        Summary summary = new Summary();
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeArchive(files, out, summary);
+            }
+            Files.move(temp, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        summary.archiveBytes = Files.size(absoluteTarget);
+        return summary;
+    }
+
+    private void writeArchive(List<Path> files, FileChannel out, Summary summary) throws IOException {
+        // Bodies first, leaving room for the header; the index is appended at the end
+        out.position(SiteArchive.HEADER_SIZE);
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        for (Path file : files) {
+            byte[] body = Files.readAllBytes(file);
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            String requestPath = "/" + documentRoot.relativize(file.toAbsolutePath()).toString()
+                .replace(file.getFileSystem().getSeparator(), "/");
+            String contentType = HttpResponse.getMimeType(file.getFileName().toString());
+
+            long offset = out.position();
+            writeFully(out, ByteBuffer.wrap(body));
+
+            long gzipOffset = -1;
+            long gzipLength = -1;
+            byte[] compressed = gzip && isCompressible(contentType, body.length) ? compress(body) : null;
+            if (compressed != null && compressed.length < body.length * 9L / 10) {
+                gzipOffset = out.position();
+                gzipLength = compressed.length;
+                writeFully(out, ByteBuffer.wrap(compressed));
+                summary.gzipVariants++;
+            }
+
+            // Same ETag scheme as FileCache so validators survive switching modes
+            String etag = "\"" + Long.toHexString(body.length) + "-" + Long.toHexString(lastModified) + "\"";
+            writeString(index, requestPath);
+            index.writeLong(offset);
+            index.writeLong(body.length);
+            index.writeLong(gzipOffset);
+            index.writeLong(gzipLength);
+            index.writeLong(lastModified);
+            writeString(index, contentType);
+            writeString(index, etag);
+            writeString(index, HttpResponse.formatDate(lastModified));
+            summary.files++;
+        }
+
+        long indexOffset = out.position();
+        index.flush();
+        writeFully(out, ByteBuffer.wrap(indexBytes.toByteArray()));
+
+        ByteBuffer header = ByteBuffer.allocate(SiteArchive.HEADER_SIZE);
+        header.putInt(SiteArchive.MAGIC).putInt(SiteArchive.VERSION).putInt(files.size()).putLong(indexOffset);
+        header.flip();
+        out.position(0);
+        writeFully(out, header);
+        out.force(true);
+    }
+
+    private static boolean isCompressible(String contentType, int size) {
+        return size >= MIN_GZIP_SIZE && (contentType.startsWith("text/")
+            || contentType.startsWith("application/javascript")
+            || contentType.startsWith("application/json")
+            || contentType.startsWith("application/xml")
+            || contentType.startsWith("image/svg+xml"));
+    }
+
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long for archive: " + value);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * What went into an archive
+     */
+    public static class Summary {
+        public int files;
+        public int gzipVariants;
+        public long archiveBytes;
+    }
+}
@@ -0,0 +1,132 @@
+package com.webserver.balancer;
+
+import com.webserver.http.HttpInput;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One upstream server behind the balancer: its keep-alive connection pool,
+ * outstanding request count and health state. A backend takes traffic while
+ * the health checker considers it healthy and it is not ejected as an outlier.
+ */
+class Backend {
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private final String address;
+    private final InetSocketAddress socketAddress;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final ArrayBlockingQueue<Connection> idle;
+
+    final AtomicInteger outstanding = new AtomicInteger(0);
+    final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    final AtomicLong requests = new AtomicLong(0);
+    final AtomicLong failures = new AtomicLong(0);
+    volatile boolean healthy = true;
+    volatile long ejectedUntil;
+    int ejections; // Guarded by the balancer
+
+    // Health check streaks, touched only by the checker thread
+    int passedChecks;
+    int failedChecks;
+
+    Backend(String address, int connectTimeout, int readTimeout, int maxIdle) {
+        this.address = address;
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Backend must be host:port, got '" + address + "'");
+        }
+        this.socketAddress = new InetSocketAddress(address.substring(0, colon),
+            Integer.parseInt(address.substring(colon + 1)));
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    boolean isAvailable(long now) {
+        return healthy && now >= ejectedUntil;
+    }
+
+    /**
+     * An idle pooled connection, or null if none is left
+     */
+    Connection pooled() {
+        return idle.poll();
+    }
+
+    /**
+     * Open a new connection with the read timeout applied
+     */
+    Connection connect() throws IOException {
+        return new Connection(readTimeout);
+    }
+
+    /**
+     * Open a one-off connection with its own read timeout, for health checks
+     */
+    Connection connect(int timeout) throws IOException {
+        return new Connection(timeout);
+    }
+
+    /**
+     * Finish a request: pool the connection if it can carry another one, otherwise close it
+     */
+    void release(Connection connection, boolean reusable) {
+        outstanding.decrementAndGet();
+        if (connection != null && !(reusable && idle.offer(connection))) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Close every idle connection, e.g. when the backend goes down
+     */
+    void closeIdle() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    String getAddress() { return address; }
+    InetSocketAddress getSocketAddress() { return socketAddress; }
+
+    /**
+     * One socket to the backend with a buffered reader for response heads
+     */
+    final class Connection {
+        final Socket socket;
+        final HttpInput in;
+        final OutputStream out;
+
+        Connection(int timeout) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(socketAddress, connectTimeout);
+                socket.setSoTimeout(timeout);
+                socket.setTcpNoDelay(true);
+                out = new BufferedOutputStream(socket.getOutputStream(), INPUT_BUFFER_SIZE);
+                in = new HttpInput(socket.getInputStream(), INPUT_BUFFER_SIZE);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            in.close();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
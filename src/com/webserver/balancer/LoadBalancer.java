@@ -0,0 +1,594 @@
+package com.webserver.balancer;
+
+import com.webserver.core.ServerConfig;
+import com.webserver.http.HttpHeaders;
+import com.webserver.http.HttpRequest;
+import com.webserver.http.HttpResponse;
+import com.webserver.http.RequestBody;
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Front mode: instead of serving files, forward every request to one of the
+ * configured backends over pooled keep-alive connections.
+ *
+ * Backends are chosen by fewest outstanding requests, or by the better of two
+ * random picks ("p2c"), which avoids herding onto one backend when counts are
+ * stale. A health checker thread probes each backend and takes it out after
+ * repeated failures; independently, a backend that fails several requests in a
+ * row (I/O error or 5xx) is ejected for a while, longer each time, unless it
+ * is the last one available.
+ */
+public class LoadBalancer {
+    public static final String POLICY_LEAST_OUTSTANDING = "least-outstanding";
+    public static final String POLICY_P2C = "p2c";
+
+    // Hop-by-hop headers are not forwarded in either direction (RFC 7230 section 6.1)
+    private static final String[] HOP_BY_HOP = {
+        "Connection", "Keep-Alive", "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade"
+    };
+
+    private final ServerConfig config;
+    private final List<Backend> backends = new ArrayList<>();
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+    private final Logger logger;
+    private volatile boolean running;
+    private Thread healthChecker;
+
+    public LoadBalancer(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+        for (String address : config.getBalancerBackends().split(",")) {
+            if (!address.trim().isEmpty()) {
+                backends.add(new Backend(address.trim(), config.getBalancerConnectTimeout(),
+                    config.getBalancerReadTimeout(), config.getBalancerMaxIdlePerBackend()));
+            }
+        }
+    }
+
+    public void start() {
+        running = true;
+        if (config.getBalancerHealthInterval() > 0) {
+            healthChecker = new Thread(this::checkHealthLoop, "Balancer-Health");
+            healthChecker.setDaemon(true);
+            healthChecker.start();
+        }
+        logger.info(String.format("Load balancer: %d backends, policy=%s", backends.size(),
+            config.getBalancerPolicy()));
+    }
+
+    public void stop() {
+        running = false;
+        if (healthChecker != null) {
+            healthChecker.interrupt();
+        }
+        for (Backend backend : backends) {
+            backend.closeIdle();
+        }
+    }
+
+    /**
+     * Forward the request to a backend and fill in the response with its answer.
+     * Idempotent requests are retried once on another backend if the first one fails.
+     */
+    public HttpResponse forward(HttpRequest request, HttpResponse response, String clientAddress)
+            throws IOException {
+        // Spool the body so it can be replayed on a retry and sent with a known length
+        RequestBody body = request.getRequestBody();
+        if (body != null) {
+            body.spool();
+        }
+
+        Backend first = choose(null);
+        if (first == null) {
+            return response.setError(503, "No backend is available.");
+        }
+        try {
+            return forwardTo(first, request, response, clientAddress);
+        } catch (IOException e) {
+            recordFailure(first, e.getMessage());
+            Backend second = isIdempotent(request.getMethod()) ? choose(first) : null;
+            if (second == null) {
+                return gatewayError(response.reset(), e);
+            }
+            try {
+                return forwardTo(second, request, response.reset(), clientAddress);
+            } catch (IOException retryError) {
+                recordFailure(second, retryError.getMessage());
+                return gatewayError(response.reset(), retryError);
+            }
+        }
+    }
+
+    private HttpResponse gatewayError(HttpResponse response, IOException e) {
+        return e instanceof SocketTimeoutException
+            ? response.setError(504, "The backend did not answer in time.")
+            : response.setError(502, "The backend could not be reached.");
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Pick a backend by the configured policy, skipping one that just failed
+     */
+    Backend choose(Backend exclude) {
+        long now = System.currentTimeMillis();
+        List<Backend> candidates = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (backend != exclude && backend.isAvailable(now)) {
+                candidates.add(backend);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        if (POLICY_P2C.equals(config.getBalancerPolicy())) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(candidates.size());
+            int b = random.nextInt(candidates.size() - 1);
+            if (b >= a) {
+                b++;
+            }
+            Backend first = candidates.get(a);
+            Backend second = candidates.get(b);
+            return second.outstanding.get() < first.outstanding.get() ? second : first;
+        }
+
+        // Least outstanding; start the scan at a rotating index so ties are spread round robin
+        int start = Math.floorMod(nextIndex.getAndIncrement(), candidates.size());
+        Backend best = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Backend backend = candidates.get((start + i) % candidates.size());
+            if (best == null || backend.outstanding.get() < best.outstanding.get()) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+
+    private HttpResponse forwardTo(Backend backend, HttpRequest request, HttpResponse response,
+                                   String clientAddress) throws IOException {
+        backend.outstanding.incrementAndGet();
+        backend.requests.incrementAndGet();
+        Backend.Connection connection = backend.pooled();
+        try {
+            ResponseHead head;
+            if (connection != null) {
+                boolean sent = false;
+                try {
+                    writeRequest(connection.out, request, clientAddress);
+                    sent = true;
+                    head = readHead(connection, response);
+                } catch (SocketTimeoutException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // The backend may have closed this idle connection. Try once on a fresh one, but a
+                    // request it may already have acted on is only repeated if doing so is harmless
+                    if (sent && !isIdempotent(request.getMethod())) {
+                        throw e;
+                    }
+                    connection.close();
+                    connection = backend.connect();
+                    head = exchange(connection, request, response.reset(), clientAddress);
+                }
+            } else {
+                connection = backend.connect();
+                head = exchange(connection, request, response, clientAddress);
+            }
+
+            if (head.status >= 500) {
+                recordFailure(backend, "status " + head.status);
+            } else {
+                backend.consecutiveFailures.set(0);
+            }
+            attachBody(backend, connection, head, request, response);
+            return response;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            backend.release(null, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Send the request and read the response status and headers into the response
+     */
+    private ResponseHead exchange(Backend.Connection connection, HttpRequest request, HttpResponse response,
+                                  String clientAddress) throws IOException {
+        writeRequest(connection.out, request, clientAddress);
+        return readHead(connection, response);
+    }
+
+    /**
+     * Read the response status and headers into the response, skipping interim 1xx responses
+     */
+    private ResponseHead readHead(Backend.Connection connection, HttpResponse response) throws IOException {
+        ResponseHead head = new ResponseHead();
+        String statusLine = readStatusLine(connection);
+        while (statusLine.startsWith("HTTP/1.1 1") || statusLine.startsWith("HTTP/1.0 1")) {
+            // Interim 1xx response; its headers are dropped
+            readHeaders(connection, head, null);
+            statusLine = readStatusLine(connection);
+        }
+
+        String[] parts = statusLine.split(" ", 3);
+        try {
+            head.status = Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed backend status line: " + statusLine);
+        }
+        response.setStatus(head.status, parts.length > 2 ? parts[2] : "");
+        head.contentLength = -1;
+        head.chunked = false;
+        head.close = statusLine.startsWith("HTTP/1.0");
+        readHeaders(connection, head, response);
+        return head;
+    }
+
+    private static String readStatusLine(Backend.Connection connection) throws IOException {
+        String statusLine = connection.in.readLine();
+        if (statusLine == null) {
+            throw new IOException("Backend closed the connection without a response");
+        }
+        if (!statusLine.startsWith("HTTP/")) {
+            throw new IOException("Malformed backend status line: " + statusLine);
+        }
+        return statusLine;
+    }
+
+    /**
+     * Read header lines up to the blank line, noting the framing in head and copying
+     * end-to-end headers into response if given. Headers the backend names in
+     * Connection are hop-by-hop too (RFC 7230 6.1); it may list them before or after.
+     */
+    private static void readHeaders(Backend.Connection connection, ResponseHead head, HttpResponse response)
+            throws IOException {
+        List<String[]> endToEnd = new ArrayList<>();
+        Set<String> nominated = new HashSet<>();
+        String line;
+        while ((line = connection.in.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    head.contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid backend Content-Length: " + value);
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                head.chunked = value.toLowerCase().contains("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                addConnectionTokens(value, nominated);
+                head.close = nominated.contains("close");
+            }
+            if (response != null && !isHopByHop(name)) {
+                endToEnd.add(new String[] {name, value});
+            }
+        }
+        if (line == null) {
+            throw new IOException("Backend closed the connection inside the response headers");
+        }
+        for (String[] header : endToEnd) {
+            if (!nominated.contains(header[0].toLowerCase(Locale.ROOT))) {
+                response.addHeader(header[0], header[1]);
+            }
+        }
+    }
+
+    /**
+     * Add the lower-cased header names listed in a Connection value
+     */
+    private static void addConnectionTokens(String value, Set<String> tokens) {
+        for (String token : value.split(",")) {
+            if (!token.isBlank()) {
+                tokens.add(token.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    private void writeRequest(OutputStream out, HttpRequest request, String clientAddress) throws IOException {
+        RequestBody body = request.getRequestBody();
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.getMethod()).append(' ').append(request.getUri()).append(" HTTP/1.1\r\n");
+
+        HttpHeaders headers = request.getHeaderTable();
+        Set<String> nominated = new HashSet<>();
+        if (request.getHeader("connection") != null) {
+            addConnectionTokens(request.getHeader("connection"), nominated);
+        }
+        String forwardedFor = null;
+        boolean hasHost = false;
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.nameAt(i);
+            if (isHopByHop(name) || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Expect")
+                    || nominated.contains(name.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("X-Forwarded-For")) {
+                forwardedFor = headers.valueAt(i);
+                continue;
+            }
+            hasHost |= name.equalsIgnoreCase("Host");
+            head.append(name).append(": ").append(headers.valueAt(i)).append("\r\n");
+        }
+        if (!hasHost) {
+            head.append("Host: ").append(request.getHeader("host") != null ? request.getHeader("host") : "")
+                .append("\r\n");
+        }
+        head.append("X-Forwarded-For: ")
+            .append(forwardedFor != null ? forwardedFor + ", " + clientAddress : clientAddress).append("\r\n");
+        head.append("Connection: keep-alive\r\n");
+        if (body != null) {
+            head.append("Content-Length: ").append(body.getBytesRead()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        if (body != null) {
+            try (InputStream in = body.getInputStream()) {
+                in.transferTo(out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Attach the response body. A Content-Length body is streamed from the connection,
+     * which the body stream releases once sent; otherwise the connection is released here.
+     */
+    private void attachBody(Backend backend, Backend.Connection connection, ResponseHead head,
+                            HttpRequest request, HttpResponse response) throws IOException {
+        // No body for HEAD, 204 and 304; the backend's Content-Length is passed through as is
+        if ("HEAD".equals(request.getMethod()) || head.status == 204 || head.status == 304) {
+            backend.release(connection, !head.close);
+            return;
+        }
+
+        if (head.chunked) {
+            // Decode into memory or a temp file so the client gets a Content-Length
+            String tempDir = config.getBodyTempDir();
+            RequestBody decoded = RequestBody.forMessage(connection.in, -1, new RequestBody.Limits(
+                config.getBalancerMaxSpooledBody(), config.getBodySpoolThreshold(),
+                tempDir.isEmpty() ? null : new File(tempDir)));
+            decoded.spool();
+            backend.release(connection, !head.close);
+            response.setBodyStream(new SpooledBody(decoded), decoded.getBytesRead());
+            return;
+        }
+
+        if (head.contentLength < 0) {
+            throw new IOException("Backend response has neither Content-Length nor chunked coding");
+        }
+        response.setBodyStream(new BackendBody(backend, connection, head.contentLength, !head.close),
+            head.contentLength);
+    }
+
+    private static boolean isHopByHop(String name) {
+        for (String header : HOP_BY_HOP) {
+            if (header.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count a failed request and eject the backend once it fails too many in a row
+     */
+    private void recordFailure(Backend backend, String reason) {
+        backend.failures.incrementAndGet();
+        int failures = backend.consecutiveFailures.incrementAndGet();
+        if (config.getBalancerEjectAfter() <= 0 || failures < config.getBalancerEjectAfter()) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now < backend.ejectedUntil || backend.consecutiveFailures.get() < config.getBalancerEjectAfter()) {
+                return;
+            }
+            // Never eject the last available backend; a degraded answer beats none
+            if (choose(backend) == null) {
+                return;
+            }
+            backend.ejections++;
+            long duration = config.getBalancerEjectDuration() * Math.min(backend.ejections, 10);
+            backend.ejectedUntil = now + duration;
+            backend.consecutiveFailures.set(0);
+            backend.closeIdle();
+            logger.warn(String.format("Backend %s ejected for %d ms after %d consecutive failures (last: %s)",
+                backend.getAddress(), duration, failures, reason));
+        }
+    }
+
+    private void checkHealthLoop() {
+        while (running) {
+            for (Backend backend : backends) {
+                checkHealth(backend);
+            }
+            try {
+                Thread.sleep(config.getBalancerHealthInterval());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Probe the health path; a 2xx or 3xx answer passes
+     */
+    private void checkHealth(Backend backend) {
+        boolean passed;
+        String detail;
+        Backend.Connection connection = null;
+        try {
+            connection = backend.connect(config.getBalancerHealthTimeout());
+            String probe = "GET " + config.getBalancerHealthPath() + " HTTP/1.1\r\nHost: "
+                + backend.getAddress() + "\r\nConnection: close\r\n\r\n";
+            connection.out.write(probe.getBytes(StandardCharsets.ISO_8859_1));
+            connection.out.flush();
+            String statusLine = connection.in.readLine();
+            String[] parts = statusLine != null ? statusLine.split(" ", 3) : new String[0];
+            int status = parts.length >= 2 ? Integer.parseInt(parts[1]) : -1;
+            passed = status >= 200 && status < 400;
+            detail = "status " + status;
+        } catch (IOException | NumberFormatException e) {
+            passed = false;
+            detail = e.getMessage();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        if (passed) {
+            backend.failedChecks = 0;
+            if (!backend.healthy && ++backend.passedChecks >= config.getBalancerHealthyThreshold()) {
+                backend.healthy = true;
+                logger.info(String.format("Backend %s is healthy again", backend.getAddress()));
+            }
+        } else {
+            backend.passedChecks = 0;
+            if (backend.healthy && ++backend.failedChecks >= config.getBalancerUnhealthyThreshold()) {
+                backend.healthy = false;
+                backend.closeIdle();
+                logger.warn(String.format("Backend %s failed %d health checks, taking it out (%s)",
+                    backend.getAddress(), backend.failedChecks, detail));
+            }
+        }
+    }
+
+    /**
+     * Backend state for /_admin/balancer
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Load balancer policy=%s, backends=%d%n", config.getBalancerPolicy(), backends.size()));
+        long now = System.currentTimeMillis();
+        for (Backend backend : backends) {
+            String state = !backend.healthy ? "unhealthy"
+                : now < backend.ejectedUntil ? "ejected " + (backend.ejectedUntil - now) + " ms" : "up";
+            sb.append(String.format("  %s %s outstanding=%d requests=%d failures=%d ejections=%d%n",
+                backend.getAddress(), state, backend.outstanding.get(), backend.requests.get(),
+                backend.failures.get(), backend.ejections));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Status and framing of a backend response
+     */
+    private static final class ResponseHead {
+        int status;
+        long contentLength;
+        boolean chunked;
+        boolean close;
+    }
+
+    /**
+     * Content-Length body read straight from the backend connection while it is sent to the client.
+     * Closing it returns the connection to the pool if the body was read completely.
+     */
+    private static final class BackendBody extends InputStream {
+        private final Backend backend;
+        private final Backend.Connection connection;
+        private final boolean reusable;
+        private long remaining;
+        private boolean closed;
+
+        BackendBody(Backend backend, Backend.Connection connection, long length, boolean reusable) {
+            this.backend = backend;
+            this.connection = connection;
+            this.remaining = length;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = connection.in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("Backend closed the connection inside the response body");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                backend.release(connection, reusable && remaining == 0);
+            }
+        }
+    }
+
+    /**
+     * Decoded chunked body; closing it deletes any temp file
+     */
+    private static final class SpooledBody extends InputStream {
+        private final RequestBody body;
+        private InputStream in;
+
+        SpooledBody(RequestBody body) {
+            this.body = body;
+        }
+
+        private InputStream in() throws IOException {
+            if (in == null) {
+                in = body.getInputStream();
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.webserver.cache;
+
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-hashed names for static assets.
+ * Every asset is also reachable as name.HASH.ext, where HASH is the start of the
+ * SHA-256 of its content, so that URL can be cached forever: new content means a
+ * new name. HTML pages are served with their src and href references rewritten
+ * to those names; original URLs keep working. Files are hashed at startup and
+ * re-checked on use at most once per CHECK_INTERVAL_MILLIS, so an edited asset
+ * gets a new name and pages pick it up without a restart.
+ */
+public class AssetManifest {
+    private static final int HASH_LENGTH = 12;
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    private static final Pattern FINGERPRINTED =
+        Pattern.compile("^(.*)\\.([0-9a-f]{" + HASH_LENGTH + "})(\\.[^./]+)$");
+    private static final Pattern REFERENCE =
+        Pattern.compile("(?i)(\\b(?:src|href)\\s*=\\s*)([\"'])([^\"'<>]+)\\2");
+
+    /**
+     * A fingerprinted request mapped back to the file it names
+     */
+    public static final class Lookup {
+        private final String originalUri;
+        private final boolean current;
+
+        Lookup(String originalUri, boolean current) {
+            this.originalUri = originalUri;
+            this.current = current;
+        }
+
+        public String getOriginalUri() { return originalUri; }
+        /** False if the asset has changed since the name was handed out */
+        public boolean isCurrent() { return current; }
+    }
+
+    /**
+     * An HTML page with its asset references rewritten; body is null if it references none
+     */
+    public static final class Page {
+        private final long size;
+        private final long lastModified;
+        private final byte[] body;
+        private final String etag;
+        private final List<Asset> references;
+        private final List<String> hashes;
+        private volatile long checkedAt;
+
+        Page(long size, long lastModified, byte[] body, List<Asset> references, List<String> hashes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.body = body;
+            this.etag = body != null ? "\"fp-" + sha256(body).substring(0, 16) + "\"" : null;
+            this.references = references;
+            this.hashes = hashes;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        public byte[] getBody() { return body; }
+        /** Validator for the rewritten body; changes when any referenced asset does */
+        public String getEtag() { return etag; }
+    }
+
+    private static final class Asset {
+        final Path file;
+        volatile String hash;
+        volatile long size;
+        volatile long lastModified;
+        volatile long checkedAt;
+
+        Asset(Path file) {
+            this.file = file;
+        }
+    }
+
+    private final Path documentRoot;
+    private final Set<String> extensions = new HashSet<>();
+    private final long maxHtmlSize;
+    private final Map<Path, Asset> assets = new ConcurrentHashMap<>();
+    private final Map<Path, Page> pages = new ConcurrentHashMap<>();
+    private final Logger logger;
+    private final AtomicLong immutableHits = new AtomicLong(0);
+    private final AtomicLong staleHits = new AtomicLong(0);
+    private final AtomicLong pagesRewritten = new AtomicLong(0);
+
+    /**
+     * @param extensions comma-separated file extensions treated as assets, e.g. "css,js,png"
+     */
+    public AssetManifest(String documentRoot, String extensions, long maxHtmlSize) {
+        this.documentRoot = new File(documentRoot).toPath().toAbsolutePath().normalize();
+        for (String extension : extensions.split(",")) {
+            if (!extension.trim().isEmpty()) {
+                this.extensions.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        this.maxHtmlSize = maxHtmlSize;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Hash every asset under the document root and rewrite every page
+     */
+    public void build() {
+        long start = System.nanoTime();
+        List<Path> htmlFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(documentRoot)) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                if (isAsset(path)) {
+                    asset(path);
+                } else if (isHtml(path)) {
+                    htmlFiles.add(path);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Asset fingerprinting could not scan the document root: " + e.getMessage());
+        }
+        for (Path html : htmlFiles) {
+            page(html.toFile());
+        }
+        logger.info(String.format("Asset fingerprints: %d assets hashed, %d of %d pages rewritten in %d ms",
+            assets.size(), pagesRewritten.get(), htmlFiles.size(), (System.nanoTime() - start) / 1_000_000));
+    }
+
+    /**
+     * The original URI behind a fingerprinted one, or null if uri is not fingerprinted
+     * or names a file that exists as is
+     */
+    public Lookup resolve(String uri) {
+        Matcher m = FINGERPRINTED.matcher(uri);
+        if (!m.matches()) {
+            return null;
+        }
+        // A real file whose name merely looks fingerprinted, e.g. from a build tool, is served unchanged
+        Path literal = documentRoot.resolve(uri.substring(1)).normalize();
+        if (literal.startsWith(documentRoot) && Files.isRegularFile(literal)) {
+            return null;
+        }
+        String originalUri = m.group(1) + m.group(3);
+        Path file = documentRoot.resolve(originalUri.substring(1)).normalize();
+        if (!file.startsWith(documentRoot) || !isAsset(file)) {
+            return null;
+        }
+        String hash = currentHash(asset(file));
+        if (hash == null) {
+            return null;
+        }
+        // An old name still serves the new content, just not as cacheable forever
+        boolean current = hash.equals(m.group(2));
+        (current ? immutableHits : staleHits).incrementAndGet();
+        return new Lookup(originalUri, current);
+    }
+
+    /**
+     * The page with its references rewritten; null if file is not HTML, too large,
+     * unreadable or references no assets
+     */
+    public Page page(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!isHtml(path)) {
+            return null;
+        }
+        Page page = pages.get(path);
+        long now = System.currentTimeMillis();
+        if (page != null && now - page.checkedAt < CHECK_INTERVAL_MILLIS) {
+            return page.body != null ? page : null;
+        }
+        if (page != null && isUnchanged(page, file)) {
+            page.checkedAt = now;
+            return page.body != null ? page : null;
+        }
+
+        page = rewrite(path, file);
+        if (page == null) {
+            pages.remove(path);
+            return null;
+        }
+        pages.put(path, page);
+        return page.body != null ? page : null;
+    }
+
+    private boolean isUnchanged(Page page, File file) {
+        if (file.length() != page.size || file.lastModified() != page.lastModified) {
+            return false;
+        }
+        for (int i = 0; i < page.references.size(); i++) {
+            if (!page.hashes.get(i).equals(currentHash(page.references.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Page rewrite(Path path, File file) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        if (size > maxHtmlSize) {
+            return null;
+        }
+        String html;
+        try {
+            html = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+
+        List<Asset> references = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        Matcher m = REFERENCE.matcher(html);
+        StringBuilder out = new StringBuilder(html.length() + 256);
+        while (m.find()) {
+            String reference = m.group(3);
+            String fingerprinted = fingerprint(path, reference, references, hashes);
+            m.appendReplacement(out, Matcher.quoteReplacement(
+                fingerprinted != null ? m.group(1) + m.group(2) + fingerprinted + m.group(2) : m.group()));
+        }
+        m.appendTail(out);
+
+        if (references.isEmpty()) {
+            // Remember that there is nothing to rewrite so the file is not read again
+            return new Page(size, lastModified, null, references, hashes);
+        }
+        pagesRewritten.incrementAndGet();
+        return new Page(size, lastModified, out.toString().getBytes(StandardCharsets.UTF_8), references, hashes);
+    }
+
+    /**
+     * The reference with the asset's hash inserted before the extension, or null to leave it alone
+     */
+    private String fingerprint(Path page, String reference, List<Asset> references, List<String> hashes) {
+        if (reference.startsWith("#") || reference.startsWith("//") || reference.indexOf(':') >= 0) {
+            return null; // Fragment, other host or scheme
+        }
+        int suffixStart = reference.length();
+        for (char c : new char[] {'?', '#'}) {
+            int index = reference.indexOf(c);
+            if (index >= 0 && index < suffixStart) {
+                suffixStart = index;
+            }
+        }
+        String target = reference.substring(0, suffixStart);
+        int slash = target.lastIndexOf('/');
+        int dot = target.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return null;
+        }
+
+        Path file;
+        try {
+            file = (target.startsWith("/") ? documentRoot.resolve(target.substring(1))
+                : page.getParent().resolve(target)).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!file.startsWith(documentRoot) || !isAsset(file) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        Asset asset = asset(file);
+        String hash = currentHash(asset);
+        if (hash == null) {
+            return null;
+        }
+        references.add(asset);
+        hashes.add(hash);
+        return target.substring(0, dot) + "." + hash + target.substring(dot) + reference.substring(suffixStart);
+    }
+
+    private Asset asset(Path file) {
+        return assets.computeIfAbsent(file, Asset::new);
+    }
+
+    /**
+     * Hash of the asset's content now, rehashing if it changed; null if it is gone
+     */
+    private String currentHash(Asset asset) {
+        long now = System.currentTimeMillis();
+        if (asset.hash != null && now - asset.checkedAt < CHECK_INTERVAL_MILLIS) {
+            return asset.hash;
+        }
+        synchronized (asset) {
+            File file = asset.file.toFile();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                asset.hash = null;
+                assets.remove(asset.file, asset);
+                return null;
+            }
+            if (asset.hash == null || size != asset.size || lastModified != asset.lastModified) {
+                try {
+                    asset.hash = hashFile(asset.file);
+                } catch (IOException e) {
+                    logger.warn(String.format("Could not fingerprint %s: %s", asset.file, e.getMessage()));
+                    return null;
+                }
+                asset.size = size;
+                asset.lastModified = lastModified;
+            }
+            asset.checkedAt = now;
+            return asset.hash;
+        }
+    }
+
+    private boolean isAsset(Path file) {
+        String name = file.getFileName() != null ? file.getFileName().toString() : "";
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean isHtml(Path file) {
+        String name = file.getFileName() != null ? file.getFileName().toString().toLowerCase(Locale.ROOT) : "";
+        return name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[16384];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return toHex(digest.digest()).substring(0, HASH_LENGTH);
+    }
+
+    private static String sha256(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counts for /_admin/assets
+     */
+    public String describe() {
+        return String.format("AssetManifest{assets=%d, pages=%d, pagesRewritten=%d, immutableHits=%d, "
+                + "staleHits=%d, extensions=%s}%n", assets.size(), pages.size(), pagesRewritten.get(),
+            immutableHits.get(), staleHits.get(), extensions);
+    }
+}
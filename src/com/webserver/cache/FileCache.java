@@ -0,0 +1,251 @@
+package com.webserver.cache;
+
+import com.webserver.http.HttpResponse;
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory cache of static file metadata and small file bodies.
+ * Every entry carries the MIME type and ETag so they are resolved once per file
+ * version; bodies are kept for files under the size limit while the total stays
+ * within the memory budget. Entries are validated against the file's size and
+ * modification time on each lookup, so edits on disk are picked up immediately.
+ * Larger bodies go to the optional OffHeapStore instead of the heap. The map
+ * holds at most maxEntries files; past that the least recently used are dropped.
+ */
+public class FileCache {
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final int maxEntries;
+    private final OffHeapStore offHeap;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong cachedBytes = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final Logger logger;
+
+    /**
+     * @param offHeap tier for bodies over maxFileSize, or null to stream them from disk
+     */
+    public FileCache(long maxBytes, long maxFileSize, int maxEntries, OffHeapStore offHeap) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.offHeap = offHeap;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Get the entry for a regular file, refreshing it if the file changed on disk
+     */
+    public Entry get(File file) throws IOException {
+        return get(file, true);
+    }
+
+    /**
+     * Get the entry for a regular file; with cacheBody false a missing body is not loaded
+     */
+    public Entry get(File file, boolean cacheBody) throws IOException {
+        Path path = file.toPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Entry entry = entries.get(path);
+        boolean heapBody = size <= maxFileSize;
+        boolean wantBody = cacheBody && isCacheable(size);
+        if (entry != null && entry.matches(size, lastModified)
+                && (entry.hasBody() || entry.hasOffHeapBody() || !wantBody
+                    || heapBody && cachedBytes.get() + size > maxBytes)) {
+            hits.incrementAndGet();
+            entry.lastUsed = System.nanoTime();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        return load(path, size, lastModified, wantBody);
+    }
+
+    /**
+     * Build and store an entry, optionally reading the body into memory
+     */
+    public Entry load(Path path, long size, long lastModified, boolean withBody) throws IOException {
+        byte[] body = null;
+        OffHeapStore.Slot slot = null;
+        if (withBody && size > maxFileSize && offHeap != null) {
+            slot = offHeap.store(path, size);
+        } else if (withBody && reserve(size)) {
+            try {
+                body = Files.readAllBytes(path);
+            } catch (IOException e) {
+                cachedBytes.addAndGet(-size);
+                throw e;
+            }
+            if (body.length != size) {
+                // File changed while reading; cache metadata only
+                cachedBytes.addAndGet(-size);
+                body = null;
+            }
+        }
+
+        String mimeType = HttpResponse.getMimeType(path.getFileName().toString());
+        Entry entry = new Entry(path, size, lastModified, mimeType, body, slot);
+        replace(path, entry);
+        return entry;
+    }
+
+    /**
+     * Store a body obtained elsewhere, such as from a cluster peer; kept as metadata only if over budget
+     */
+    public Entry put(Path path, long size, long lastModified, byte[] body) {
+        byte[] kept = body.length == size && size <= maxFileSize && reserve(size) ? body : null;
+        Entry entry = new Entry(path, size, lastModified, HttpResponse.getMimeType(path.getFileName().toString()),
+            kept, null);
+        replace(path, entry);
+        return entry;
+    }
+
+    private void replace(Path path, Entry entry) {
+        Entry previous = entries.put(path, entry);
+        if (previous != null && previous.body != null) {
+            cachedBytes.addAndGet(-previous.body.length);
+        }
+        if (previous == null && entries.size() > maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * Drop the least recently used entries, down to nine tenths of maxEntries so
+     * this runs once per batch of new files rather than on every one
+     */
+    private void evictLeastRecentlyUsed() {
+        if (!evictionLock.tryLock()) {
+            return; // Another thread is already making room
+        }
+        try {
+            Entry[] candidates = entries.values().toArray(new Entry[0]);
+            int excess = candidates.length - (maxEntries - maxEntries / 10);
+            if (excess <= 0) {
+                return;
+            }
+            // Copy the stamps first: hits keep updating them while we sort
+            long[] stamps = new long[candidates.length];
+            for (int i = 0; i < candidates.length; i++) {
+                stamps[i] = candidates[i].lastUsed;
+            }
+            long[] sorted = stamps.clone();
+            Arrays.sort(sorted);
+            long cutoff = sorted[excess - 1];
+            int removed = 0;
+            for (int i = 0; i < candidates.length && removed < excess; i++) {
+                Entry victim = candidates[i];
+                if (stamps[i] <= cutoff && entries.remove(victim.path, victim)) {
+                    if (victim.body != null) {
+                        cachedBytes.addAndGet(-victim.body.length);
+                    }
+                    removed++;
+                }
+            }
+            evictions.addAndGet(removed);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * True if a body of this size would be kept by one of the tiers
+     */
+    public boolean isCacheable(long size) {
+        return size <= maxFileSize || offHeap != null && offHeap.accepts(size);
+    }
+
+    /**
+     * True if a body of this size fits the heap tier, the only tier a peer's copy can go into
+     */
+    public boolean isHeapCacheable(long size) {
+        return size <= maxFileSize;
+    }
+
+    /**
+     * Reserve room for a body within the memory budget
+     */
+    private boolean reserve(long size) {
+        while (true) {
+            long current = cachedBytes.get();
+            if (current + size > maxBytes) {
+                return false;
+            }
+            if (cachedBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    public int getEntryCount() { return entries.size(); }
+    /** True once the map holds maxEntries files; further new files evict older ones */
+    public boolean isFull() { return entries.size() >= maxEntries; }
+    public long getCachedBytes() { return cachedBytes.get(); }
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public OffHeapStore getOffHeapStore() { return offHeap; }
+
+    @Override
+    public String toString() {
+        return String.format("FileCache{entries=%d, bytes=%d, hits=%d, misses=%d, evictions=%d}%s",
+            entries.size(), cachedBytes.get(), hits.get(), misses.get(), evictions.get(),
+            offHeap != null ? "\n" + offHeap : "");
+    }
+
+    /**
+     * Cached view of one file version
+     */
+    public static class Entry {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        private final String mimeType;
+        private final String etag;
+        private final String lastModifiedHeader;
+        private final byte[] body;
+        private final OffHeapStore.Slot offHeapBody;
+        // Written on every hit without ordering; eviction only needs an approximate age
+        private long lastUsed = System.nanoTime();
+
+        Entry(Path path, long size, long lastModified, String mimeType, byte[] body, OffHeapStore.Slot offHeapBody) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            this.lastModifiedHeader = HttpResponse.formatDate(lastModified);
+            this.body = body;
+            this.offHeapBody = offHeapBody;
+        }
+
+        boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        public Path getPath() { return path; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+        public String getMimeType() { return mimeType; }
+        public String getEtag() { return etag; }
+        public String getLastModifiedHeader() { return lastModifiedHeader; }
+        public byte[] getBody() { return body; }
+        public boolean hasBody() { return body != null; }
+        /** Off-heap location of the body; check hasOffHeapBody() first, it may since have been evicted */
+        public OffHeapStore.Slot getOffHeapBody() { return offHeapBody; }
+        public boolean hasOffHeapBody() { return offHeapBody != null && offHeapBody.isLive(); }
+    }
+}
@@ -0,0 +1,225 @@
+package com.webserver.cache;
+
+import com.webserver.http.HttpRequest;
+import com.webserver.http.HttpResponse;
+import com.webserver.util.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache for generated responses such as directory listings.
+ * Entries are fresh for ttl, then served stale for up to staleWhileRevalidate
+ * more while one background refresh recomputes them. Concurrent misses for a
+ * key wait on a single computation instead of each doing the same work.
+ */
+public class MicroCache {
+
+    /**
+     * A generated response, immutable once built and shared by every hit
+     */
+    public static final class Snapshot {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+        private final long createdAt;
+
+        public Snapshot(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        public static Snapshot html(String html) {
+            return new Snapshot(200, "text/html; charset=UTF-8", html.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Fill in the connection's response; Age tells clients how old the content is
+         */
+        public HttpResponse applyTo(HttpResponse response) {
+            response.setStatus(status);
+            response.setContentType(contentType);
+            response.addHeader("Age", String.valueOf((System.currentTimeMillis() - createdAt) / 1000));
+            return response.setBody(body);
+        }
+    }
+
+    private static final class Entry {
+        final Snapshot snapshot;
+        final long freshUntil;
+        final long staleUntil;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(Snapshot snapshot, long freshUntil, long staleUntil) {
+            this.snapshot = snapshot;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    private final long ttl;
+    private final long staleWhileRevalidate;
+    private final int maxEntries;
+    private final String[] varyHeaders;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Snapshot>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+    private final Logger logger;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong staleHits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong refreshes = new AtomicLong(0);
+    private final AtomicLong notStored = new AtomicLong(0);
+
+    /**
+     * @param varyHeaders comma-separated request headers whose values become part of the key
+     */
+    public MicroCache(long ttl, long staleWhileRevalidate, int maxEntries, String varyHeaders) {
+        this.ttl = ttl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.maxEntries = maxEntries;
+        this.varyHeaders = varyHeaders.trim().isEmpty() ? new String[0] : varyHeaders.trim().split("\\s*,\\s*");
+        this.logger = Logger.getInstance();
+        // One refresher with a short queue; a refresh that cannot be queued is retried by the next stale hit
+        this.refresher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(64),
+            r -> {
+                Thread thread = new Thread(r, "MicroCache-Refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Method, URI and the configured vary headers
+     */
+    public String keyFor(HttpRequest request) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(request.getMethod()).append(' ').append(request.getUri());
+        for (String header : varyHeaders) {
+            String value = request.getHeader(header);
+            key.append('\n').append(header).append(": ").append(value != null ? value : "");
+        }
+        return key.toString();
+    }
+
+    /**
+     * Cached snapshot for the key, computing it with loader on a miss
+     */
+    public Snapshot get(String key, Supplier<Snapshot> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.freshUntil) {
+            hits.incrementAndGet();
+            return entry.snapshot;
+        }
+        if (entry != null && now < entry.staleUntil) {
+            staleHits.incrementAndGet();
+            if (entry.refreshing.compareAndSet(false, true)) {
+                scheduleRefresh(key, entry, loader);
+            }
+            return entry.snapshot;
+        }
+        return load(key, loader);
+    }
+
+    private Snapshot load(String key, Supplier<Snapshot> loader) {
+        CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+        CompletableFuture<Snapshot> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            try {
+                return running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for " + key, e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Shared computation failed", e.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            Snapshot snapshot = loader.get();
+            store(key, snapshot);
+            mine.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private void scheduleRefresh(String key, Entry stale, Supplier<Snapshot> loader) {
+        try {
+            refresher.execute(() -> {
+                try {
+                    refreshes.incrementAndGet();
+                    store(key, loader.get());
+                } catch (RuntimeException e) {
+                    logger.warn(String.format("Micro-cache refresh failed for %s: %s", key, e.getMessage()));
+                } finally {
+                    stale.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale.refreshing.set(false);
+        }
+    }
+
+    private void store(String key, Snapshot snapshot) {
+        // Server errors are not worth repeating to every client for a whole TTL
+        if (snapshot.status >= 500) {
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictExpired();
+            if (entries.size() >= maxEntries) {
+                notStored.incrementAndGet();
+                return;
+            }
+        }
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(snapshot, now + ttl, now + ttl + staleWhileRevalidate));
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (now >= it.next().staleUntil) {
+                it.remove();
+            }
+        }
+    }
+
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /**
+     * Hit rates for /_admin/microcache
+     */
+    public String describe() {
+        return String.format("MicroCache{entries=%d, hits=%d, staleHits=%d, misses=%d, coalesced=%d, "
+                + "refreshes=%d, notStored=%d, ttl=%dms, staleWhileRevalidate=%dms}%n", entries.size(), hits.get(),
+            staleHits.get(), misses.get(), coalesced.get(), refreshes.get(), notStored.get(), ttl,
+            staleWhileRevalidate);
+    }
+}
@@ -0,0 +1,243 @@
+package com.webserver.cache;
+
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap tier for file bodies too large for the heap cache.
+ * Memory is split into fixed-size segments, either direct buffers or regions of
+ * a memory-mapped slab file. Bodies are appended to the current segment; when the
+ * store is full the oldest segment is recycled as a whole and every body in it
+ * becomes invalid at once, so eviction needs no per-entry bookkeeping and the
+ * garbage collector never sees the bytes. Segments are allocated on first use.
+ *
+ * A reader pins a body while sending it; a pinned segment is skipped rather
+ * than recycled, so a slow client never sees its bytes overwritten.
+ */
+public class OffHeapStore {
+    // Segment pin count while it is being recycled; keeps readers out
+    private static final int RECYCLING = -1;
+
+    private final long capacity;
+    private final int segmentSize;
+    private final String slabFile;
+    private final Segment[] segments;
+    private final Logger logger;
+    private FileChannel slabChannel;
+    private int current = -1;
+
+    private final AtomicLong stored = new AtomicLong(0);
+    private final AtomicLong storedBytes = new AtomicLong(0);
+    private final AtomicLong recycled = new AtomicLong(0);
+    private final AtomicLong pinnedSkips = new AtomicLong(0);
+
+    /**
+     * @param slabFile path of the backing file, or empty for direct memory
+     */
+    public OffHeapStore(long capacity, int segmentSize, String slabFile) {
+        this.segmentSize = segmentSize;
+        this.segments = new Segment[(int) Math.max(1, Math.min(capacity / segmentSize, 1 << 16))];
+        this.capacity = (long) segments.length * segmentSize;
+        this.slabFile = slabFile;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * True if a body of this size fits in one segment
+     */
+    public boolean accepts(long size) {
+        return size <= segmentSize;
+    }
+
+    /**
+     * Copy a file into the store; null if every segment that could take it is pinned
+     */
+    public Slot store(Path path, long size) throws IOException {
+        if (!accepts(size)) {
+            return null;
+        }
+        Segment segment;
+        int offset;
+        int generation;
+        synchronized (this) {
+            segment = current >= 0 ? segments[current] : null;
+            if (segment == null || segment.writeOffset + size > segmentSize) {
+                segment = nextSegment();
+                if (segment == null) {
+                    return null;
+                }
+            }
+            offset = segment.writeOffset;
+            segment.writeOffset += (int) size;
+            // Read while pinned: once the pin drops the segment may be recycled under a new generation
+            generation = segment.generation;
+            // The cursor cannot wrap onto a pinned segment, so the fill below is safe outside the lock
+            segment.pins.incrementAndGet();
+        }
+
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer target = segment.region(offset, (int) size);
+            while (target.hasRemaining()) {
+                if (in.read(target) < 0) {
+                    return null; // File shrank while reading; the space is reclaimed with the segment
+                }
+            }
+        } finally {
+            segment.pins.decrementAndGet();
+        }
+        stored.incrementAndGet();
+        storedBytes.addAndGet(size);
+        return new Slot(segment, offset, (int) size, generation);
+    }
+
+    /**
+     * Move the write cursor to the next free or recyclable segment
+     */
+    private Segment nextSegment() throws IOException {
+        for (int tries = 0; tries < segments.length; tries++) {
+            int index = (current + 1) % segments.length;
+            current = index;
+            Segment segment = segments[index];
+            if (segment == null) {
+                segment = new Segment(allocate(index));
+                segments[index] = segment;
+                return segment;
+            }
+            if (segment.pins.compareAndSet(0, RECYCLING)) {
+                // Every slot still pointing here now fails its generation check
+                segment.generation++;
+                segment.writeOffset = 0;
+                segment.pins.set(0);
+                recycled.incrementAndGet();
+                return segment;
+            }
+            pinnedSkips.incrementAndGet();
+        }
+        current = -1;
+        return null;
+    }
+
+    private ByteBuffer allocate(int index) throws IOException {
+        if (slabFile.isEmpty()) {
+            return ByteBuffer.allocateDirect(segmentSize);
+        }
+        if (slabChannel == null) {
+            File file = new File(slabFile);
+            slabChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            file.deleteOnExit();
+            logger.info("Off-heap cache backed by slab file: " + file.getAbsolutePath());
+        }
+        return slabChannel.map(FileChannel.MapMode.READ_WRITE, (long) index * segmentSize, segmentSize);
+    }
+
+    /**
+     * Release the slab file; direct segments are freed with the store
+     */
+    public synchronized void close() {
+        if (slabChannel != null) {
+            try {
+                slabChannel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close off-heap slab file: " + e.getMessage());
+            }
+        }
+    }
+
+    public long getCapacity() { return capacity; }
+    public long getStoredCount() { return stored.get(); }
+    public long getRecycledSegments() { return recycled.get(); }
+
+    @Override
+    public synchronized String toString() {
+        int allocated = 0;
+        for (Segment segment : segments) {
+            if (segment != null) {
+                allocated++;
+            }
+        }
+        return String.format("OffHeapStore{%s, segments=%d/%d x %d, stored=%d (%d bytes), recycled=%d, pinnedSkips=%d}",
+            slabFile.isEmpty() ? "direct" : slabFile, allocated, segments.length, segmentSize,
+            stored.get(), storedBytes.get(), recycled.get(), pinnedSkips.get());
+    }
+
+    /**
+     * One slab of off-heap memory. pins counts readers and fills in progress, or is RECYCLING
+     */
+    private static final class Segment {
+        private final ByteBuffer buffer;
+        private final AtomicInteger pins = new AtomicInteger(0);
+        private volatile int generation;
+        private int writeOffset; // Guarded by the store
+
+        Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        ByteBuffer region(int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            return view.slice();
+        }
+    }
+
+    /**
+     * Location of one stored body; valid until its segment is recycled
+     */
+    public static final class Slot {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final int generation;
+
+        Slot(Segment segment, int offset, int length, int generation) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.generation = generation;
+        }
+
+        /**
+         * False once the segment holding this body has been recycled
+         */
+        public boolean isLive() {
+            return segment.generation == generation;
+        }
+
+        /**
+         * Pin the segment and return a read-only view of the body, or null if it was evicted.
+         * Every non-null result must be followed by unpin().
+         */
+        public ByteBuffer pin() {
+            while (true) {
+                int pins = segment.pins.get();
+                if (pins == RECYCLING) {
+                    return null;
+                }
+                if (segment.pins.compareAndSet(pins, pins + 1)) {
+                    break;
+                }
+            }
+            if (!isLive()) {
+                segment.pins.decrementAndGet();
+                return null;
+            }
+            return segment.region(offset, length).asReadOnlyBuffer();
+        }
+
+        public void unpin() {
+            segment.pins.decrementAndGet();
+        }
+
+        public int getLength() { return length; }
+    }
+}
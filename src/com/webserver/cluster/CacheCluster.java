@@ -0,0 +1,164 @@
+package com.webserver.cluster;
+
+import com.webserver.cache.FileCache;
+import com.webserver.core.ServerConfig;
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads cached file bodies across the nodes serving the same document root.
+ * Every file is owned by one node on a consistent-hash ring: only the owner
+ * keeps its body cached, and other nodes fetch it from the owner over the peer
+ * protocol instead of reading shared storage, so total cache capacity grows with
+ * the node count. Keys fetched often from a peer are replicated into the local
+ * cache. A peer that fails is skipped for a while and its keys are read from disk.
+ *
+ * Peer protocol (big-endian, one request at a time per connection):
+ * <pre>
+ *   request:  byte OP_GET, UTF key, long size, long lastModified
+ *   response: byte STATUS_HIT, int length, body | byte STATUS_MISS
+ * </pre>
+ */
+public class CacheCluster {
+    static final byte OP_GET = 1;
+    static final byte STATUS_HIT = 0;
+    static final byte STATUS_MISS = 1;
+
+    // Fetch counts are reset when this many keys are tracked, which also ages out old heat
+    private static final int HOT_TRACKING_LIMIT = 10000;
+
+    private final String self;
+    private final Path documentRoot;
+    private final ConsistentHashRing ring;
+    private final Map<String, PeerClient> peers = new LinkedHashMap<>();
+    private final PeerServer server;
+    private final long retryInterval;
+    private final int hotThreshold;
+    private final Logger logger;
+    private final ConcurrentHashMap<String, AtomicInteger> fetchCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong remoteHits = new AtomicLong(0);
+    private final AtomicLong remoteMisses = new AtomicLong(0);
+    private final AtomicLong remoteErrors = new AtomicLong(0);
+    private final AtomicLong replicated = new AtomicLong(0);
+
+    public CacheCluster(ServerConfig config, FileCache fileCache) {
+        this.self = config.getClusterSelf().trim();
+        this.documentRoot = Paths.get(config.getDocumentRoot()).toAbsolutePath().normalize();
+        this.retryInterval = config.getClusterRetryInterval();
+        this.hotThreshold = config.getClusterHotThreshold();
+        this.logger = Logger.getInstance();
+
+        List<String> members = new ArrayList<>();
+        for (String peer : config.getClusterPeers().split(",")) {
+            String address = peer.trim();
+            if (address.isEmpty() || members.contains(address)) {
+                continue;
+            }
+            members.add(address);
+            if (!address.equals(self)) {
+                peers.put(address, new PeerClient(address, config.getClusterTimeout()));
+            }
+        }
+        if (!members.contains(self)) {
+            members.add(self);
+        }
+        this.ring = new ConsistentHashRing(members, config.getClusterVirtualNodes());
+
+        int colon = self.lastIndexOf(':');
+        this.server = new PeerServer(new InetSocketAddress(self.substring(0, colon),
+            Integer.parseInt(self.substring(colon + 1))), documentRoot, fileCache, members);
+    }
+
+    public void start() throws IOException {
+        server.start();
+        logger.info(String.format("Cache cluster: self=%s, peers=%s", self, peers.keySet()));
+    }
+
+    public void stop() {
+        server.stop();
+        for (PeerClient peer : peers.values()) {
+            peer.close();
+        }
+    }
+
+    /**
+     * Ring key of a file: its path relative to the document root, the same on every node
+     */
+    public String keyFor(File file) {
+        return documentRoot.relativize(file.toPath().toAbsolutePath().normalize()).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    public boolean owns(String key) {
+        return self.equals(ring.ownerOf(key));
+    }
+
+    /**
+     * Body of this file version from its owner, or null to read it from disk
+     */
+    public byte[] fetch(String key, long size, long lastModified) {
+        PeerClient owner = peers.get(ring.ownerOf(key));
+        if (owner == null || !owner.isAvailable()) {
+            return null;
+        }
+        try {
+            byte[] body = owner.get(key, size, lastModified);
+            (body != null ? remoteHits : remoteMisses).incrementAndGet();
+            return body;
+        } catch (IOException e) {
+            remoteErrors.incrementAndGet();
+            owner.markDown(retryInterval);
+            logger.warn(String.format("Peer %s unavailable, reading from disk for %d ms: %s",
+                owner.getAddress(), retryInterval, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Count a remote fetch; true once the key is hot enough to keep a local copy
+     */
+    public boolean recordFetch(String key) {
+        if (hotThreshold <= 0) {
+            return false;
+        }
+        if (fetchCounts.size() >= HOT_TRACKING_LIMIT) {
+            fetchCounts.clear();
+        }
+        int count = fetchCounts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        if (count >= hotThreshold) {
+            fetchCounts.remove(key);
+            replicated.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Membership and peer traffic for /_admin/cluster
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Cluster self=%s, members=%d%n", self, peers.size() + 1));
+        for (PeerClient peer : peers.values()) {
+            sb.append(String.format("  peer %s %s%n", peer.getAddress(), peer.isAvailable() ? "up" : "down"));
+        }
+        sb.append(String.format("Fetched from peers: hits=%d, misses=%d, errors=%d, replicated=%d%n",
+            remoteHits.get(), remoteMisses.get(), remoteErrors.get(), replicated.get()));
+        sb.append(String.format("Served to peers: hits=%d, misses=%d, rejected connections=%d%n", server.getServed(),
+            server.getMissed(), server.getRejected()));
+        return sb.toString();
+    }
+}
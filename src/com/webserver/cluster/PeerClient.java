@@ -0,0 +1,131 @@
+package com.webserver.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Client side of the peer protocol for one remote node.
+ * Connections are kept open and reused; a peer that fails a request is
+ * skipped until the retry interval passes, so callers fall back to disk quickly.
+ */
+class PeerClient {
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private final String address;
+    private final InetSocketAddress socketAddress;
+    private final int timeout;
+    private final ArrayBlockingQueue<Connection> idle = new ArrayBlockingQueue<>(MAX_IDLE_CONNECTIONS);
+    private volatile long downUntil;
+
+    PeerClient(String address, int timeout) {
+        this.address = address;
+        int colon = address.lastIndexOf(':');
+        this.socketAddress = new InetSocketAddress(address.substring(0, colon),
+            Integer.parseInt(address.substring(colon + 1)));
+        this.timeout = timeout;
+    }
+
+    /**
+     * Ask the peer for a cached body of this exact version; null if the peer does not have it
+     */
+    byte[] get(String key, long size, long lastModified) throws IOException {
+        Connection pooled = idle.poll();
+        if (pooled != null) {
+            try {
+                return get(pooled, key, size, lastModified);
+            } catch (IOException e) {
+                // The peer may have closed or restarted since this connection was used; retry on a fresh one
+            }
+        }
+        return get(new Connection(), key, size, lastModified);
+    }
+
+    private byte[] get(Connection connection, String key, long size, long lastModified) throws IOException {
+        try {
+            connection.out.writeByte(CacheCluster.OP_GET);
+            connection.out.writeUTF(key);
+            connection.out.writeLong(size);
+            connection.out.writeLong(lastModified);
+            connection.out.flush();
+
+            byte[] body = null;
+            byte status = connection.in.readByte();
+            if (status == CacheCluster.STATUS_HIT) {
+                int length = connection.in.readInt();
+                if (length != size) {
+                    throw new IOException("Peer " + address + " sent " + length + " bytes, expected " + size);
+                }
+                body = new byte[length];
+                connection.in.readFully(body);
+            } else if (status != CacheCluster.STATUS_MISS) {
+                throw new IOException("Peer " + address + " sent unknown status " + status);
+            }
+
+            if (!idle.offer(connection)) {
+                connection.close();
+            }
+            return body;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    boolean isAvailable() {
+        return System.currentTimeMillis() >= downUntil;
+    }
+
+    /**
+     * Skip this peer for a while and drop its idle connections
+     */
+    void markDown(long retryInterval) {
+        downUntil = System.currentTimeMillis() + retryInterval;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    void close() {
+        markDown(0);
+    }
+
+    String getAddress() { return address; }
+
+    /**
+     * One open socket to the peer
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(socketAddress, timeout);
+                socket.setSoTimeout(timeout);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
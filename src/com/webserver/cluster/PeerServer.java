@@ -0,0 +1,225 @@
+package com.webserver.cluster;
+
+import com.webserver.cache.FileCache;
+import com.webserver.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers peer requests for cached bodies of the keys this node owns.
+ * A miss on the owner loads the file into its cache, so the next request from
+ * any node is served from memory. Each peer connection gets its own thread;
+ * there are only a few per peer because clients reuse them. Only hosts in the
+ * member list may connect, their connection count is capped, and a connection
+ * left idle is closed.
+ */
+class PeerServer {
+    /** Pooled client connections reconnect transparently, so idle ones need not be kept long */
+    private static final int IDLE_TIMEOUT = 60000;
+    private static final int MAX_CONNECTIONS_PER_MEMBER = 32;
+
+    private final InetSocketAddress bindAddress;
+    private final Path documentRoot;
+    private final FileCache fileCache;
+    private final List<String> members;
+    private final int maxConnections;
+    private final Logger logger;
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+    private final AtomicInteger activeConnections = new AtomicInteger(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong served = new AtomicLong(0);
+    private final AtomicLong missed = new AtomicLong(0);
+    private volatile ServerSocket serverSocket;
+    private volatile Set<InetAddress> memberAddresses = Set.of();
+
+    /**
+     * members are the "host:port" addresses of every cluster node, this one included
+     */
+    PeerServer(InetSocketAddress bindAddress, Path documentRoot, FileCache fileCache, List<String> members) {
+        this.bindAddress = bindAddress;
+        this.documentRoot = documentRoot;
+        this.fileCache = fileCache;
+        this.members = List.copyOf(members);
+        this.maxConnections = MAX_CONNECTIONS_PER_MEMBER * Math.max(1, members.size());
+        this.logger = Logger.getInstance();
+    }
+
+    void start() throws IOException {
+        memberAddresses = resolveMembers();
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(bindAddress);
+        serverSocket = socket;
+        Thread acceptor = new Thread(this::acceptPeers, "Peer-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Cluster peer listener started on " + bindAddress);
+    }
+
+    void stop() {
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Addresses of the member hosts, resolved once at start
+     */
+    private Set<InetAddress> resolveMembers() {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (String member : members) {
+            String host = member.substring(0, Math.max(0, member.lastIndexOf(':')));
+            try {
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+            } catch (UnknownHostException e) {
+                logger.warn("Cannot resolve cluster member " + member + "; it will not be served");
+            }
+        }
+        return addresses;
+    }
+
+    private void acceptPeers() {
+        ServerSocket listener = serverSocket;
+        while (!listener.isClosed()) {
+            try {
+                Socket peer = listener.accept();
+                if (!memberAddresses.contains(peer.getInetAddress())) {
+                    rejected.incrementAndGet();
+                    logger.warn("Rejected peer connection from non-member " + peer.getRemoteSocketAddress());
+                    peer.close();
+                    continue;
+                }
+                if (activeConnections.incrementAndGet() > maxConnections) {
+                    activeConnections.decrementAndGet();
+                    rejected.incrementAndGet();
+                    logger.warn(String.format("Rejected peer connection from %s: %d connections open",
+                        peer.getRemoteSocketAddress(), maxConnections));
+                    peer.close();
+                    continue;
+                }
+                try {
+                    peer.setTcpNoDelay(true);
+                    peer.setSoTimeout(IDLE_TIMEOUT);
+                } catch (IOException e) {
+                    activeConnections.decrementAndGet();
+                    peer.close();
+                    throw e;
+                }
+                Thread thread = new Thread(() -> servePeer(peer), "Peer-" + connectionCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!listener.isClosed()) {
+                    logger.error("Error accepting peer connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void servePeer(Socket peer) {
+        try (Socket socket = peer;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                byte op = in.readByte();
+                if (op != CacheCluster.OP_GET) {
+                    throw new IOException("Unknown peer operation " + op);
+                }
+                String key = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                writeBody(out, lookup(key, size, lastModified));
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // Peer closed the connection
+        } catch (SocketTimeoutException e) {
+            // Idle too long; the client opens a new one when it needs it
+        } catch (IOException e) {
+            logger.warn("Peer connection " + peer.getRemoteSocketAddress() + " failed: " + e.getMessage());
+        } finally {
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Cached entry for the key if it is the version the peer expects
+     */
+    private FileCache.Entry lookup(String key, long size, long lastModified) {
+        Path path = documentRoot.resolve(key).normalize();
+        if (!path.startsWith(documentRoot)) {
+            logger.warn("Rejected peer request outside document root: " + key);
+            return null;
+        }
+        File file = path.toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            FileCache.Entry entry = fileCache.get(file);
+            return entry.getSize() == size && entry.getLastModified() == lastModified ? entry : null;
+        } catch (IOException e) {
+            logger.warn("Peer lookup failed for " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeBody(DataOutputStream out, FileCache.Entry entry) throws IOException {
+        if (entry != null && entry.hasBody()) {
+            out.writeByte(CacheCluster.STATUS_HIT);
+            out.writeInt(entry.getBody().length);
+            out.write(entry.getBody());
+            served.incrementAndGet();
+            return;
+        }
+        ByteBuffer offHeapBody = entry != null && entry.hasOffHeapBody() ? entry.getOffHeapBody().pin() : null;
+        if (offHeapBody == null) {
+            out.writeByte(CacheCluster.STATUS_MISS);
+            missed.incrementAndGet();
+            return;
+        }
+        try {
+            out.writeByte(CacheCluster.STATUS_HIT);
+            out.writeInt(offHeapBody.remaining());
+            byte[] chunk = new byte[Math.min(offHeapBody.remaining(), 16384)];
+            while (offHeapBody.hasRemaining()) {
+                int n = Math.min(chunk.length, offHeapBody.remaining());
+                offHeapBody.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+            served.incrementAndGet();
+        } finally {
+            entry.getOffHeapBody().unpin();
+        }
+    }
+
+    long getServed() { return served.get(); }
+    long getMissed() { return missed.get(); }
+    long getRejected() { return rejected.get(); }
+}
@@ -0,0 +1,201 @@
+package com.webserver.core;
+
+import com.webserver.util.Logger;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces response bytes with token buckets: one global bucket, one per
+ * connection and one per configured path prefix. Every bucket holds up to
+ * "burst" bytes, so small responses go out without delay; only sustained
+ * transfers run into an empty bucket and are paced. A response no larger than
+ * the burst is counted against the global bucket but never waits on the debt
+ * that large transfers run up there. Buckets are rebuilt when the bandwidth
+ * settings change on reload.
+ */
+public class BandwidthShaper {
+    private final ServerConfig config;
+    private final Logger logger;
+    private volatile Settings settings;
+
+    private final AtomicLong pacedWrites = new AtomicLong(0);
+    private final AtomicLong pausedNanos = new AtomicLong(0);
+
+    public BandwidthShaper(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+        this.settings = new Settings(config);
+        if (settings.isShaping()) {
+            logger.info("Bandwidth shaping enabled: " + settings);
+        }
+    }
+
+    /**
+     * Wrap a connection's output stream; pacing is decided per response
+     */
+    public ShapedOutputStream wrap(OutputStream out) {
+        return new ShapedOutputStream(out, this);
+    }
+
+    /**
+     * True if a per-path limit is configured, so callers know to pass the request path
+     */
+    public boolean hasPathLimits() {
+        return current().prefixes.length > 0;
+    }
+
+    /**
+     * Current settings, rebuilt if the config was reloaded with different limits
+     */
+    Settings current() {
+        Settings s = settings;
+        if (!s.matches(config)) {
+            synchronized (this) {
+                s = settings;
+                if (!s.matches(config)) {
+                    s = new Settings(config);
+                    settings = s;
+                    logger.info("Bandwidth limits changed: " + s);
+                }
+            }
+        }
+        return s;
+    }
+
+    void recordPause(long nanos) {
+        pacedWrites.incrementAndGet();
+        pausedNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Limits and pacing counters for /_admin/bandwidth
+     */
+    public String describe() {
+        return String.format("Bandwidth %s%nPaced writes: %d, total pause %d ms%n",
+            current(), pacedWrites.get(), pausedNanos.get() / 1_000_000);
+    }
+
+    /**
+     * Token bucket measured in bytes. reserve() always succeeds and lets the
+     * bucket go into debt; the caller waits until the debt would be repaid,
+     * so concurrent writers queue fairly without holding the lock while waiting.
+     */
+    static final class Bucket {
+        final long bytesPerSecond;
+        private final long capacity;
+        private double tokens;
+        private long lastRefill;
+
+        Bucket(long bytesPerSecond, long capacity) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * Take the bytes and return how many nanoseconds the caller must wait before sending
+         */
+        synchronized long reserve(int bytes) {
+            refill();
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+        }
+
+        /**
+         * Take the bytes without waiting; the debt this adds stops at one burst so paced writers are not starved
+         */
+        synchronized void charge(int bytes) {
+            refill();
+            if (tokens > -capacity) {
+                tokens = Math.max(-capacity, tokens - bytes);
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the limits with the shared buckets they need
+     */
+    static final class Settings {
+        final long globalLimit;
+        final long connectionLimit;
+        final String pathLimits;
+        final int burst;
+        final Bucket global;
+        final String[] prefixes;
+        final Bucket[] prefixBuckets;
+
+        Settings(ServerConfig config) {
+            this.globalLimit = config.getBandwidthGlobalLimit();
+            this.connectionLimit = config.getBandwidthConnectionLimit();
+            this.pathLimits = config.getBandwidthPathLimits();
+            this.burst = Math.max(1, config.getBandwidthBurst());
+            this.global = globalLimit > 0 ? new Bucket(globalLimit, burst) : null;
+
+            String[] entries = pathLimits.trim().isEmpty() ? new String[0] : pathLimits.split(",");
+            List<String> parsedPrefixes = new ArrayList<>();
+            List<Bucket> parsedBuckets = new ArrayList<>();
+            for (String entry : entries) {
+                int colon = entry.lastIndexOf(':');
+                try {
+                    long rate = Long.parseLong(entry.substring(colon + 1).trim());
+                    if (colon <= 0 || rate <= 0) {
+                        throw new NumberFormatException(entry);
+                    }
+                    parsedPrefixes.add(entry.substring(0, colon).trim());
+                    parsedBuckets.add(new Bucket(rate, burst));
+                } catch (NumberFormatException e) {
+                    Logger.getInstance().warn("Ignoring bandwidth path limit '" + entry.trim()
+                        + "', expected prefix:bytesPerSecond");
+                }
+            }
+            this.prefixes = parsedPrefixes.toArray(new String[0]);
+            this.prefixBuckets = parsedBuckets.toArray(new Bucket[0]);
+        }
+
+        boolean matches(ServerConfig config) {
+            return globalLimit == config.getBandwidthGlobalLimit()
+                && connectionLimit == config.getBandwidthConnectionLimit()
+                && burst == Math.max(1, config.getBandwidthBurst())
+                && pathLimits.equals(config.getBandwidthPathLimits());
+        }
+
+        boolean isShaping() {
+            return global != null || connectionLimit > 0 || prefixes.length > 0;
+        }
+
+        /**
+         * Bucket of the longest matching prefix, or null
+         */
+        Bucket pathBucket(String path) {
+            Bucket match = null;
+            int matchLength = -1;
+            if (path != null) {
+                for (int i = 0; i < prefixes.length; i++) {
+                    if (path.startsWith(prefixes[i]) && prefixes[i].length() > matchLength) {
+                        match = prefixBuckets[i];
+                        matchLength = prefixes[i].length();
+                    }
+                }
+            }
+            return match;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{global=%s, perConnection=%s, paths=%s, burst=%d}",
+                globalLimit > 0 ? globalLimit + " B/s" : "unlimited",
+                connectionLimit > 0 ? connectionLimit + " B/s" : "unlimited",
+                pathLimits.isEmpty() ? "none" : pathLimits, burst);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.webserver.core;
+
+import com.webserver.util.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps bulk transfers from starving small, latency-sensitive requests.
+ * Requests are classified once the target file is resolved: large files and
+ * configured path prefixes are BULK, everything else INTERACTIVE. Bulk requests
+ * must hold one of a bounded number of permits while they send, with a bounded
+ * wait line in front, so they can occupy at most maxConcurrent + maxQueued
+ * workers and the rest of the pool stays free for interactive traffic.
+ * Limits are read from the config on every call and follow a reload.
+ */
+public class Bulkhead {
+    public enum RequestClass { INTERACTIVE, BULK }
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final ClassStats interactive = new ClassStats("interactive");
+    private final ClassStats bulk = new ClassStats("bulk");
+
+    // Bulk permits, guarded by this
+    private int bulkActive;
+    private int bulkWaiting;
+
+    public Bulkhead(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+
+        int reserved = config.getBulkMaxConcurrent() + config.getBulkMaxQueued();
+        if (config.isBulkheadEnabled() && reserved >= config.getMaxPoolSize()) {
+            logger.warn(String.format("Bulk class may hold %d workers but the pool has only %d; "
+                + "small requests can still be starved", reserved, config.getMaxPoolSize()));
+        }
+    }
+
+    /**
+     * Decide the class of a request for a resolved file
+     */
+    public RequestClass classify(String path, long bodySize) {
+        if (!config.isBulkheadEnabled()) {
+            return RequestClass.INTERACTIVE;
+        }
+        if (bodySize >= config.getBulkMinSize()) {
+            return RequestClass.BULK;
+        }
+        String prefixes = config.getBulkPathPrefixes();
+        if (!prefixes.isEmpty()) {
+            for (String prefix : prefixes.split(",")) {
+                prefix = prefix.trim();
+                if (!prefix.isEmpty() && path.startsWith(prefix)) {
+                    return RequestClass.BULK;
+                }
+            }
+        }
+        return RequestClass.INTERACTIVE;
+    }
+
+    /**
+     * Take a bulk permit, waiting in line up to the configured timeout.
+     * Returns false if the line is full or the wait timed out.
+     */
+    public boolean acquireBulk() throws InterruptedException {
+        long waitStart = System.nanoTime();
+        synchronized (this) {
+            if (bulkActive < config.getBulkMaxConcurrent()) {
+                bulkActive++;
+                bulk.admitted(0);
+                return true;
+            }
+            if (bulkWaiting >= config.getBulkMaxQueued()) {
+                bulk.rejected.incrementAndGet();
+                return false;
+            }
+
+            bulkWaiting++;
+            try {
+                long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(config.getBulkQueueTimeout());
+                while (bulkActive >= config.getBulkMaxConcurrent()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        bulk.rejected.incrementAndGet();
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                bulkActive++;
+                bulk.admitted(System.nanoTime() - waitStart);
+                return true;
+            } finally {
+                bulkWaiting--;
+            }
+        }
+    }
+
+    /**
+     * Return a bulk permit taken by acquireBulk()
+     */
+    public synchronized void releaseBulk() {
+        bulkActive--;
+        notify();
+    }
+
+    /**
+     * Record a finished request of the given class
+     */
+    public void record(RequestClass requestClass, long bytes, long durationMillis) {
+        ClassStats stats = requestClass == RequestClass.BULK ? bulk : interactive;
+        stats.completed.incrementAndGet();
+        stats.bytes.addAndGet(bytes);
+        stats.totalMillis.addAndGet(durationMillis);
+        stats.maxMillis.accumulateAndGet(durationMillis, Math::max);
+    }
+
+    /**
+     * Per-class counters for /_admin/bulkhead
+     */
+    public String describe() {
+        int active;
+        int waiting;
+        synchronized (this) {
+            active = bulkActive;
+            waiting = bulkWaiting;
+        }
+        return String.format("Bulkhead %s: bulk >= %d bytes%s, limit %d active + %d queued%n"
+                + "%s%n%s (active=%d, waiting=%d)%n",
+            config.isBulkheadEnabled() ? "enabled" : "disabled", config.getBulkMinSize(),
+            config.getBulkPathPrefixes().isEmpty() ? "" : " or under " + config.getBulkPathPrefixes(),
+            config.getBulkMaxConcurrent(), config.getBulkMaxQueued(),
+            interactive, bulk, active, waiting);
+    }
+
+    /**
+     * Counters for one request class
+     */
+    private static final class ClassStats {
+        final String name;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicLong maxMillis = new AtomicLong();
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+
+        ClassStats(String name) {
+            this.name = name;
+        }
+
+        void admitted(long waitNanos) {
+            admitted.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+        }
+
+        @Override
+        public String toString() {
+            long done = completed.get();
+            long admittedCount = admitted.get();
+            return String.format("%s{completed=%d, rejected=%d, bytes=%d, avgMs=%.1f, maxMs=%d, avgWaitMs=%.1f}",
+                name, done, rejected.get(), bytes.get(),
+                done > 0 ? (double) totalMillis.get() / done : 0.0, maxMillis.get(),
+                admittedCount > 0 ? totalWaitNanos.get() / 1e6 / admittedCount : 0.0);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.webserver.core;
+
+import com.webserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the config file and triggers a reload callback when it changes.
+ * Editors often write a file in several steps, so events are debounced and the
+ * callback runs once the file has been quiet for a short moment.
+ */
+public class ConfigWatcher {
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final Path configPath;
+    private final Runnable onChange;
+    private final Logger logger;
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean running;
+
+    public ConfigWatcher(File configFile, Runnable onChange) {
+        this.configPath = configFile.toPath().toAbsolutePath();
+        this.onChange = onChange;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Start watching the config file's directory
+     */
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        configPath.getParent().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        running = true;
+        watcherThread = new Thread(this::watch, "Config-Watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        logger.info("Watching file for changes: " + configPath);
+    }
+
+    private void watch() {
+        while (running) {
+            try {
+                WatchKey key = watchService.take();
+                boolean changed = drainEvents(key);
+
+                // Debounce: keep absorbing events until the file has been quiet
+                while (running) {
+                    WatchKey next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    changed |= drainEvents(next);
+                }
+
+                if (changed && running) {
+                    onChange.run();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            } catch (Exception e) {
+                logger.error("Config reload failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean drainEvents(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && configPath.getFileName().equals(context)) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Stop watching
+     */
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
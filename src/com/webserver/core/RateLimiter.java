@@ -0,0 +1,168 @@
+package com.webserver.core;
+
+import com.webserver.util.Logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client request rate limiting (token bucket) and concurrent connection caps.
+ * State lives in a ConcurrentHashMap keyed by remote address; idle entries are
+ * swept periodically so the table stays small even with many distinct clients.
+ */
+public class RateLimiter {
+    private final ServerConfig config;
+    private final Logger logger;
+    private final ConcurrentHashMap<String, ClientState> clients = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong rejectedConnections = new AtomicLong(0);
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
+
+    public RateLimiter(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RateLimiter-Sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long sweepInterval = Math.max(1000, config.getRateLimitIdleExpiry() / 2);
+        sweeper.scheduleWithFixedDelay(this::expireIdleClients, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check if rate limiting is enabled
+     */
+    public boolean isEnabled() {
+        return config.isRateLimitEnabled();
+    }
+
+    /**
+     * Try to open a new connection for the client; false if its connection cap is reached
+     */
+    public boolean tryOpenConnection(String clientAddress) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        int limit = config.getRateLimitMaxConnections();
+        while (true) {
+            ClientState state = clients.computeIfAbsent(clientAddress, k -> new ClientState());
+            int current = state.connections.get();
+            if (limit > 0 && current >= limit) {
+                rejectedConnections.incrementAndGet();
+                return false;
+            }
+            if (state.connections.compareAndSet(current, current + 1)) {
+                state.touch();
+                // The sweeper may have expired this entry between lookup and increment
+                if (clients.get(clientAddress) == state) {
+                    return true;
+                }
+                state.connections.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Release a connection slot previously taken with tryOpenConnection
+     */
+    public void closeConnection(String clientAddress) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        ClientState state = clients.get(clientAddress);
+        if (state != null) {
+            state.connections.updateAndGet(c -> Math.max(0, c - 1));
+            state.touch();
+        }
+    }
+
+    /**
+     * Try to take one request token for the client.
+     * Returns 0 if allowed, otherwise the number of seconds to wait before retrying.
+     */
+    public long tryAcquireRequest(String clientAddress) {
+        if (!isEnabled() || config.getRateLimitRequestsPerSecond() <= 0) {
+            return 0;
+        }
+
+        ClientState state = clients.computeIfAbsent(clientAddress, k -> new ClientState());
+        long waitNanos = state.tryAcquire(config.getRateLimitRequestsPerSecond(), config.getRateLimitBurst());
+        if (waitNanos > 0) {
+            rejectedRequests.incrementAndGet();
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        }
+        return 0;
+    }
+
+    /**
+     * Remove entries that have no open connections and have been idle past the expiry
+     */
+    private void expireIdleClients() {
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.getRateLimitIdleExpiry());
+        int before = clients.size();
+        clients.entrySet().removeIf(e -> e.getValue().isIdleSince(cutoff));
+        int removed = before - clients.size();
+        if (removed > 0) {
+            logger.debug(String.format("Rate limiter expired %d idle clients, %d tracked", removed, clients.size()));
+        }
+    }
+
+    /**
+     * Stop the background sweeper
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    public int getTrackedClients() { return clients.size(); }
+    public long getRejectedConnections() { return rejectedConnections.get(); }
+    public long getRejectedRequests() { return rejectedRequests.get(); }
+
+    /**
+     * Per-client token bucket and connection counter
+     */
+    private static class ClientState {
+        private final AtomicInteger connections = new AtomicInteger(0);
+        private volatile long lastSeen = System.nanoTime();
+        private double tokens = -1;
+        private long lastRefill;
+
+        void touch() {
+            lastSeen = System.nanoTime();
+        }
+
+        boolean isIdleSince(long cutoff) {
+            return connections.get() == 0 && lastSeen < cutoff;
+        }
+
+        /**
+         * Returns 0 if a token was taken, otherwise nanoseconds until one is available
+         */
+        synchronized long tryAcquire(double ratePerSecond, int burst) {
+            long now = System.nanoTime();
+            lastSeen = now;
+            if (tokens < 0) {
+                tokens = burst;
+                lastRefill = now;
+            } else {
+                double refill = (now - lastRefill) * ratePerSecond / 1_000_000_000.0;
+                tokens = Math.min(burst, tokens + refill);
+                lastRefill = now;
+            }
+
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return 0;
+            }
+            return (long) ((1.0 - tokens) * 1_000_000_000.0 / ratePerSecond);
+        }
+    }
+}
@@ -3,27 +3,143 @@ package com.webserver.core;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Properties;
 
 /**
  * Server configuration management
+ * Fields are volatile so running components see values applied by reload()
  */
 public class ServerConfig {
-    private int port;
-    private String documentRoot;
-    private int corePoolSize;
-    private int maxPoolSize;
-    private int queueCapacity;
-    private int keepAliveTime;
-    private int socketTimeout;
-    private int acceptTimeout;
-    private int backlog;
-    private String logLevel;
+    private volatile int port;
+    private volatile String documentRoot;
+    private volatile boolean tcpEnabled;
+    private volatile String unixSocketPath;
+    private volatile String unixSocketPermissions;
+    private volatile boolean unixSocketTrusted;
+    private volatile int corePoolSize;
+    private volatile int maxPoolSize;
+    private volatile int queueCapacity;
+    private volatile int keepAliveTime;
+    private volatile int socketTimeout;
+    private volatile int acceptTimeout;
+    private volatile int backlog;
+    private volatile String logLevel;
+    private volatile boolean rateLimitEnabled;
+    private volatile double rateLimitRequestsPerSecond;
+    private volatile int rateLimitBurst;
+    private volatile int rateLimitMaxConnections;
+    private volatile long rateLimitIdleExpiry;
+    private volatile boolean keepAliveEnabled;
+    private volatile int keepAliveMaxRequests;
+    private volatile long idleTimeout;
+    private volatile long headerTimeout;
+    private volatile long requestTimeout;
+    private volatile long writeTimeout;
+    private volatile int timerTickDuration;
+    private volatile int timerWheelSize;
+    private volatile int readBufferSize;
+    private volatile int bufferThreadCacheSize;
+    private volatile int bufferMaxPooledPerClass;
+    private volatile boolean bufferLeakDetection;
+    private volatile long bufferLeakThreshold;
+    private volatile boolean accessLogEnabled;
+    private volatile String accessLogPath;
+    private volatile String accessLogFormat;
+    private volatile int accessLogQueueCapacity;
+    private volatile int accessLogBufferSize;
+    private volatile long accessLogFlushInterval;
+    private volatile long accessLogMaxFileSize;
+    private volatile long accessLogRotateInterval;
+    private volatile boolean configWatchEnabled;
+    private volatile boolean adminEnabled;
+    private volatile long drainTimeout;
+    private volatile long cacheMaxBytes;
+    private volatile long cacheMaxFileSize;
+    private volatile int cacheMaxEntries;
+    private volatile long cacheOffHeapBytes;
+    private volatile int cacheOffHeapSegmentSize;
+    private volatile String cacheOffHeapFile;
+    private volatile boolean warmupEnabled;
+    private volatile String warmupPatterns;
+    private volatile long warmupMaxFileSize;
+    private volatile int warmupParallelism;
+    private volatile long maxBodySize;
+    private volatile int bodySpoolThreshold;
+    private volatile String bodyTempDir;
+    private volatile long maxDiscardSize;
+    private volatile int maxRequestLineLength;
+    private volatile int maxHeaderCount;
+    private volatile int maxHeaderBytes;
+    private volatile boolean watchdogEnabled;
+    private volatile long watchdogThreshold;
+    private volatile int watchdogMaxSamples;
+    private volatile int watchdogMaxReports;
+    private volatile boolean bulkheadEnabled;
+    private volatile long bulkMinSize;
+    private volatile String bulkPathPrefixes;
+    private volatile int bulkMaxConcurrent;
+    private volatile int bulkMaxQueued;
+    private volatile long bulkQueueTimeout;
+    private volatile long bandwidthGlobalLimit;
+    private volatile long bandwidthConnectionLimit;
+    private volatile String bandwidthPathLimits;
+    private volatile int bandwidthBurst;
+    private volatile String archivePath;
+    private volatile boolean archiveWatch;
+    private volatile boolean clusterEnabled;
+    private volatile String clusterSelf;
+    private volatile String clusterPeers;
+    private volatile int clusterVirtualNodes;
+    private volatile int clusterTimeout;
+    private volatile long clusterRetryInterval;
+    private volatile int clusterHotThreshold;
+    private volatile String balancerBackends;
+    private volatile String balancerPolicy;
+    private volatile int balancerConnectTimeout;
+    private volatile int balancerReadTimeout;
+    private volatile int balancerMaxIdlePerBackend;
+    private volatile long balancerMaxSpooledBody;
+    private volatile String balancerHealthPath;
+    private volatile long balancerHealthInterval;
+    private volatile int balancerHealthTimeout;
+    private volatile int balancerUnhealthyThreshold;
+    private volatile int balancerHealthyThreshold;
+    private volatile int balancerEjectAfter;
+    private volatile long balancerEjectDuration;
+    private volatile boolean webSocketEnabled;
+    private volatile String webSocketRelayPaths;
+    private volatile int webSocketEventLoops;
+    private volatile int webSocketMaxConnections;
+    private volatile int webSocketMaxMessageSize;
+    private volatile long webSocketMaxQueuedBytes;
+    private volatile long webSocketPingInterval;
+    private volatile boolean sseEnabled;
+    private volatile String ssePaths;
+    private volatile int sseEventLoops;
+    private volatile int sseMaxConnections;
+    private volatile int sseReplayBufferSize;
+    private volatile long sseHeartbeatInterval;
+    private volatile long sseRetry;
+    private volatile long sseMaxQueuedBytes;
+    private volatile boolean microCacheEnabled;
+    private volatile long microCacheTtl;
+    private volatile long microCacheStaleWhileRevalidate;
+    private volatile int microCacheMaxEntries;
+    private volatile String microCacheVaryHeaders;
+    private volatile boolean fingerprintEnabled;
+    private volatile String fingerprintExtensions;
+    private volatile long fingerprintMaxHtmlSize;
+    private File configFile;
 
     private ServerConfig() {
         // Default values
         this.port = 8080;
         this.documentRoot = "www";
+        this.tcpEnabled = true;
+        this.unixSocketPath = "";
+        this.unixSocketPermissions = "";
         this.corePoolSize = 10;
         this.maxPoolSize = 50;
         this.queueCapacity = 100;
@@ -32,13 +148,125 @@ public class ServerConfig {
         this.acceptTimeout = 1000;
         this.backlog = 50;
         this.logLevel = "INFO";
+        this.rateLimitEnabled = false;
+        this.rateLimitRequestsPerSecond = 50;
+        this.rateLimitBurst = 100;
+        this.rateLimitMaxConnections = 10;
+        this.rateLimitIdleExpiry = 60000;
+        this.keepAliveEnabled = false;
+        this.keepAliveMaxRequests = 100;
+        this.idleTimeout = 15000;
+        this.headerTimeout = 10000;
+        this.requestTimeout = 60000;
+        this.writeTimeout = 30000;
+        this.timerTickDuration = 100;
+        this.timerWheelSize = 512;
+        this.readBufferSize = 8192;
+        this.bufferThreadCacheSize = 4;
+        this.bufferMaxPooledPerClass = 1024;
+        this.bufferLeakDetection = false;
+        this.bufferLeakThreshold = 60000;
+        this.accessLogEnabled = false;
+        this.accessLogPath = "access.log";
+        this.accessLogFormat = "combined";
+        this.accessLogQueueCapacity = 65536;
+        this.accessLogBufferSize = 65536;
+        this.accessLogFlushInterval = 1000;
+        this.accessLogMaxFileSize = 100L * 1024 * 1024;
+        this.accessLogRotateInterval = 0;
+        this.configWatchEnabled = true;
+        this.adminEnabled = true;
+        this.drainTimeout = 30000;
+        this.cacheMaxBytes = 64L * 1024 * 1024;
+        this.cacheMaxFileSize = 256 * 1024;
+        this.cacheMaxEntries = 10000;
+        this.cacheOffHeapBytes = 0;
+        this.cacheOffHeapSegmentSize = 64 * 1024 * 1024;
+        this.cacheOffHeapFile = "";
+        this.warmupEnabled = false;
+        this.warmupPatterns = "**.html,**.css,**.js";
+        this.warmupMaxFileSize = 1024 * 1024;
+        this.warmupParallelism = 0;
+        this.maxBodySize = 10L * 1024 * 1024;
+        this.bodySpoolThreshold = 64 * 1024;
+        this.bodyTempDir = "";
+        this.maxDiscardSize = 64 * 1024;
+        this.maxRequestLineLength = 8192;
+        this.maxHeaderCount = 100;
+        this.maxHeaderBytes = 32 * 1024;
+        this.watchdogEnabled = true;
+        this.watchdogThreshold = 2000;
+        this.watchdogMaxSamples = 3;
+        this.watchdogMaxReports = 50;
+        this.bulkheadEnabled = false;
+        this.bulkMinSize = 1024 * 1024;
+        this.bulkPathPrefixes = "";
+        this.bulkMaxConcurrent = 10;
+        this.bulkMaxQueued = 10;
+        this.bulkQueueTimeout = 5000;
+        this.bandwidthGlobalLimit = 0;
+        this.bandwidthConnectionLimit = 0;
+        this.bandwidthPathLimits = "";
+        this.bandwidthBurst = 64 * 1024;
+        this.archivePath = "";
+        this.archiveWatch = true;
+        this.clusterEnabled = false;
+        this.clusterSelf = "127.0.0.1:9101";
+        this.clusterPeers = "";
+        this.clusterVirtualNodes = 160;
+        this.clusterTimeout = 300;
+        this.clusterRetryInterval = 5000;
+        this.clusterHotThreshold = 8;
+        this.balancerBackends = "";
+        this.balancerPolicy = "least-outstanding";
+        this.balancerConnectTimeout = 1000;
+        this.balancerReadTimeout = 30000;
+        this.balancerMaxIdlePerBackend = 16;
+        this.balancerMaxSpooledBody = 256L * 1024 * 1024;
+        this.balancerHealthPath = "/";
+        this.balancerHealthInterval = 5000;
+        this.balancerHealthTimeout = 1000;
+        this.balancerUnhealthyThreshold = 2;
+        this.balancerHealthyThreshold = 2;
+        this.balancerEjectAfter = 5;
+        this.balancerEjectDuration = 30000;
+        this.webSocketEnabled = false;
+        this.webSocketRelayPaths = "/ws";
+        this.webSocketEventLoops = 1;
+        this.webSocketMaxConnections = 10000;
+        this.webSocketMaxMessageSize = 65536;
+        this.webSocketMaxQueuedBytes = 1048576;
+        this.webSocketPingInterval = 30000;
+        this.sseEnabled = false;
+        this.ssePaths = "/events";
+        this.sseEventLoops = 1;
+        this.sseMaxConnections = 10000;
+        this.sseReplayBufferSize = 256;
+        this.sseHeartbeatInterval = 15000;
+        this.sseRetry = 3000;
+        this.sseMaxQueuedBytes = 1048576;
+        this.microCacheEnabled = true;
+        this.microCacheTtl = 1000;
+        this.microCacheStaleWhileRevalidate = 2000;
+        this.microCacheMaxEntries = 1000;
+        this.microCacheVaryHeaders = "";
+        this.fingerprintEnabled = false;
+        this.fingerprintExtensions = "css,js,mjs,png,jpg,jpeg,gif,svg,webp,ico,woff,woff2";
+        this.fingerprintMaxHtmlSize = 1048576;
     }
 
     public static ServerConfig loadDefault() {
+        return load(new File("config.properties"));
+    }
+
+    /**
+     * Load settings from the given file; keys it does not set keep their defaults
+     */
+    public static ServerConfig load(File configFile) {
         ServerConfig config = new ServerConfig();
         
         // Try to load from config file if exists
-        File configFile = new File("config.properties");
+        config.configFile = configFile;
         if (configFile.exists()) {
             try {
                 config.loadFromFile(configFile);
@@ -56,14 +284,58 @@ public class ServerConfig {
         return config;
     }
 
+    /**
+     * Re-read the config file into this instance.
+     * The file is read once and parsed into a copy seeded with the live values, so a
+     * malformed value leaves every setting untouched; keys removed from the file keep
+     * their current value. Only a fully parsed copy is applied.
+     */
+    public synchronized void reload() throws IOException {
+        if (configFile == null || !configFile.exists()) {
+            throw new IOException("Config file not found: " + configFile);
+        }
+        Properties props = readProperties(configFile);
+        ServerConfig parsed = new ServerConfig();
+        parsed.copyFrom(this);
+        try {
+            parsed.apply(props);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid config value: " + e.getMessage());
+        }
+        copyFrom(parsed);
+    }
+
+    /** Copy every setting from another instance, one field at a time */
+    private void copyFrom(ServerConfig source) {
+        for (Field field : ServerConfig.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) continue;
+            try {
+                field.set(this, field.get(source));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot copy config field " + field.getName(), e);
+            }
+        }
+    }
+
     private void loadFromFile(File file) throws IOException {
+        apply(readProperties(file));
+    }
+
+    private static Properties readProperties(File file) throws IOException {
         Properties props = new Properties();
         try (FileInputStream fis = new FileInputStream(file)) {
             props.load(fis);
         }
-        
+        return props;
+    }
+
+    private void apply(Properties props) {
         this.port = Integer.parseInt(props.getProperty("server.port", String.valueOf(port)));
         this.documentRoot = props.getProperty("server.documentRoot", documentRoot);
+        this.tcpEnabled = Boolean.parseBoolean(props.getProperty("server.tcpEnabled", String.valueOf(tcpEnabled)));
+        this.unixSocketPath = props.getProperty("unixSocket.path", unixSocketPath).trim();
+        this.unixSocketPermissions = props.getProperty("unixSocket.permissions", unixSocketPermissions).trim();
+        this.unixSocketTrusted = Boolean.parseBoolean(props.getProperty("unixSocket.trusted", String.valueOf(unixSocketTrusted)));
         this.corePoolSize = Integer.parseInt(props.getProperty("threadPool.coreSize", String.valueOf(corePoolSize)));
         this.maxPoolSize = Integer.parseInt(props.getProperty("threadPool.maxSize", String.valueOf(maxPoolSize)));
         this.queueCapacity = Integer.parseInt(props.getProperty("threadPool.queueCapacity", String.valueOf(queueCapacity)));
@@ -72,11 +344,122 @@ public class ServerConfig {
         this.acceptTimeout = Integer.parseInt(props.getProperty("socket.acceptTimeout", String.valueOf(acceptTimeout)));
         this.backlog = Integer.parseInt(props.getProperty("socket.backlog", String.valueOf(backlog)));
         this.logLevel = props.getProperty("log.level", logLevel);
+        this.rateLimitEnabled = Boolean.parseBoolean(props.getProperty("rateLimit.enabled", String.valueOf(rateLimitEnabled)));
+        this.rateLimitRequestsPerSecond = Double.parseDouble(props.getProperty("rateLimit.requestsPerSecond", String.valueOf(rateLimitRequestsPerSecond)));
+        this.rateLimitBurst = Integer.parseInt(props.getProperty("rateLimit.burst", String.valueOf(rateLimitBurst)));
+        this.rateLimitMaxConnections = Integer.parseInt(props.getProperty("rateLimit.maxConnectionsPerClient", String.valueOf(rateLimitMaxConnections)));
+        this.rateLimitIdleExpiry = Long.parseLong(props.getProperty("rateLimit.idleExpiry", String.valueOf(rateLimitIdleExpiry)));
+        this.keepAliveEnabled = Boolean.parseBoolean(props.getProperty("keepAlive.enabled", String.valueOf(keepAliveEnabled)));
+        this.keepAliveMaxRequests = Integer.parseInt(props.getProperty("keepAlive.maxRequests", String.valueOf(keepAliveMaxRequests)));
+        this.idleTimeout = Long.parseLong(props.getProperty("timeout.idle", String.valueOf(idleTimeout)));
+        this.headerTimeout = Long.parseLong(props.getProperty("timeout.header", String.valueOf(headerTimeout)));
+        this.requestTimeout = Long.parseLong(props.getProperty("timeout.request", String.valueOf(requestTimeout)));
+        this.writeTimeout = Long.parseLong(props.getProperty("timeout.write", String.valueOf(writeTimeout)));
+        this.timerTickDuration = Integer.parseInt(props.getProperty("timer.tickDuration", String.valueOf(timerTickDuration)));
+        this.timerWheelSize = Integer.parseInt(props.getProperty("timer.wheelSize", String.valueOf(timerWheelSize)));
+        this.readBufferSize = Integer.parseInt(props.getProperty("buffer.readSize", String.valueOf(readBufferSize)));
+        this.bufferThreadCacheSize = Integer.parseInt(props.getProperty("buffer.threadCacheSize", String.valueOf(bufferThreadCacheSize)));
+        this.bufferMaxPooledPerClass = Integer.parseInt(props.getProperty("buffer.maxPooledPerClass", String.valueOf(bufferMaxPooledPerClass)));
+        this.bufferLeakDetection = Boolean.parseBoolean(props.getProperty("buffer.leakDetection", String.valueOf(bufferLeakDetection)));
+        this.bufferLeakThreshold = Long.parseLong(props.getProperty("buffer.leakThreshold", String.valueOf(bufferLeakThreshold)));
+        this.accessLogEnabled = Boolean.parseBoolean(props.getProperty("accessLog.enabled", String.valueOf(accessLogEnabled)));
+        this.accessLogPath = props.getProperty("accessLog.path", accessLogPath);
+        this.accessLogFormat = props.getProperty("accessLog.format", accessLogFormat);
+        this.accessLogQueueCapacity = Integer.parseInt(props.getProperty("accessLog.queueCapacity", String.valueOf(accessLogQueueCapacity)));
+        this.accessLogBufferSize = Integer.parseInt(props.getProperty("accessLog.bufferSize", String.valueOf(accessLogBufferSize)));
+        this.accessLogFlushInterval = Long.parseLong(props.getProperty("accessLog.flushInterval", String.valueOf(accessLogFlushInterval)));
+        this.accessLogMaxFileSize = Long.parseLong(props.getProperty("accessLog.maxFileSize", String.valueOf(accessLogMaxFileSize)));
+        this.accessLogRotateInterval = Long.parseLong(props.getProperty("accessLog.rotateInterval", String.valueOf(accessLogRotateInterval)));
+        this.configWatchEnabled = Boolean.parseBoolean(props.getProperty("config.watch", String.valueOf(configWatchEnabled)));
+        this.adminEnabled = Boolean.parseBoolean(props.getProperty("admin.enabled", String.valueOf(adminEnabled)));
+        this.drainTimeout = Long.parseLong(props.getProperty("shutdown.drainTimeout", String.valueOf(drainTimeout)));
+        this.cacheMaxBytes = Long.parseLong(props.getProperty("cache.maxBytes", String.valueOf(cacheMaxBytes)));
+        this.cacheMaxFileSize = Long.parseLong(props.getProperty("cache.maxFileSize", String.valueOf(cacheMaxFileSize)));
+        this.cacheMaxEntries = Integer.parseInt(props.getProperty("cache.maxEntries", String.valueOf(cacheMaxEntries)));
+        this.cacheOffHeapBytes = Long.parseLong(props.getProperty("cache.offHeapBytes", String.valueOf(cacheOffHeapBytes)));
+        this.cacheOffHeapSegmentSize = Integer.parseInt(props.getProperty("cache.offHeapSegmentSize", String.valueOf(cacheOffHeapSegmentSize)));
+        this.cacheOffHeapFile = props.getProperty("cache.offHeapFile", cacheOffHeapFile);
+        this.warmupEnabled = Boolean.parseBoolean(props.getProperty("warmup.enabled", String.valueOf(warmupEnabled)));
+        this.warmupPatterns = props.getProperty("warmup.patterns", warmupPatterns);
+        this.warmupMaxFileSize = Long.parseLong(props.getProperty("warmup.maxFileSize", String.valueOf(warmupMaxFileSize)));
+        this.warmupParallelism = Integer.parseInt(props.getProperty("warmup.parallelism", String.valueOf(warmupParallelism)));
+        this.maxBodySize = Long.parseLong(props.getProperty("request.maxBodySize", String.valueOf(maxBodySize)));
+        this.bodySpoolThreshold = Integer.parseInt(props.getProperty("request.bodySpoolThreshold", String.valueOf(bodySpoolThreshold)));
+        this.bodyTempDir = props.getProperty("request.tempDir", bodyTempDir);
+        this.maxDiscardSize = Long.parseLong(props.getProperty("request.maxDiscardSize", String.valueOf(maxDiscardSize)));
+        this.maxRequestLineLength = Integer.parseInt(props.getProperty("request.maxRequestLineLength", String.valueOf(maxRequestLineLength)));
+        this.maxHeaderCount = Integer.parseInt(props.getProperty("request.maxHeaderCount", String.valueOf(maxHeaderCount)));
+        this.maxHeaderBytes = Integer.parseInt(props.getProperty("request.maxHeaderBytes", String.valueOf(maxHeaderBytes)));
+        this.watchdogEnabled = Boolean.parseBoolean(props.getProperty("watchdog.enabled", String.valueOf(watchdogEnabled)));
+        this.watchdogThreshold = Long.parseLong(props.getProperty("watchdog.threshold", String.valueOf(watchdogThreshold)));
+        this.watchdogMaxSamples = Integer.parseInt(props.getProperty("watchdog.maxSamples", String.valueOf(watchdogMaxSamples)));
+        this.watchdogMaxReports = Integer.parseInt(props.getProperty("watchdog.maxReports", String.valueOf(watchdogMaxReports)));
+        this.bulkheadEnabled = Boolean.parseBoolean(props.getProperty("bulkhead.enabled", String.valueOf(bulkheadEnabled)));
+        this.bulkMinSize = Long.parseLong(props.getProperty("bulkhead.bulkMinSize", String.valueOf(bulkMinSize)));
+        this.bulkPathPrefixes = props.getProperty("bulkhead.bulkPathPrefixes", bulkPathPrefixes);
+        this.bulkMaxConcurrent = Integer.parseInt(props.getProperty("bulkhead.bulkMaxConcurrent", String.valueOf(bulkMaxConcurrent)));
+        this.bulkMaxQueued = Integer.parseInt(props.getProperty("bulkhead.bulkMaxQueued", String.valueOf(bulkMaxQueued)));
+        this.bulkQueueTimeout = Long.parseLong(props.getProperty("bulkhead.bulkQueueTimeout", String.valueOf(bulkQueueTimeout)));
+        this.bandwidthGlobalLimit = Long.parseLong(props.getProperty("bandwidth.globalLimit", String.valueOf(bandwidthGlobalLimit)));
+        this.bandwidthConnectionLimit = Long.parseLong(props.getProperty("bandwidth.connectionLimit", String.valueOf(bandwidthConnectionLimit)));
+        this.bandwidthPathLimits = props.getProperty("bandwidth.pathLimits", bandwidthPathLimits);
+        this.bandwidthBurst = Integer.parseInt(props.getProperty("bandwidth.burst", String.valueOf(bandwidthBurst)));
+        this.archivePath = props.getProperty("archive.path", archivePath);
+        this.archiveWatch = Boolean.parseBoolean(props.getProperty("archive.watch", String.valueOf(archiveWatch)));
+        this.clusterEnabled = Boolean.parseBoolean(props.getProperty("cluster.enabled", String.valueOf(clusterEnabled)));
+        this.clusterSelf = props.getProperty("cluster.self", clusterSelf);
+        this.clusterPeers = props.getProperty("cluster.peers", clusterPeers);
+        this.clusterVirtualNodes = Integer.parseInt(props.getProperty("cluster.virtualNodes", String.valueOf(clusterVirtualNodes)));
+        this.clusterTimeout = Integer.parseInt(props.getProperty("cluster.timeout", String.valueOf(clusterTimeout)));
+        this.clusterRetryInterval = Long.parseLong(props.getProperty("cluster.retryInterval", String.valueOf(clusterRetryInterval)));
+        this.clusterHotThreshold = Integer.parseInt(props.getProperty("cluster.hotThreshold", String.valueOf(clusterHotThreshold)));
+        this.balancerBackends = props.getProperty("balancer.backends", balancerBackends);
+        this.balancerPolicy = props.getProperty("balancer.policy", balancerPolicy);
+        this.balancerConnectTimeout = Integer.parseInt(props.getProperty("balancer.connectTimeout", String.valueOf(balancerConnectTimeout)));
+        this.balancerReadTimeout = Integer.parseInt(props.getProperty("balancer.readTimeout", String.valueOf(balancerReadTimeout)));
+        this.balancerMaxIdlePerBackend = Integer.parseInt(props.getProperty("balancer.maxIdlePerBackend", String.valueOf(balancerMaxIdlePerBackend)));
+        this.balancerMaxSpooledBody = Long.parseLong(props.getProperty("balancer.maxSpooledBody", String.valueOf(balancerMaxSpooledBody)));
+        this.balancerHealthPath = props.getProperty("balancer.healthPath", balancerHealthPath);
+        this.balancerHealthInterval = Long.parseLong(props.getProperty("balancer.healthInterval", String.valueOf(balancerHealthInterval)));
+        this.balancerHealthTimeout = Integer.parseInt(props.getProperty("balancer.healthTimeout", String.valueOf(balancerHealthTimeout)));
+        this.balancerUnhealthyThreshold = Integer.parseInt(props.getProperty("balancer.unhealthyThreshold", String.valueOf(balancerUnhealthyThreshold)));
+        this.balancerHealthyThreshold = Integer.parseInt(props.getProperty("balancer.healthyThreshold", String.valueOf(balancerHealthyThreshold)));
+        this.balancerEjectAfter = Integer.parseInt(props.getProperty("balancer.ejectAfter", String.valueOf(balancerEjectAfter)));
+        this.balancerEjectDuration = Long.parseLong(props.getProperty("balancer.ejectDuration", String.valueOf(balancerEjectDuration)));
+        this.webSocketEnabled = Boolean.parseBoolean(props.getProperty("websocket.enabled", String.valueOf(webSocketEnabled)));
+        this.webSocketRelayPaths = props.getProperty("websocket.relayPaths", webSocketRelayPaths);
+        this.webSocketEventLoops = Integer.parseInt(props.getProperty("websocket.eventLoops", String.valueOf(webSocketEventLoops)));
+        this.webSocketMaxConnections = Integer.parseInt(props.getProperty("websocket.maxConnections", String.valueOf(webSocketMaxConnections)));
+        this.webSocketMaxMessageSize = Integer.parseInt(props.getProperty("websocket.maxMessageSize", String.valueOf(webSocketMaxMessageSize)));
+        this.webSocketMaxQueuedBytes = Long.parseLong(props.getProperty("websocket.maxQueuedBytes", String.valueOf(webSocketMaxQueuedBytes)));
+        this.webSocketPingInterval = Long.parseLong(props.getProperty("websocket.pingInterval", String.valueOf(webSocketPingInterval)));
+        this.sseEnabled = Boolean.parseBoolean(props.getProperty("sse.enabled", String.valueOf(sseEnabled)));
+        this.ssePaths = props.getProperty("sse.paths", ssePaths);
+        this.sseEventLoops = Integer.parseInt(props.getProperty("sse.eventLoops", String.valueOf(sseEventLoops)));
+        this.sseMaxConnections = Integer.parseInt(props.getProperty("sse.maxConnections", String.valueOf(sseMaxConnections)));
+        this.sseReplayBufferSize = Integer.parseInt(props.getProperty("sse.replayBufferSize", String.valueOf(sseReplayBufferSize)));
+        this.sseHeartbeatInterval = Long.parseLong(props.getProperty("sse.heartbeatInterval", String.valueOf(sseHeartbeatInterval)));
+        this.sseRetry = Long.parseLong(props.getProperty("sse.retry", String.valueOf(sseRetry)));
+        this.sseMaxQueuedBytes = Long.parseLong(props.getProperty("sse.maxQueuedBytes", String.valueOf(sseMaxQueuedBytes)));
+        this.microCacheEnabled = Boolean.parseBoolean(props.getProperty("microCache.enabled", String.valueOf(microCacheEnabled)));
+        this.microCacheTtl = Long.parseLong(props.getProperty("microCache.ttl", String.valueOf(microCacheTtl)));
+        this.microCacheStaleWhileRevalidate = Long.parseLong(props.getProperty("microCache.staleWhileRevalidate", String.valueOf(microCacheStaleWhileRevalidate)));
+        this.microCacheMaxEntries = Integer.parseInt(props.getProperty("microCache.maxEntries", String.valueOf(microCacheMaxEntries)));
+        this.microCacheVaryHeaders = props.getProperty("microCache.varyHeaders", microCacheVaryHeaders);
+        this.fingerprintEnabled = Boolean.parseBoolean(props.getProperty("fingerprint.enabled", String.valueOf(fingerprintEnabled)));
+        this.fingerprintExtensions = props.getProperty("fingerprint.extensions", fingerprintExtensions);
+        this.fingerprintMaxHtmlSize = Long.parseLong(props.getProperty("fingerprint.maxHtmlSize", String.valueOf(fingerprintMaxHtmlSize)));
     }
 
     // Getters
+    public File getConfigFile() { return configFile; }
     public int getPort() { return port; }
     public String getDocumentRoot() { return documentRoot; }
+    public boolean isTcpEnabled() { return tcpEnabled; }
+    public String getUnixSocketPath() { return unixSocketPath; }
+    public String getUnixSocketPermissions() { return unixSocketPermissions; }
+    /** Whether Unix socket peers may use admin endpoints and publish events */
+    public boolean isUnixSocketTrusted() { return unixSocketTrusted; }
     public int getCorePoolSize() { return corePoolSize; }
     public int getMaxPoolSize() { return maxPoolSize; }
     public int getQueueCapacity() { return queueCapacity; }
@@ -85,10 +468,117 @@ public class ServerConfig {
     public int getAcceptTimeout() { return acceptTimeout; }
     public int getBacklog() { return backlog; }
     public String getLogLevel() { return logLevel; }
+    public boolean isRateLimitEnabled() { return rateLimitEnabled; }
+    public double getRateLimitRequestsPerSecond() { return rateLimitRequestsPerSecond; }
+    public int getRateLimitBurst() { return rateLimitBurst; }
+    public int getRateLimitMaxConnections() { return rateLimitMaxConnections; }
+    public long getRateLimitIdleExpiry() { return rateLimitIdleExpiry; }
+    public boolean isKeepAliveEnabled() { return keepAliveEnabled; }
+    public int getKeepAliveMaxRequests() { return keepAliveMaxRequests; }
+    public long getIdleTimeout() { return idleTimeout; }
+    public long getHeaderTimeout() { return headerTimeout; }
+    public long getRequestTimeout() { return requestTimeout; }
+    public long getWriteTimeout() { return writeTimeout; }
+    public int getTimerTickDuration() { return timerTickDuration; }
+    public int getTimerWheelSize() { return timerWheelSize; }
+    public int getReadBufferSize() { return readBufferSize; }
+    public int getBufferThreadCacheSize() { return bufferThreadCacheSize; }
+    public int getBufferMaxPooledPerClass() { return bufferMaxPooledPerClass; }
+    public boolean isBufferLeakDetection() { return bufferLeakDetection; }
+    public long getBufferLeakThreshold() { return bufferLeakThreshold; }
+    public boolean isAccessLogEnabled() { return accessLogEnabled; }
+    public String getAccessLogPath() { return accessLogPath; }
+    public String getAccessLogFormat() { return accessLogFormat; }
+    public int getAccessLogQueueCapacity() { return accessLogQueueCapacity; }
+    public int getAccessLogBufferSize() { return accessLogBufferSize; }
+    public long getAccessLogFlushInterval() { return accessLogFlushInterval; }
+    public long getAccessLogMaxFileSize() { return accessLogMaxFileSize; }
+    public long getAccessLogRotateInterval() { return accessLogRotateInterval; }
+    public boolean isConfigWatchEnabled() { return configWatchEnabled; }
+    public boolean isAdminEnabled() { return adminEnabled; }
+    public long getDrainTimeout() { return drainTimeout; }
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+    public long getCacheMaxFileSize() { return cacheMaxFileSize; }
+    public int getCacheMaxEntries() { return cacheMaxEntries; }
+    public long getCacheOffHeapBytes() { return cacheOffHeapBytes; }
+    public int getCacheOffHeapSegmentSize() { return cacheOffHeapSegmentSize; }
+    public String getCacheOffHeapFile() { return cacheOffHeapFile; }
+    public boolean isWarmupEnabled() { return warmupEnabled; }
+    public String getWarmupPatterns() { return warmupPatterns; }
+    public long getWarmupMaxFileSize() { return warmupMaxFileSize; }
+    public int getWarmupParallelism() { return warmupParallelism; }
+    public long getMaxBodySize() { return maxBodySize; }
+    public int getBodySpoolThreshold() { return bodySpoolThreshold; }
+    public String getBodyTempDir() { return bodyTempDir; }
+    public long getMaxDiscardSize() { return maxDiscardSize; }
+    public int getMaxRequestLineLength() { return maxRequestLineLength; }
+    public int getMaxHeaderCount() { return maxHeaderCount; }
+    public int getMaxHeaderBytes() { return maxHeaderBytes; }
+    public boolean isWatchdogEnabled() { return watchdogEnabled; }
+    public long getWatchdogThreshold() { return watchdogThreshold; }
+    public int getWatchdogMaxSamples() { return watchdogMaxSamples; }
+    public int getWatchdogMaxReports() { return watchdogMaxReports; }
+    public boolean isBulkheadEnabled() { return bulkheadEnabled; }
+    public long getBulkMinSize() { return bulkMinSize; }
+    public String getBulkPathPrefixes() { return bulkPathPrefixes; }
+    public int getBulkMaxConcurrent() { return bulkMaxConcurrent; }
+    public int getBulkMaxQueued() { return bulkMaxQueued; }
+    public long getBulkQueueTimeout() { return bulkQueueTimeout; }
+    public long getBandwidthGlobalLimit() { return bandwidthGlobalLimit; }
+    public long getBandwidthConnectionLimit() { return bandwidthConnectionLimit; }
+    public String getBandwidthPathLimits() { return bandwidthPathLimits; }
+    public int getBandwidthBurst() { return bandwidthBurst; }
+    public String getArchivePath() { return archivePath; }
+    public boolean isArchiveWatch() { return archiveWatch; }
+    public boolean isClusterEnabled() { return clusterEnabled; }
+    public String getClusterSelf() { return clusterSelf; }
+    public String getClusterPeers() { return clusterPeers; }
+    public int getClusterVirtualNodes() { return clusterVirtualNodes; }
+    public int getClusterTimeout() { return clusterTimeout; }
+    public long getClusterRetryInterval() { return clusterRetryInterval; }
+    public int getClusterHotThreshold() { return clusterHotThreshold; }
+    public String getBalancerBackends() { return balancerBackends; }
+    public String getBalancerPolicy() { return balancerPolicy; }
+    public int getBalancerConnectTimeout() { return balancerConnectTimeout; }
+    public int getBalancerReadTimeout() { return balancerReadTimeout; }
+    public int getBalancerMaxIdlePerBackend() { return balancerMaxIdlePerBackend; }
+    public long getBalancerMaxSpooledBody() { return balancerMaxSpooledBody; }
+    public String getBalancerHealthPath() { return balancerHealthPath; }
+    public long getBalancerHealthInterval() { return balancerHealthInterval; }
+    public int getBalancerHealthTimeout() { return balancerHealthTimeout; }
+    public int getBalancerUnhealthyThreshold() { return balancerUnhealthyThreshold; }
+    public int getBalancerHealthyThreshold() { return balancerHealthyThreshold; }
+    public int getBalancerEjectAfter() { return balancerEjectAfter; }
+    public long getBalancerEjectDuration() { return balancerEjectDuration; }
+    public boolean isWebSocketEnabled() { return webSocketEnabled; }
+    public String getWebSocketRelayPaths() { return webSocketRelayPaths; }
+    public int getWebSocketEventLoops() { return webSocketEventLoops; }
+    public int getWebSocketMaxConnections() { return webSocketMaxConnections; }
+    public int getWebSocketMaxMessageSize() { return webSocketMaxMessageSize; }
+    public long getWebSocketMaxQueuedBytes() { return webSocketMaxQueuedBytes; }
+    public long getWebSocketPingInterval() { return webSocketPingInterval; }
+    public boolean isSseEnabled() { return sseEnabled; }
+    public String getSsePaths() { return ssePaths; }
+    public int getSseEventLoops() { return sseEventLoops; }
+    public int getSseMaxConnections() { return sseMaxConnections; }
+    public int getSseReplayBufferSize() { return sseReplayBufferSize; }
+    public long getSseHeartbeatInterval() { return sseHeartbeatInterval; }
+    public long getSseRetry() { return sseRetry; }
+    public long getSseMaxQueuedBytes() { return sseMaxQueuedBytes; }
+    public boolean isMicroCacheEnabled() { return microCacheEnabled; }
+    public long getMicroCacheTtl() { return microCacheTtl; }
+    public long getMicroCacheStaleWhileRevalidate() { return microCacheStaleWhileRevalidate; }
+    public int getMicroCacheMaxEntries() { return microCacheMaxEntries; }
+    public String getMicroCacheVaryHeaders() { return microCacheVaryHeaders; }
+    public boolean isFingerprintEnabled() { return fingerprintEnabled; }
+    public String getFingerprintExtensions() { return fingerprintExtensions; }
+    public long getFingerprintMaxHtmlSize() { return fingerprintMaxHtmlSize; }
 
     // Setters for testing
     public void setPort(int port) { this.port = port; }
     public void setDocumentRoot(String documentRoot) { this.documentRoot = documentRoot; }
     public void setCorePoolSize(int corePoolSize) { this.corePoolSize = corePoolSize; }
     public void setMaxPoolSize(int maxPoolSize) { this.maxPoolSize = maxPoolSize; }
+    public void setRateLimitEnabled(boolean rateLimitEnabled) { this.rateLimitEnabled = rateLimitEnabled; }
+    public void setKeepAliveEnabled(boolean keepAliveEnabled) { this.keepAliveEnabled = keepAliveEnabled; }
 }
@@ -0,0 +1,142 @@
+package com.webserver.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connection output stream that paces writes through the BandwidthShaper's buckets.
+ * Writes are split into chunks no larger than the burst size and each chunk
+ * reserves tokens from the global, connection and path buckets; the thread
+ * parks only for the debt of the slowest bucket. With no limits configured
+ * writes go straight to the socket. Bytes accepted by the socket are counted,
+ * and time parked for pacing is flagged, so the write deadline can tell a slow
+ * or paced response from a stalled one.
+ */
+public class ShapedOutputStream extends OutputStream {
+    private static final int MAX_CHUNK = 16 * 1024;
+
+    private final OutputStream out;
+    private final BandwidthShaper shaper;
+    private BandwidthShaper.Settings settings;
+    private BandwidthShaper.Bucket connectionBucket;
+    private BandwidthShaper.Bucket pathBucket;
+    private boolean shaping;
+    private boolean smallResponse;
+    // Read by the timer thread checking write progress
+    private volatile long bytesWritten;
+    private volatile boolean pacing;
+
+    ShapedOutputStream(OutputStream out, BandwidthShaper shaper) {
+        this.out = out;
+        this.shaper = shaper;
+    }
+
+    /**
+     * Pick the buckets for the next response; path is only needed when per-path limits exist
+     */
+    public void beginResponse(String path, long bodyLength) {
+        settings = shaper.current();
+        shaping = settings.isShaping();
+        smallResponse = bodyLength <= settings.burst;
+        pathBucket = settings.pathBucket(path);
+        long connectionLimit = settings.connectionLimit;
+        if (connectionLimit <= 0) {
+            connectionBucket = null;
+        } else if (connectionBucket == null || connectionBucket.bytesPerSecond != connectionLimit) {
+            connectionBucket = new BandwidthShaper.Bucket(connectionLimit, settings.burst);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (shaping) {
+            pace(1);
+        }
+        out.write(b);
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!shaping) {
+            out.write(b, off, len);
+            bytesWritten += len;
+            return;
+        }
+        int chunkLimit = Math.min(MAX_CHUNK, settings.burst);
+        while (len > 0) {
+            int n = Math.min(len, chunkLimit);
+            pace(n);
+            out.write(b, off, n);
+            bytesWritten += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void pace(int bytes) throws IOException {
+        long wait = 0;
+        if (settings.global != null) {
+            // Small responses count toward the global rate but do not queue behind bulk transfers
+            if (smallResponse) {
+                settings.global.charge(bytes);
+            } else {
+                wait = settings.global.reserve(bytes);
+            }
+        }
+        if (connectionBucket != null) {
+            wait = Math.max(wait, connectionBucket.reserve(bytes));
+        }
+        if (pathBucket != null) {
+            wait = Math.max(wait, pathBucket.reserve(bytes));
+        }
+        if (wait <= 0) {
+            return;
+        }
+
+        // Push out what is already written so the client is not kept waiting on it
+        out.flush();
+        long deadline = System.nanoTime() + wait;
+        long remaining = wait;
+        pacing = true;
+        try {
+            while (remaining > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while pacing response");
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        } finally {
+            pacing = false;
+        }
+        shaper.recordPause(wait);
+    }
+
+    /**
+     * Bytes written to the socket so far on this connection
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * True while the writer is parked waiting for bandwidth tokens rather than for the socket
+     */
+    public boolean isPacing() {
+        return pacing;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
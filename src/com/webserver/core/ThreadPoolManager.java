@@ -1,5 +1,6 @@
 package com.webserver.core;
 
+import com.webserver.util.BufferPool;
 import com.webserver.util.Logger;
 
 import java.util.concurrent.*;
@@ -36,20 +37,49 @@ public class ThreadPoolManager {
     }
 
     /**
-     * Submit a task to the thread pool
+     * Submit a task to the thread pool; returns false if the pool and queue are full
      */
-    public void submit(Runnable task) {
+    public boolean submit(Runnable task) {
         totalConnections.incrementAndGet();
         activeConnections.incrementAndGet();
         
-        executor.execute(() -> {
-            try {
-                task.run();
-            } finally {
-                activeConnections.decrementAndGet();
-                logPoolStatus();
-            }
-        });
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    activeConnections.decrementAndGet();
+                    logPoolStatus();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            activeConnections.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Resize the pool while it is running; queue capacity is fixed until restart
+     */
+    public void resize(int corePoolSize, int maxPoolSize, int keepAliveSeconds) {
+        if (corePoolSize > maxPoolSize) {
+            logger.warn(String.format("Ignoring pool resize: core %d exceeds max %d", corePoolSize, maxPoolSize));
+            return;
+        }
+
+        // Order the updates so core never exceeds max in between
+        if (corePoolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxPoolSize);
+            executor.setCorePoolSize(corePoolSize);
+        } else {
+            executor.setCorePoolSize(corePoolSize);
+            executor.setMaximumPoolSize(maxPoolSize);
+        }
+        executor.setKeepAliveTime(keepAliveSeconds, TimeUnit.SECONDS);
+
+        logger.info(String.format("Thread pool resized: core=%d, max=%d, keepAlive=%ds",
+            corePoolSize, maxPoolSize, keepAliveSeconds));
     }
 
     /**
@@ -90,6 +120,7 @@ public class ThreadPoolManager {
                 executor.getQueue().size(),
                 executor.getCompletedTaskCount()
             ));
+            logger.debug(BufferPool.getInstance().getStats().toString());
         }
     }
 
@@ -139,7 +170,8 @@ public class ThreadPoolManager {
         @Override
         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
             logger.error("Connection rejected - thread pool exhausted");
-            // Could implement backpressure strategy here
+            // Let submit() report the rejection so the caller can answer and close the socket
+            throw new RejectedExecutionException("Thread pool exhausted");
         }
     }
 
@@ -0,0 +1,233 @@
+package com.webserver.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection accepted on the Unix domain socket, presented as a Socket so
+ * ConnectionHandler and the WebSocket and event stream hubs serve it unchanged.
+ * Unix domain channels have no socket adaptor of their own, so the streams
+ * read and write the blocking channel directly.
+ *
+ * The peer is usually a proxy forwarding outside traffic, so it is not
+ * reported as loopback: getInetAddress() is the unspecified address, which
+ * passes no loopback check, and callers that need a client identity use PEER
+ * or the address the proxy forwarded.
+ *
+ * Reads have no SO_TIMEOUT; the timeout.* deadlines close the channel instead,
+ * which unblocks a worker stuck in read or write.
+ */
+public class UnixDomainSocket extends Socket {
+    /** Client address shown for a Unix socket peer that forwarded none */
+    public static final String PEER = "unix";
+    private static final InetAddress UNSPECIFIED = unspecified();
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private int soTimeout;
+
+    public UnixDomainSocket(SocketChannel channel) throws SocketException {
+        super((SocketImpl) null);
+        this.channel = channel;
+        this.in = new ChannelInput(channel);
+        this.out = new ChannelOutput(channel);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        }
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!channel.isOpen()) {
+            throw new SocketException("Socket is closed");
+        }
+        return out;
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return UNSPECIFIED;
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return UNSPECIFIED;
+    }
+
+    private static InetAddress unspecified() {
+        try {
+            return InetAddress.getByAddress(PEER, new byte[4]);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Recorded only; see the class comment
+     */
+    @Override
+    public void setSoTimeout(int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    /**
+     * TCP options do not apply to a Unix domain socket
+     */
+    @Override
+    public void setKeepAlive(boolean on) {
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        channel.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel.isConnected();
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "UnixDomainSocket[" + getLocalSocketAddress() + "]";
+    }
+
+    /**
+     * Reads the channel without the blocking lock Channels.newInputStream holds,
+     * so a deadline on another thread can close it mid-read
+     */
+    private static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+        private final byte[] single = new byte[1];
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int n = read(single, 0, 1);
+            return n == 1 ? single[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.webserver.handler;
+
+import com.webserver.core.ServerConfig;
+import com.webserver.http.HttpRequest;
+import com.webserver.http.HttpResponse;
+import com.webserver.util.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Admin endpoints under /_admin/, reachable only from the local machine.
+ * Server components register named endpoints that produce a plain-text response.
+ */
+public class AdminHandler {
+    public static final String PREFIX = "/_admin/";
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final Map<String, Supplier<String>> endpoints = new ConcurrentHashMap<>();
+
+    public AdminHandler(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Register an endpoint served at /_admin/{name}
+     */
+    public void register(String name, Supplier<String> endpoint) {
+        endpoints.put(name, endpoint);
+    }
+
+    /**
+     * Check if the request targets the admin namespace
+     */
+    public boolean isAdminRequest(HttpRequest request) {
+        return config.isAdminEnabled() && request.getUri() != null && request.getUri().startsWith(PREFIX);
+    }
+
+    /**
+     * Run the requested endpoint
+     *
+     * @param localClient whether the connection comes from this machine and may be trusted;
+     *                    decided by the caller, since Unix socket peers are not by default
+     */
+    public HttpResponse handle(HttpRequest request, String clientAddress, boolean localClient) {
+        if (!localClient) {
+            logger.warn(String.format("Admin request from non-local address %s", clientAddress));
+            return HttpResponse.error(403, "Forbidden");
+        }
+
+        String name = request.getNormalizedUri().substring(PREFIX.length());
+        Supplier<String> endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            return HttpResponse.error(404, "Not Found");
+        }
+
+        logger.info(String.format("Admin request: %s", name));
+        HttpResponse response = new HttpResponse();
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setBody(endpoint.get());
+        return response;
+    }
+}
@@ -1,100 +1,793 @@
 package com.webserver.handler;
 
+import com.webserver.archive.ArchiveManager;
+import com.webserver.archive.SiteArchive;
+import com.webserver.balancer.LoadBalancer;
+import com.webserver.cache.AssetManifest;
+import com.webserver.cache.FileCache;
+import com.webserver.cache.MicroCache;
+import com.webserver.cache.OffHeapStore;
+import com.webserver.cluster.CacheCluster;
+import com.webserver.core.BandwidthShaper;
+import com.webserver.core.Bulkhead;
+import com.webserver.core.HashedWheelTimer;
+import com.webserver.core.RateLimiter;
 import com.webserver.core.ServerConfig;
+import com.webserver.core.ShapedOutputStream;
+import com.webserver.core.UnixDomainSocket;
+import com.webserver.http.HttpExchange;
+import com.webserver.http.HttpInput;
 import com.webserver.http.HttpRequest;
 import com.webserver.http.HttpResponse;
+import com.webserver.http.RequestBody;
+import com.webserver.jfr.ConnectionAcceptedEvent;
+import com.webserver.jfr.ConnectionClosedEvent;
+import com.webserver.jfr.ConnectionDequeuedEvent;
+import com.webserver.jfr.RequestHandledEvent;
+import com.webserver.jfr.RequestParsedEvent;
+import com.webserver.jfr.ResponseWrittenEvent;
+import com.webserver.sse.EventStreamHub;
+import com.webserver.util.AccessLog;
 import com.webserver.util.Logger;
+import com.webserver.websocket.WebSocketFrame;
+import com.webserver.websocket.WebSocketHub;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 // Handles each client connection in a separate thread
 public class ConnectionHandler implements Runnable {
+    /**
+     * Connection lifecycle as seen by the drain logic
+     */
+    public enum State { QUEUED, ACTIVE, IDLE, CLOSED }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
     private final Socket clientSocket;
     private final ServerConfig config;
+    private final RateLimiter rateLimiter;
+    private final HashedWheelTimer timer;
+    private final AdminHandler adminHandler;
+    private final ConnectionRegistry registry;
+    private final FileCache fileCache;
+    private final SlowRequestWatchdog watchdog;
+    private final Bulkhead bulkhead;
+    private final BandwidthShaper bandwidthShaper;
+    private final ArchiveManager archiveManager;
+    private final CacheCluster cacheCluster;
+    private final LoadBalancer loadBalancer;
+    private final WebSocketHub webSocketHub;
+    private final EventStreamHub eventStreamHub;
+    private final MicroCache microCache;
+    private final HeaderGuard headerGuard;
+    private final AssetManifest assetManifest;
     private final Logger logger;
+    private final AccessLog accessLog;
     private final long connectionStartTime;
+    private final long connectionId;
+    private final ConnectionDequeuedEvent queuedEvent;
+    private int requestsServed;
+    private final java.util.concurrent.atomic.AtomicReference<State> state =
+        new java.util.concurrent.atomic.AtomicReference<>(State.QUEUED);
+    private volatile String closeReason;
+    private String remoteAddress;
+    private String clientInfo;
+    // Unix socket peers are proxies, not trusted local clients; see clientAddress()
+    private final boolean unixSocket;
+    // Client of the current request: the forwarded address behind a Unix socket proxy
+    private String requestAddress;
+    // True while a request head is being read; whoever clears it first, worker or header deadline, decides its fate
+    private final AtomicBoolean readingHead = new AtomicBoolean(false);
+    // Bounds receiving and handling the current request; stopped once its response starts
+    private HashedWheelTimer.Timeout requestDeadline;
+    // Write deadline of the response being sent; re-armed by the timer thread while bytes keep going out
+    private volatile HashedWheelTimer.Timeout writeDeadline;
+    private volatile boolean writing;
+
+    // Bulkhead class of the current request, set once its file is resolved
+    private Bulkhead.RequestClass requestClass;
+    private boolean holdsBulkPermit;
+    // Off-heap body being sent; its segment cannot be recycled until released
+    private OffHeapStore.Slot pinnedBody;
+    // Set once a 101 has been sent; the socket then belongs to the WebSocket hub
+    private String webSocketPath;
+    // Set once event-stream headers have been sent; the socket then belongs to the event stream hub
+    private String eventStreamPath;
+    private long lastEventId;
+    private boolean handedOff;
 
-    public ConnectionHandler(Socket clientSocket, ServerConfig config) {
+    public ConnectionHandler(Socket clientSocket, HandlerContext context) {
         this.clientSocket = clientSocket;
-        this.config = config;
+        this.unixSocket = clientSocket instanceof UnixDomainSocket;
+        this.config = context.getConfig();
+        this.rateLimiter = context.getRateLimiter();
+        this.timer = context.getTimer();
+        this.adminHandler = context.getAdminHandler();
+        this.registry = context.getConnectionRegistry();
+        this.fileCache = context.getFileCache();
+        this.watchdog = context.getWatchdog();
+        this.bulkhead = context.getBulkhead();
+        this.bandwidthShaper = context.getBandwidthShaper();
+        this.archiveManager = context.getArchiveManager();
+        this.cacheCluster = context.getCacheCluster();
+        this.loadBalancer = context.getLoadBalancer();
+        this.webSocketHub = context.getWebSocketHub();
+        this.eventStreamHub = context.getEventStreamHub();
+        this.microCache = context.getMicroCache();
+        this.headerGuard = context.getHeaderGuard();
+        this.assetManifest = context.getAssetManifest();
         this.logger = Logger.getInstance();
+        this.accessLog = AccessLog.getInstance();
         this.connectionStartTime = System.currentTimeMillis();
+        this.connectionId = NEXT_ID.incrementAndGet();
+        registry.register(this);
+
+        ConnectionAcceptedEvent accepted = new ConnectionAcceptedEvent();
+        if (accepted.isEnabled()) {
+            accepted.connectionId = connectionId;
+            accepted.remoteAddress = getRemoteAddress();
+            accepted.commit();
+        }
+        // Duration event spanning the time in the pool queue; committed when a worker picks us up
+        this.queuedEvent = new ConnectionDequeuedEvent();
+        queuedEvent.begin();
     }
 
     @Override
     public void run() {
-        String clientInfo = String.format("%s:%d", 
-            clientSocket.getInetAddress().getHostAddress(), 
-            clientSocket.getPort());
-
         try {
-            handleConnection(clientInfo);
+            if (state.compareAndSet(State.QUEUED, State.ACTIVE)) {
+                queuedEvent.connectionId = connectionId;
+                queuedEvent.commit();
+                handleConnection();
+            }
         } catch (SocketTimeoutException e) {
-            logger.warn(String.format("Connection timeout: %s", clientInfo));
+            logger.warn(String.format("Connection timeout: %s", getClientInfo()));
         } catch (Exception e) {
-            logger.error(String.format("Error handling connection %s: %s", clientInfo, e.getMessage()));
+            if ("idle".equals(closeReason) || "drain".equals(closeReason)) {
+                logger.debug(String.format("Idle keep-alive connection closed (%s): %s", closeReason, getClientInfo()));
+            } else if (closeReason != null) {
+                logger.warn(String.format("Connection %s deadline exceeded: %s", closeReason, getClientInfo()));
+            } else {
+                logger.error(String.format("Error handling connection %s: %s", getClientInfo(), e.getMessage()));
+            }
         } finally {
-            closeConnection(clientInfo);
+            closeConnection();
+        }
+    }
+
+    /**
+     * Reset a connection the thread pool had no room for, without a response
+     */
+    public void abortOverloaded() {
+        logger.warn(String.format("Resetting connection from %s: server overloaded", getRemoteAddress()));
+        try {
+            clientSocket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // Closed normally instead
         }
+        closeConnection();
     }
 
-    // Process the request and send response
-    private void handleConnection(String clientInfo) throws IOException {
-        InputStream input = clientSocket.getInputStream();
-        OutputStream output = clientSocket.getOutputStream();
+    /**
+     * Client IP address, looked up once per connection
+     */
+    private String getRemoteAddress() {
+        if (remoteAddress == null) {
+            remoteAddress = unixSocket ? UnixDomainSocket.PEER : clientSocket.getInetAddress().getHostAddress();
+        }
+        return remoteAddress;
+    }
 
-        // Parse HTTP request
-        HttpRequest request = HttpRequest.parse(input);
+    /**
+     * The client a request is from. Behind the Unix socket the peer is a proxy,
+     * so this is the last address it added to X-Forwarded-For; null if it added none.
+     */
+    private String clientAddress(HttpRequest request) {
+        if (!unixSocket) {
+            return getRemoteAddress();
+        }
+        String forwardedFor = request.getHeader("x-forwarded-for");
+        if (forwardedFor == null) {
+            return null;
+        }
+        String last = forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+        return last.isEmpty() ? null : last;
+    }
+
+    /**
+     * Loopback TCP clients may use admin endpoints and publish events; Unix socket peers only if trusted
+     */
+    private boolean isLocalClient() {
+        return unixSocket ? config.isUnixSocketTrusted() : clientSocket.getInetAddress().isLoopbackAddress();
+    }
+
+    /**
+     * "ip:port" for log messages, built only when something is logged
+     */
+    private String getClientInfo() {
+        if (clientInfo == null) {
+            clientInfo = getRemoteAddress() + ":" + clientSocket.getPort();
+        }
+        return clientInfo;
+    }
+
+    // Serve requests on this connection until it is closed or keep-alive ends
+    private void handleConnection() throws IOException {
+        try (HttpInput input = new HttpInput(clientSocket.getInputStream(), config.getReadBufferSize())) {
+            serveRequests(input, bandwidthShaper.wrap(clientSocket.getOutputStream()));
+            if (webSocketPath != null) {
+                // Bytes the client sent right after the handshake are already in our buffer
+                handedOff = webSocketHub.adopt(clientSocket, webSocketPath, getRemoteAddress(),
+                    input.drainBuffered(), releaseSlot());
+                if (!handedOff) {
+                    logger.warn(String.format("Could not hand WebSocket %s over to an event loop", getClientInfo()));
+                }
+            } else if (eventStreamPath != null) {
+                handedOff = eventStreamHub.adopt(clientSocket, eventStreamPath, getRemoteAddress(), lastEventId,
+                    releaseSlot());
+                if (!handedOff) {
+                    logger.warn(String.format("Could not hand event stream %s over to an event loop",
+                        getClientInfo()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back this connection's rate-limit slot when a hub closes it; the hub owns the socket by then
+     */
+    private Runnable releaseSlot() {
+        if (unixSocket) {
+            return null;
+        }
+        String remoteAddress = getRemoteAddress();
+        return () -> rateLimiter.closeConnection(remoteAddress);
+    }
+
+    private void serveRequests(HttpInput input, ShapedOutputStream output) throws IOException {
+        // One exchange and one set of head and body limits serve every request on this connection
+        HttpExchange exchange = new HttpExchange();
+        HttpRequest.HeadLimits headLimits = headerGuard.limits();
+        RequestBody.Limits limits = bodyLimits();
+        SlowRequestWatchdog.Trace trace = watchdog.newTrace(getClientInfo());
+        int requestCount = 0;
+        boolean keepAlive = true;
+        while (keepAlive) {
+            // The first request is bounded by the header deadline, later ones by the idle deadline
+            boolean firstRequest = requestCount == 0;
+            if (!firstRequest && !becomeIdle()) {
+                return;
+            }
+            readingHead.set(firstRequest);
+            HashedWheelTimer.Timeout waitDeadline = firstRequest
+                ? armDeadline("header", config.getHeaderTimeout())
+                : armDeadline("idle", config.getIdleTimeout());
+            boolean hasRequest = input.fill();
+            if (!firstRequest) {
+                cancelDeadline(waitDeadline);
+                // A drain may have closed us while idle
+                if (hasRequest && !state.compareAndSet(State.IDLE, State.ACTIVE)) {
+                    return;
+                }
+            }
+            if (!hasRequest) {
+                cancelDeadline(waitDeadline);
+                if (firstRequest && !readingHead.compareAndSet(true, false)) {
+                    // Connected but sent nothing before the header deadline
+                    headerGuard.record(HttpRequest.Rejection.HEADER_TIMEOUT, getClientInfo());
+                }
+                return;
+            }
+
+            readingHead.set(true);
+            HashedWheelTimer.Timeout headerDeadline = firstRequest
+                ? waitDeadline
+                : armDeadline("header", config.getHeaderTimeout());
+            requestDeadline = armDeadline("request", config.getRequestTimeout());
+
+            try {
+                requestCount++;
+                requestsServed = requestCount;
+                trace.begin();
+                keepAlive = handleRequest(exchange, input, output, headLimits, limits, trace, headerDeadline,
+                    requestCount);
+            } finally {
+                trace.end();
+                cancelDeadline(headerDeadline);
+                cancelDeadline(requestDeadline);
+            }
+        }
+    }
+
+    // Process one request and send response; returns true if the connection stays open
+    private boolean handleRequest(HttpExchange exchange, HttpInput input, ShapedOutputStream output,
+                                  HttpRequest.HeadLimits headLimits, RequestBody.Limits limits,
+                                  SlowRequestWatchdog.Trace trace, HashedWheelTimer.Timeout headerDeadline,
+                                  int requestCount) throws IOException {
+        requestClass = Bulkhead.RequestClass.INTERACTIVE;
+        requestAddress = null;
+
+        // Parse HTTP request into the recycled exchange
+        RequestParsedEvent parsed = new RequestParsedEvent();
+        parsed.begin();
+        HttpRequest.Rejection rejection = null;
+        HttpRequest request;
+        try {
+            request = exchange.begin(input, headLimits, limits);
+        } catch (HttpRequest.RejectedException e) {
+            request = exchange.getRequest();
+            rejection = e.getRejection();
+        }
+        cancelDeadline(headerDeadline);
+        if (!readingHead.compareAndSet(true, false)) {
+            // The header deadline cut the input off first
+            rejection = HttpRequest.Rejection.HEADER_TIMEOUT;
+        }
+        if (rejection != null) {
+            rejectHead(rejection, exchange, output);
+            return false;
+        }
+        parsed.end();
+        trace.setRequest(request.getMethod(), request.getUri());
+        if (parsed.shouldCommit()) {
+            parsed.connectionId = connectionId;
+            parsed.method = request.getMethod();
+            parsed.uri = request.getUri();
+            parsed.valid = request.isValid();
+            parsed.commit();
+        }
+
+        try {
+            return processRequest(exchange, output, trace, requestCount);
+        } finally {
+            if (holdsBulkPermit) {
+                holdsBulkPermit = false;
+                bulkhead.releaseBulk();
+            }
+            if (pinnedBody != null) {
+                pinnedBody.unpin();
+                pinnedBody = null;
+            }
+            // Remove any spooled upload once the exchange is over
+            exchange.end();
+        }
+    }
+
+    private boolean processRequest(HttpExchange exchange, ShapedOutputStream output, SlowRequestWatchdog.Trace trace,
+                                   int requestCount) throws IOException {
+        HttpRequest request = exchange.getRequest();
+        HttpResponse response = exchange.getResponse();
 
         if (!request.isValid()) {
-            logger.warn(String.format("Invalid request from %s", clientInfo));
-            HttpResponse.error(400, "Bad Request").send(output);
-            return;
+            logger.warn(String.format("Invalid request from %s", getClientInfo()));
+            sendResponse(response.setError(400, "Bad Request"), output, exchange);
+            return false;
         }
 
-        logger.info(String.format("Request from %s: %s", clientInfo, request.toString()));
+        // The access log carries the per-request record when enabled
+        if (!accessLog.isEnabled()) {
+            logger.info(String.format("Request from %s: %s", getClientInfo(), request.toString()));
+        }
+
+        // Enforce per-client request rate; a proxy that names no client is not limited as one
+        requestAddress = clientAddress(request);
+        long retryAfter = requestAddress != null ? rateLimiter.tryAcquireRequest(requestAddress) : 0;
+        if (retryAfter > 0) {
+            logger.warn(String.format("Rate limit exceeded for %s", getClientInfo()));
+            sendResponse(response.setTooManyRequests(retryAfter), output, exchange);
+            return false;
+        }
+
+        RequestBody body = request.getRequestBody();
+        if (body != null) {
+            if (body.getContentLength() > config.getMaxBodySize()) {
+                logger.warn(String.format("Request body too large from %s: %d bytes", getClientInfo(), body.getContentLength()));
+                sendResponse(response.setError(413, "Request body is too large."), output, exchange);
+                return false;
+            }
+            body.setContinueOutput(output);
+        }
 
         // Route request
-        HttpResponse response;
+        trace.phase("handle");
+        RequestHandledEvent handled = new RequestHandledEvent();
+        handled.begin();
         try {
-            response = routeRequest(request);
+            response = routeRequest(request, response);
+            handled.end();
+            if (handled.shouldCommit()) {
+                handled.connectionId = connectionId;
+                handled.method = request.getMethod();
+                handled.uri = request.getUri();
+                handled.status = response.getStatusCode();
+                handled.bodySize = response.getBodyLength();
+                handled.commit();
+            }
+        } catch (RequestBody.TooLargeException e) {
+            logger.warn(String.format("Request body too large from %s", getClientInfo()));
+            sendResponse(response.reset().setError(413, "Request body is too large."), output, exchange);
+            return false;
+        } catch (RequestBody.MalformedException e) {
+            logger.warn(String.format("Malformed request body from %s: %s", getClientInfo(), e.getMessage()));
+            sendResponse(response.reset().setError(400, "Malformed request body."), output, exchange);
+            return false;
         } catch (Exception e) {
             logger.error(String.format("Error processing request: %s", e.getMessage()));
-            response = HttpResponse.error(500, "Internal Server Error");
+            response = exchange.getResponse().reset().setError(500, "Internal Server Error");
+        }
+
+        // Keep the connection open only if both sides want it and we are not draining
+        boolean keepAlive = config.isKeepAliveEnabled()
+            && !registry.isDraining()
+            && request.isKeepAlive()
+            && requestCount < config.getKeepAliveMaxRequests();
+
+        // Skip any body the handler left unread, unless it is too big to be worth it
+        if (keepAlive && body != null) {
+            try {
+                keepAlive = body.discard(config.getMaxDiscardSize());
+            } catch (IOException e) {
+                keepAlive = false;
+            }
+        }
+        if (webSocketPath != null || eventStreamPath != null) {
+            // Long-lived stream: the connection leaves this worker once the response head is written
+            trace.phase("write");
+            sendResponse(response, output, exchange);
+            return false;
+        }
+        response.setKeepAlive(keepAlive);
+        trace.phase("write");
+        sendResponse(response, output, exchange);
+
+        if (logger.isDebugEnabled()) {
+            long duration = System.currentTimeMillis() - exchange.getStartTime();
+            logger.debug(String.format("Request completed in %d ms", duration));
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Body limits from the current (possibly reloaded) config
+     */
+    private RequestBody.Limits bodyLimits() {
+        String tempDir = config.getBodyTempDir();
+        return new RequestBody.Limits(config.getMaxBodySize(), config.getBodySpoolThreshold(),
+            tempDir.isEmpty() ? null : new File(tempDir));
+    }
+
+    /**
+     * Send a response bounded by the write deadline and record it in the access log
+     */
+    private void sendResponse(HttpResponse response, ShapedOutputStream output, HttpExchange exchange) throws IOException {
+        // From here on only a stalled write ends the exchange, however long the body takes
+        cancelDeadline(requestDeadline);
+        requestDeadline = null;
+        startWriteDeadline(output, config.getWriteTimeout());
+        // A HEAD response carries GET's headers but never a body, or keep-alive would go out of sync
+        boolean includeBody = !"HEAD".equalsIgnoreCase(exchange.getRequest().getMethod());
+        // Per-path limits need the normalized path; skip building it when there are none
+        output.beginResponse(bandwidthShaper.hasPathLimits() ? exchange.getRequest().getNormalizedUri() : null,
+            includeBody ? response.getBodyLength() : 0);
+
+        ResponseWrittenEvent written = new ResponseWrittenEvent();
+        written.begin();
+        try {
+            response.send(output, includeBody);
+        } finally {
+            stopWriteDeadline();
+        }
+        written.end();
+        if (written.shouldCommit()) {
+            written.connectionId = connectionId;
+            written.uri = exchange.getRequest().getUri();
+            written.status = response.getStatusCode();
+            written.bodySize = response.getBodyLength();
+            written.commit();
+        }
+
+        bulkhead.record(requestClass, response.getBodyLength(), System.currentTimeMillis() - exchange.getStartTime());
+
+        if (accessLog.isEnabled()) {
+            HttpRequest request = exchange.getRequest();
+            accessLog.log(requestAddress != null ? requestAddress : getRemoteAddress(),
+                request.getMethod(), request.getUri(), request.getVersion(),
+                response.getStatusCode(), response.getBodyLength(),
+                request.getHeader("referer"), request.getHeader("user-agent"),
+                System.currentTimeMillis() - exchange.getStartTime());
+        }
+    }
+
+    /**
+     * Answer a refused request head and close without reading any more of it
+     */
+    private void rejectHead(HttpRequest.Rejection rejection, HttpExchange exchange, ShapedOutputStream output)
+            throws IOException {
+        headerGuard.record(rejection, getClientInfo());
+        sendResponse(exchange.getResponse().setError(rejection.getStatus(), rejection.getMessage()), output, exchange);
+        // FIN right after the response, so the client sees it before any reset caused by unread bytes
+        clientSocket.shutdownOutput();
+    }
+
+    /**
+     * Schedule a deadline that closes the socket when it fires; null if disabled
+     */
+    private HashedWheelTimer.Timeout armDeadline(String name, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return null;
+        }
+        return timer.schedule(() -> expireDeadline(name), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelDeadline(HashedWheelTimer.Timeout deadline) {
+        if (deadline != null) {
+            deadline.cancel();
+        }
+    }
+
+    /**
+     * Arm the write deadline: it closes the socket only after timeoutMillis in
+     * which no bytes were accepted, so a slow download that keeps moving is not cut off
+     */
+    private void startWriteDeadline(ShapedOutputStream output, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        writing = true;
+        long startWritten = output.getBytesWritten();
+        writeDeadline = timer.schedule(() -> checkWriteProgress(output, timeoutMillis, startWritten),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the timer thread: re-arm if the response moved since the last check or is
+     * waiting on the bandwidth shaper, otherwise expire
+     */
+    private void checkWriteProgress(ShapedOutputStream output, long timeoutMillis, long lastWritten) {
+        if (!writing) {
+            return;
+        }
+        long written = output.getBytesWritten();
+        // A shaped download can park longer than the timeout when many share a bucket; that is not a stall
+        if (written == lastWritten && !output.isPacing()) {
+            expireDeadline("write");
+            return;
+        }
+        writeDeadline = timer.schedule(() -> checkWriteProgress(output, timeoutMillis, written),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+        // The worker may have finished while we re-armed; it either sees the new deadline or we see this
+        if (!writing) {
+            cancelDeadline(writeDeadline);
+        }
+    }
+
+    private void stopWriteDeadline() {
+        writing = false;
+        cancelDeadline(writeDeadline);
+        writeDeadline = null;
+    }
+
+    /**
+     * Runs on the timer thread: closing the socket unblocks the worker stuck in read/write
+     */
+    private void expireDeadline(String name) {
+        closeReason = name;
+        // A head still arriving is cut off at the input instead, so the worker can answer 408
+        if ("header".equals(name) && readingHead.compareAndSet(true, false)) {
+            try {
+                clientSocket.shutdownInput();
+                return;
+            } catch (IOException e) {
+                // Fall back to closing
+            }
         }
+        closeSocket();
+    }
+
+    /**
+     * Park the connection between keep-alive requests; false if a drain already started
+     */
+    private boolean becomeIdle() {
+        state.set(State.IDLE);
+        // Re-check after publishing IDLE so a concurrent startDrain either sees us or we see it
+        return !registry.isDraining();
+    }
+
+    /**
+     * Close the connection if it is waiting for its next request
+     */
+    boolean closeIfIdle() {
+        if (state.compareAndSet(State.IDLE, State.CLOSED)) {
+            closeReason = "drain";
+            closeSocket();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Close the connection regardless of what it is doing
+     */
+    void forceClose() {
+        state.set(State.CLOSED);
+        closeReason = "drain";
+        closeSocket();
+    }
 
-        // Send response
-        response.setKeepAlive(false); // Keep-alive disabled for simplicity
-        response.send(output);
+    State getState() {
+        return state.get();
+    }
 
-        long duration = System.currentTimeMillis() - connectionStartTime;
-        logger.debug(String.format("Request completed in %d ms", duration));
+    /**
+     * Answer 503 for a connection the thread pool had no room for
+     */
+    public void rejectOverloaded() {
+        logger.warn(String.format("Rejecting connection from %s: server overloaded", getRemoteAddress()));
+        try {
+            HttpResponse response = HttpResponse.error(503, "Server is too busy, please retry later.");
+            response.addHeader("Retry-After", "1");
+            response.send(clientSocket.getOutputStream());
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
     }
 
     /**
-     * Route request to appropriate handler
+     * Route request to appropriate handler, filling in the connection's response where possible
      */
-    private HttpResponse routeRequest(HttpRequest request) throws IOException {
+    private HttpResponse routeRequest(HttpRequest request, HttpResponse response) throws IOException {
+        if (adminHandler.isAdminRequest(request)) {
+            return adminHandler.handle(request, getRemoteAddress(), isLocalClient());
+        }
+
+        if (webSocketHub != null && webSocketHub.isEndpoint(request.getNormalizedUri())) {
+            return upgradeWebSocket(request, response);
+        }
+
+        if (eventStreamHub != null && eventStreamHub.isEndpoint(request.getNormalizedUri())) {
+            return serveEventStream(request, response);
+        }
+
+        // Balancer mode: every other request goes to a backend, whatever its method
+        if (loadBalancer != null) {
+            return loadBalancer.forward(request, response, getRemoteAddress());
+        }
+
         String method = request.getMethod();
 
         // Only support GET and HEAD methods
         if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
-            return HttpResponse.error(405, "Method Not Allowed");
+            return response.setError(405, "Method Not Allowed");
         }
 
         // Handle file serving
-        return serveStaticFile(request);
+        return serveStaticFile(request, response);
+    }
+
+    /**
+     * Validate an RFC 6455 handshake and answer 101, or explain why not
+     */
+    private HttpResponse upgradeWebSocket(HttpRequest request, HttpResponse response) {
+        String upgrade = request.getHeader("Upgrade");
+        String connection = request.getHeader("Connection");
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (!"GET".equalsIgnoreCase(request.getMethod()) || upgrade == null
+            || !"websocket".equalsIgnoreCase(upgrade.trim())) {
+            response.setError(426, "This endpoint only accepts WebSocket connections.");
+            response.addHeader("Upgrade", "websocket");
+            return response;
+        }
+        if (connection == null || !connection.toLowerCase().contains("upgrade") || !WebSocketFrame.isValidKey(key)) {
+            return response.setError(400, "Bad WebSocket handshake");
+        }
+        if (!"13".equals(request.getHeader("Sec-WebSocket-Version"))) {
+            response.setError(426, "Unsupported WebSocket version.");
+            response.addHeader("Sec-WebSocket-Version", "13");
+            return response;
+        }
+        if (!webSocketHub.tryReserve()) {
+            logger.warn(String.format("Rejecting WebSocket from %s: connection limit reached", getClientInfo()));
+            response.setError(503, "Too many WebSocket connections.");
+            response.addHeader("Retry-After", "5");
+            return response;
+        }
+
+        response.setStatus(101);
+        response.getHeaders().remove("Content-Type");
+        response.getHeaders().remove("Content-Length");
+        response.addHeader("Upgrade", "websocket");
+        response.getHeaders().set("Connection", "Upgrade");
+        response.addHeader("Sec-WebSocket-Accept", WebSocketFrame.acceptKey(key));
+        webSocketPath = request.getNormalizedUri();
+        return response;
+    }
+
+    /**
+     * Open an event stream on GET, or publish the body as an event on a local POST
+     */
+    private HttpResponse serveEventStream(HttpRequest request, HttpResponse response) throws IOException {
+        String path = request.getNormalizedUri();
+        if ("POST".equalsIgnoreCase(request.getMethod())) {
+            if (!isLocalClient()) {
+                logger.warn(String.format("Event publish from non-local address %s", getRemoteAddress()));
+                return response.setError(403, "Forbidden");
+            }
+            // Read the body directly so an oversized or malformed one is refused, not published as empty
+            RequestBody body = request.getRequestBody();
+            String data = body != null ? body.asString() : "";
+            long id = eventStreamHub.publish(path, request.getQueryParameter("event"), data);
+            response.setContentType("text/plain; charset=UTF-8");
+            return response.setBody("Published event " + id + "\n");
+        }
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            response.setError(405, "Method Not Allowed");
+            response.addHeader("Allow", "GET, POST");
+            return response;
+        }
+        if (!eventStreamHub.tryReserve()) {
+            logger.warn(String.format("Rejecting event stream from %s: connection limit reached", getClientInfo()));
+            response.setError(503, "Too many event streams.");
+            response.addHeader("Retry-After", "5");
+            return response;
+        }
+
+        // -1: a new client, which only sees events published from now on
+        lastEventId = -1;
+        String lastId = request.getHeader("Last-Event-ID");
+        if (lastId != null) {
+            try {
+                lastEventId = Math.max(0, Long.parseLong(lastId.trim()));
+            } catch (NumberFormatException e) {
+                // Not one of our ids; treat as a new client
+            }
+        }
+        lastEventId = eventStreamHub.startAfter(path, lastEventId);
+        // No Content-Length: the body is the stream and ends when the connection closes
+        response.setContentType("text/event-stream");
+        response.addHeader("Cache-Control", "no-cache");
+        eventStreamPath = path;
+        return response;
     }
 
     /**
      * Serve static files with efficient streaming I/O
      */
-    private HttpResponse serveStaticFile(HttpRequest request) throws IOException {
+    private HttpResponse serveStaticFile(HttpRequest request, HttpResponse response) throws IOException {
         String uri = request.getNormalizedUri();
+
+        // In archive mode every file comes from the mapped archive, with no filesystem calls
+        SiteArchive archive = archiveManager != null ? archiveManager.getArchive() : null;
+        if (archive != null) {
+            return serveFromArchive(request, response, archive, uri);
+        }
+
+        // A fingerprinted name serves the file it was derived from; only the current hash is immutable
+        AssetManifest.Lookup fingerprinted = assetManifest != null ? assetManifest.resolve(uri) : null;
+        String cacheControl = null;
+        if (fingerprinted != null) {
+            uri = fingerprinted.getOriginalUri();
+            cacheControl = fingerprinted.isCurrent() ? IMMUTABLE : "no-cache";
+        }
+
         Path filePath = Paths.get(config.getDocumentRoot(), uri.substring(1)); // Remove leading '/'
 
         // Security check: ensure file is within document root
@@ -103,14 +796,16 @@ public class ConnectionHandler implements Runnable {
         
         if (!absoluteFilePath.startsWith(documentRoot)) {
             logger.warn(String.format("Directory traversal attempt: %s", uri));
-            return HttpResponse.error(403, "Forbidden");
+            return response.setError(403, "Forbidden");
         }
 
         // Check if file exists
         File file = absoluteFilePath.toFile();
         if (!file.exists()) {
-            logger.debug(String.format("File not found: %s", uri));
-            return HttpResponse.error(404, "Not Found");
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("File not found: %s", uri));
+            }
+            return response.setError(404, "Not Found");
         }
 
         // Check if it's a directory
@@ -120,36 +815,191 @@ public class ConnectionHandler implements Runnable {
             if (indexFile.exists() && indexFile.isFile()) {
                 file = indexFile;
             } else {
-                return generateDirectoryListing(file, uri);
+                return serveDirectoryListing(request, file, uri, response);
             }
         }
 
         // Check if readable
         if (!file.canRead()) {
             logger.warn(String.format("Cannot read file: %s", uri));
-            return HttpResponse.error(403, "Forbidden");
+            return response.setError(403, "Forbidden");
+        }
+
+        // Pages go out with their asset references fingerprinted
+        AssetManifest.Page page = assetManifest != null ? assetManifest.page(file) : null;
+        if (page != null) {
+            return serveFingerprintedPage(request, response, page, file);
+        }
+
+        // Metadata (and small bodies) come from the file cache; in a cluster only the owner caches the body
+        String clusterKey = cacheCluster != null ? cacheCluster.keyFor(file) : null;
+        boolean ownsBody = clusterKey == null || cacheCluster.owns(clusterKey);
+        FileCache.Entry entry = fileCache.get(file, ownsBody);
+
+        // Conditional request: the client already has this version
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(entry.getEtag())) {
+            response.setStatus(304);
+            response.addHeader("ETag", entry.getEtag());
+            if (cacheControl != null) {
+                response.addHeader("Cache-Control", cacheControl);
+            }
+            return response;
+        }
+
+        // Large transfers wait for a bulk permit so they cannot take every worker
+        if (!admitBulk(uri, entry.getSize())) {
+            return rejectBulk(response, uri);
+        }
+
+        // Ask the owning peer before going to disk; hot keys are kept locally as well.
+        // Only heap-sized bodies: anything larger streams from disk rather than through a byte[] copy
+        byte[] peerBody = null;
+        if (!ownsBody && !entry.hasBody() && !entry.hasOffHeapBody() && fileCache.isHeapCacheable(entry.getSize())) {
+            peerBody = cacheCluster.fetch(clusterKey, entry.getSize(), entry.getLastModified());
+            if (peerBody != null && cacheCluster.recordFetch(clusterKey)) {
+                entry = fileCache.put(entry.getPath(), entry.getSize(), entry.getLastModified(), peerBody);
+            }
+        }
+
+        // Fill in the response
+        response.setStatus(200);
+        response.setContentType(entry.getMimeType());
+        ByteBuffer offHeapBody = entry.hasOffHeapBody() ? entry.getOffHeapBody().pin() : null;
+        if (entry.hasBody()) {
+            response.setBody(entry.getBody());
+        } else if (peerBody != null) {
+            response.setBody(peerBody);
+        } else if (offHeapBody != null) {
+            pinnedBody = entry.getOffHeapBody();
+            response.setBody(offHeapBody);
+        } else {
+            // Stream file content through the pooled write buffer at send time
+            response.setBodyFile(file.toPath(), entry.getSize());
+        }
+        response.addHeader("Last-Modified", entry.getLastModifiedHeader());
+        response.addHeader("ETag", entry.getEtag());
+        if (cacheControl != null) {
+            response.addHeader("Cache-Control", cacheControl);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Serving file: %s (%d bytes, %s)", uri, entry.getSize(),
+                entry.hasBody() ? "cached" : peerBody != null ? "peer" : offHeapBody != null ? "off-heap" : "streamed"));
+        }
+
+        return response;
+    }
+
+    /**
+     * Serve an HTML page rewritten to fingerprinted asset URLs; revalidated on every use
+     * because its references change whenever an asset does
+     */
+    private HttpResponse serveFingerprintedPage(HttpRequest request, HttpResponse response,
+                                                AssetManifest.Page page, File file) {
+        response.addHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(page.getEtag())) {
+            response.setStatus(304);
+            response.addHeader("ETag", page.getEtag());
+            return response;
         }
 
-        // Read file content efficiently
-        byte[] fileContent = Files.readAllBytes(file.toPath());
-        
-        // Create response
-        HttpResponse response = new HttpResponse();
         response.setStatus(200);
         response.setContentType(HttpResponse.getMimeType(file.getName()));
-        response.setBody(fileContent);
-        response.addHeader("Last-Modified", new java.util.Date(file.lastModified()).toString());
-        response.addHeader("Content-Length", String.valueOf(fileContent.length));
+        response.setBody(page.getBody());
+        response.addHeader("ETag", page.getEtag());
+        return response;
+    }
+
+    /**
+     * Serve a file from the site archive, preferring the precompressed variant when the client accepts gzip
+     */
+    private HttpResponse serveFromArchive(HttpRequest request, HttpResponse response, SiteArchive archive,
+                                          String uri) {
+        SiteArchive.Entry entry = archive.get(uri);
+        if (entry == null && !uri.endsWith("/index.html")) {
+            entry = archive.get(uri + "/index.html"); // Directory requested without a trailing slash
+        }
+        if (entry == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("Not in archive: %s", uri));
+            }
+            return response.setError(404, "Not Found");
+        }
 
-        logger.debug(String.format("Serving file: %s (%d bytes)", uri, fileContent.length));
+        String acceptEncoding = request.getHeader("accept-encoding");
+        boolean gzip = entry.hasGzip() && acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = gzip ? entry.getGzipEtag() : entry.getEtag();
+        if (entry.hasGzip()) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
 
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            response.setStatus(304);
+            response.addHeader("ETag", etag);
+            return response;
+        }
+
+        long size = gzip ? entry.getGzipSize() : entry.getSize();
+        if (!admitBulk(uri, size)) {
+            return rejectBulk(response.reset(), uri);
+        }
+
+        response.setStatus(200);
+        response.setContentType(entry.getContentType());
+        if (gzip) {
+            response.addHeader("Content-Encoding", "gzip");
+        }
+        response.setBody(gzip ? entry.gzipBody() : entry.body());
+        response.addHeader("Last-Modified", entry.getLastModifiedHeader());
+        response.addHeader("ETag", etag);
         return response;
     }
 
     /**
-     * Generate directory listing
+     * Classify the request and, if it is bulk, wait for a permit; false if it must be rejected
      */
-    private HttpResponse generateDirectoryListing(File directory, String uri) {
+    private boolean admitBulk(String uri, long size) {
+        requestClass = bulkhead.classify(uri, size);
+        return requestClass != Bulkhead.RequestClass.BULK || acquireBulkPermit();
+    }
+
+    private HttpResponse rejectBulk(HttpResponse response, String uri) {
+        logger.warn(String.format("Bulk transfer rejected, bulkhead full: %s", uri));
+        return response.setError(503, "Server is busy with large downloads, please retry later.")
+            .addHeader("Retry-After", "5");
+    }
+
+    /**
+     * Wait for a bulk permit; false if the bulk line is full or the wait timed out
+     */
+    private boolean acquireBulkPermit() {
+        try {
+            holdsBulkPermit = bulkhead.acquireBulk();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return holdsBulkPermit;
+    }
+
+    /**
+     * Directory listing, from the micro-cache when it is enabled
+     */
+    private HttpResponse serveDirectoryListing(HttpRequest request, File directory, String uri,
+                                               HttpResponse response) {
+        if (microCache == null) {
+            return response.setBody(generateDirectoryListing(directory, uri));
+        }
+        return microCache.get(microCache.keyFor(request),
+            () -> MicroCache.Snapshot.html(generateDirectoryListing(directory, uri))).applyTo(response);
+    }
+
+    /**
+     * Generate directory listing HTML
+     */
+    private String generateDirectoryListing(File directory, String uri) {
         StringBuilder html = new StringBuilder();
         html.append("<!DOCTYPE html>\n");
         html.append("<html>\n");
@@ -202,8 +1052,7 @@ public class ConnectionHandler implements Runnable {
         html.append("<p><em>Java-WebServer/1.0</em></p>\n");
         html.append("</body>\n");
         html.append("</html>");
-
-        return HttpResponse.ok(html.toString());
+        return html.toString();
     }
 
     /**
@@ -230,14 +1079,42 @@ public class ConnectionHandler implements Runnable {
     /**
      * Close connection and cleanup resources
      */
-    private void closeConnection(String clientInfo) {
+    private void closeConnection() {
+        state.set(State.CLOSED);
+        registry.unregister(this);
+        if (!unixSocket && !handedOff) {
+            rateLimiter.closeConnection(getRemoteAddress());
+        }
+        if (webSocketPath != null && !handedOff) {
+            // Slot reserved by the handshake, but the socket never reached the hub
+            webSocketHub.release();
+        } else if (eventStreamPath != null && !handedOff) {
+            eventStreamHub.release();
+        }
+
+        ConnectionClosedEvent closed = new ConnectionClosedEvent();
+        if (closed.isEnabled()) {
+            closed.connectionId = connectionId;
+            closed.remoteAddress = getRemoteAddress();
+            closed.requests = requestsServed;
+            closed.openMillis = System.currentTimeMillis() - connectionStartTime;
+            closed.reason = closeReason != null ? closeReason : "";
+            closed.commit();
+        }
+        if (handedOff) {
+            // The hub's event loop owns the socket, and its rate-limit slot, now
+            return;
+        }
         try {
             if (clientSocket != null && !clientSocket.isClosed()) {
                 clientSocket.close();
-                logger.debug(String.format("Connection closed: %s", clientInfo));
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("Connection closed: %s (open %d ms)", getClientInfo(),
+                        System.currentTimeMillis() - connectionStartTime));
+                }
             }
         } catch (IOException e) {
-            logger.error(String.format("Error closing connection %s: %s", clientInfo, e.getMessage()));
+            logger.error(String.format("Error closing connection %s: %s", getClientInfo(), e.getMessage()));
         }
     }
 }
@@ -0,0 +1,82 @@
+package com.webserver.handler;
+
+import com.webserver.util.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks live connections so shutdown can drain them instead of cutting them off.
+ * Once draining starts, idle keep-alive connections are closed right away and
+ * busy ones finish their current response with "Connection: close".
+ */
+public class ConnectionRegistry {
+    private final Set<ConnectionHandler> connections = ConcurrentHashMap.newKeySet();
+    private final Logger logger;
+    private volatile boolean draining;
+
+    public ConnectionRegistry() {
+        this.logger = Logger.getInstance();
+    }
+
+    void register(ConnectionHandler handler) {
+        connections.add(handler);
+    }
+
+    void unregister(ConnectionHandler handler) {
+        connections.remove(handler);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Enter drain mode and close every connection that is waiting for its next request
+     */
+    public void startDrain() {
+        draining = true;
+        int closed = closeIdle();
+        logger.info(String.format("Drain started: closed %d idle connections, %d still in flight",
+            closed, connections.size()));
+    }
+
+    /**
+     * Close idle connections; busy ones check the drain flag after their current response
+     */
+    public int closeIdle() {
+        int closed = 0;
+        for (ConnectionHandler handler : connections) {
+            if (handler.closeIfIdle()) {
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Force-close everything still open, used when the drain timeout expires
+     */
+    public void closeAll() {
+        for (ConnectionHandler handler : connections) {
+            handler.forceClose();
+        }
+    }
+
+    public int getOpenCount() {
+        return connections.size();
+    }
+
+    /**
+     * Count connections currently reading, processing or writing a request
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (ConnectionHandler handler : connections) {
+            if (handler.getState() != ConnectionHandler.State.IDLE) {
+                active++;
+            }
+        }
+        return active;
+    }
+}
@@ -0,0 +1,89 @@
+package com.webserver.handler;
+
+import com.webserver.archive.ArchiveManager;
+import com.webserver.balancer.LoadBalancer;
+import com.webserver.cache.AssetManifest;
+import com.webserver.cache.FileCache;
+import com.webserver.cache.MicroCache;
+import com.webserver.cluster.CacheCluster;
+import com.webserver.core.BandwidthShaper;
+import com.webserver.core.Bulkhead;
+import com.webserver.core.HashedWheelTimer;
+import com.webserver.core.RateLimiter;
+import com.webserver.core.ServerConfig;
+import com.webserver.sse.EventStreamHub;
+import com.webserver.websocket.WebSocketHub;
+
+/**
+ * Shared server components handed to every connection handler
+ */
+public class HandlerContext {
+    private final ServerConfig config;
+    private final RateLimiter rateLimiter;
+    private final HashedWheelTimer timer;
+    private final AdminHandler adminHandler;
+    private final ConnectionRegistry connectionRegistry;
+    private final FileCache fileCache;
+    private final SlowRequestWatchdog watchdog;
+    private final Bulkhead bulkhead;
+    private final BandwidthShaper bandwidthShaper;
+    private final ArchiveManager archiveManager;
+    private final CacheCluster cacheCluster;
+    private final LoadBalancer loadBalancer;
+    private final WebSocketHub webSocketHub;
+    private final EventStreamHub eventStreamHub;
+    private final MicroCache microCache;
+    private final HeaderGuard headerGuard;
+    private final AssetManifest assetManifest;
+
+    public HandlerContext(ServerConfig config, RateLimiter rateLimiter, HashedWheelTimer timer,
+                          AdminHandler adminHandler, ConnectionRegistry connectionRegistry,
+                          FileCache fileCache, SlowRequestWatchdog watchdog, Bulkhead bulkhead,
+                          BandwidthShaper bandwidthShaper, ArchiveManager archiveManager,
+                          CacheCluster cacheCluster, LoadBalancer loadBalancer,
+                          WebSocketHub webSocketHub, EventStreamHub eventStreamHub, MicroCache microCache,
+                          HeaderGuard headerGuard, AssetManifest assetManifest) {
+        this.config = config;
+        this.rateLimiter = rateLimiter;
+        this.timer = timer;
+        this.adminHandler = adminHandler;
+        this.connectionRegistry = connectionRegistry;
+        this.fileCache = fileCache;
+        this.watchdog = watchdog;
+        this.bulkhead = bulkhead;
+        this.bandwidthShaper = bandwidthShaper;
+        this.archiveManager = archiveManager;
+        this.cacheCluster = cacheCluster;
+        this.loadBalancer = loadBalancer;
+        this.webSocketHub = webSocketHub;
+        this.eventStreamHub = eventStreamHub;
+        this.microCache = microCache;
+        this.headerGuard = headerGuard;
+        this.assetManifest = assetManifest;
+    }
+
+    public ServerConfig getConfig() { return config; }
+    public RateLimiter getRateLimiter() { return rateLimiter; }
+    public HashedWheelTimer getTimer() { return timer; }
+    public AdminHandler getAdminHandler() { return adminHandler; }
+    public ConnectionRegistry getConnectionRegistry() { return connectionRegistry; }
+    public FileCache getFileCache() { return fileCache; }
+    public SlowRequestWatchdog getWatchdog() { return watchdog; }
+    public Bulkhead getBulkhead() { return bulkhead; }
+    public BandwidthShaper getBandwidthShaper() { return bandwidthShaper; }
+    /** Null unless serving from a site archive */
+    public ArchiveManager getArchiveManager() { return archiveManager; }
+    /** Null unless cluster mode is enabled */
+    public CacheCluster getCacheCluster() { return cacheCluster; }
+    /** Null unless balancer mode is enabled */
+    public LoadBalancer getLoadBalancer() { return loadBalancer; }
+    /** Null unless WebSockets are enabled */
+    public WebSocketHub getWebSocketHub() { return webSocketHub; }
+    /** Null unless Server-Sent Events are enabled */
+    public EventStreamHub getEventStreamHub() { return eventStreamHub; }
+    /** Null unless the micro-cache is enabled */
+    public MicroCache getMicroCache() { return microCache; }
+    public HeaderGuard getHeaderGuard() { return headerGuard; }
+    /** Null unless asset fingerprinting is enabled for a filesystem document root */
+    public AssetManifest getAssetManifest() { return assetManifest; }
+}
@@ -0,0 +1,56 @@
+package com.webserver.handler;
+
+import com.webserver.core.ServerConfig;
+import com.webserver.http.HttpRequest;
+import com.webserver.util.Logger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits on request heads and counts of the requests refused for breaking them.
+ * The parser enforces the line length, header count and header byte limits as
+ * bytes arrive, so an oversized head is refused before it is buffered; the
+ * header deadline bounds how long a worker waits for a slow one. Limits are
+ * read from the config for each connection and follow a reload.
+ */
+public class HeaderGuard {
+    private static final HttpRequest.Rejection[] REJECTIONS = HttpRequest.Rejection.values();
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final AtomicLongArray rejected = new AtomicLongArray(REJECTIONS.length);
+
+    public HeaderGuard(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+    }
+
+    /**
+     * Head limits from the current (possibly reloaded) config
+     */
+    public HttpRequest.HeadLimits limits() {
+        return new HttpRequest.HeadLimits(config.getMaxRequestLineLength(), config.getMaxHeaderCount(),
+            config.getMaxHeaderBytes());
+    }
+
+    public void record(HttpRequest.Rejection rejection, String clientInfo) {
+        rejected.incrementAndGet(rejection.ordinal());
+        logger.warn(String.format("Rejected request head from %s: %s (%d)", clientInfo, rejection,
+            rejection.getStatus()));
+    }
+
+    /**
+     * Limits and rejection counts for /_admin/limits
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Request head limits: requestLine=%d bytes, headers=%d, headerBytes=%d, "
+                + "headerTimeout=%dms%n", config.getMaxRequestLineLength(), config.getMaxHeaderCount(),
+            config.getMaxHeaderBytes(), config.getHeaderTimeout()));
+        sb.append("Rejected:");
+        for (HttpRequest.Rejection rejection : REJECTIONS) {
+            sb.append(String.format(" %s(%d)=%d", rejection, rejection.getStatus(), rejected.get(rejection.ordinal())));
+        }
+        return sb.append(String.format("%n")).toString();
+    }
+}
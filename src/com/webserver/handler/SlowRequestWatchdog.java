@@ -0,0 +1,253 @@
+package com.webserver.handler;
+
+import com.webserver.core.HashedWheelTimer;
+import com.webserver.core.ServerConfig;
+import com.webserver.util.Logger;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches for requests that run longer than a threshold.
+ * Each connection owns a Trace that is armed when a request starts and disarmed
+ * when its response is written. If the timer fires first, the worker thread's
+ * stack is captured along with the request line and current phase, and sampled
+ * again every threshold interval so a report shows where the time went. Recent
+ * reports are kept in a bounded ring for /_admin/slow. Stacks are captured on the
+ * watchdog's own thread: the shared timer also fires every connection deadline.
+ */
+public class SlowRequestWatchdog {
+    private static final int MAX_STACK_DEPTH = 40;
+
+    private final ServerConfig config;
+    private final HashedWheelTimer timer;
+    private final Logger logger;
+    private final ArrayDeque<Report> reports = new ArrayDeque<>();
+    private final AtomicLong slowCount = new AtomicLong(0);
+    private final ThreadPoolExecutor sampler;
+
+    public SlowRequestWatchdog(ServerConfig config, HashedWheelTimer timer) {
+        this.config = config;
+        this.timer = timer;
+        this.logger = Logger.getInstance();
+        // One sampler with a short queue; when requests stall en masse, excess samples are skipped
+        this.sampler = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(64),
+            r -> {
+                Thread thread = new Thread(r, "SlowRequest-Sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    public void stop() {
+        sampler.shutdownNow();
+    }
+
+    /**
+     * Create the per-connection trace; the calling worker thread is the one sampled
+     */
+    public Trace newTrace(String clientInfo) {
+        return new Trace(clientInfo);
+    }
+
+    /**
+     * Total slow requests seen since startup
+     */
+    public long getSlowCount() {
+        return slowCount.get();
+    }
+
+    /**
+     * Recent reports, newest first, with their stack samples
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Slow requests: %d total, threshold %d ms%n",
+            slowCount.get(), config.getWatchdogThreshold()));
+        synchronized (reports) {
+            Iterator<Report> it = reports.descendingIterator();
+            while (it.hasNext()) {
+                sb.append('\n');
+                it.next().appendTo(sb);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void record(Report report) {
+        slowCount.incrementAndGet();
+        synchronized (reports) {
+            reports.addLast(report);
+            while (reports.size() > Math.max(1, config.getWatchdogMaxReports())) {
+                reports.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Request timing for one connection. begin/phase/end are called by the worker;
+     * sample runs on the sampler thread.
+     */
+    public class Trace {
+        private final String clientInfo;
+        private volatile Thread worker;
+        private volatile long sequence;
+        private volatile long startNanos;
+        private volatile String method;
+        private volatile String uri;
+        private volatile String phase;
+        private HashedWheelTimer.Timeout timeout;
+
+        // Owned by the sampler thread
+        private Report report;
+
+        private Trace(String clientInfo) {
+            this.clientInfo = clientInfo;
+        }
+
+        /**
+         * A request has started arriving on the calling thread
+         */
+        public void begin() {
+            if (!config.isWatchdogEnabled()) {
+                return;
+            }
+            worker = Thread.currentThread();
+            method = null;
+            uri = null;
+            phase = "read";
+            startNanos = System.nanoTime();
+            long seq = ++sequence;
+            timeout = timer.schedule(() -> submitSample(seq, 1), config.getWatchdogThreshold(),
+                TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Record the request once it has been parsed
+         */
+        public void setRequest(String method, String uri) {
+            this.method = method;
+            this.uri = uri;
+        }
+
+        /**
+         * Record what the worker is doing now, e.g. "handle" or "write"
+         */
+        public void phase(String phase) {
+            this.phase = phase;
+        }
+
+        /**
+         * The request finished; any pending sample is cancelled
+         */
+        public void end() {
+            sequence++;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        /**
+         * Runs on the timer thread, which must not block on getStackTrace
+         */
+        private void submitSample(long seq, int sampleNumber) {
+            try {
+                sampler.execute(() -> sample(seq, sampleNumber));
+            } catch (RejectedExecutionException e) {
+                // Sampler backlogged or stopped; this sample is skipped
+            }
+        }
+
+        private void sample(long seq, int sampleNumber) {
+            Thread thread = worker;
+            if (sequence != seq || thread == null) {
+                return; // Request already finished
+            }
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            String currentPhase = phase;
+            String requestLine = uri != null ? method + " " + uri : null;
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (sequence != seq) {
+                return; // Finished while we were sampling; the stack is not this request's
+            }
+
+            if (sampleNumber == 1) {
+                report = new Report(System.currentTimeMillis(), thread.getName(), clientInfo);
+                record(report);
+                logger.warn(String.format("Slow request on %s from %s: %s (%d ms, phase %s) at %s",
+                    thread.getName(), clientInfo, requestLine != null ? requestLine : "-",
+                    elapsedMillis, currentPhase, stack.length > 0 ? stack[0] : "?"));
+            }
+            report.addSample(requestLine, elapsedMillis, currentPhase, stack);
+
+            if (sampleNumber < config.getWatchdogMaxSamples()) {
+                // Follow-up samples are not cancelled by end(); they see the new sequence and stop
+                timer.schedule(() -> submitSample(seq, sampleNumber + 1),
+                    config.getWatchdogThreshold(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Everything captured about one slow request
+     */
+    private static final class Report {
+        private final long time;
+        private final String threadName;
+        private final String clientInfo;
+        private final List<Sample> samples = new ArrayList<>();
+        private String requestLine;
+
+        Report(long time, String threadName, String clientInfo) {
+            this.time = time;
+            this.threadName = threadName;
+            this.clientInfo = clientInfo;
+        }
+
+        synchronized void addSample(String requestLine, long elapsedMillis, String phase, StackTraceElement[] stack) {
+            if (requestLine != null) {
+                this.requestLine = requestLine;
+            }
+            samples.add(new Sample(elapsedMillis, phase, stack));
+        }
+
+        synchronized void appendTo(StringBuilder sb) {
+            String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time));
+            sb.append(String.format("[%s] %s on %s from %s%n", timestamp,
+                requestLine != null ? requestLine : "-", threadName, clientInfo));
+            for (Sample sample : samples) {
+                sb.append(String.format("  after %d ms (phase %s):%n", sample.elapsedMillis, sample.phase));
+                int depth = Math.min(sample.stack.length, MAX_STACK_DEPTH);
+                for (int i = 0; i < depth; i++) {
+                    sb.append("    at ").append(sample.stack[i]).append('\n');
+                }
+                if (sample.stack.length > depth) {
+                    sb.append("    ... ").append(sample.stack.length - depth).append(" more\n");
+                }
+            }
+        }
+    }
+
+    private static final class Sample {
+        final long elapsedMillis;
+        final String phase;
+        final StackTraceElement[] stack;
+
+        Sample(long elapsedMillis, String phase, StackTraceElement[] stack) {
+            this.elapsedMillis = elapsedMillis;
+            this.phase = phase;
+            this.stack = stack;
+        }
+    }
+}
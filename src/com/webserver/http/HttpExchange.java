@@ -0,0 +1,38 @@
+package com.webserver.http;
+
+import java.io.IOException;
+
+/**
+ * One request/response pair, reused for every request on a connection.
+ * The connection owns a single exchange and resets it between keep-alive
+ * requests, so the request object, header tables and response builder are
+ * allocated once per connection rather than once per request.
+ */
+public class HttpExchange {
+    private final HttpRequest request = new HttpRequest();
+    private final HttpResponse response = new HttpResponse();
+    private long startTime;
+
+    /**
+     * Reset both halves and parse the next request from the connection
+     */
+    public HttpRequest begin(HttpInput input, HttpRequest.HeadLimits headLimits, RequestBody.Limits limits)
+            throws IOException {
+        startTime = System.currentTimeMillis();
+        response.reset();
+        request.read(input, headLimits, limits);
+        return request;
+    }
+
+    /**
+     * Release per-request resources such as a spooled upload or an unsent body stream
+     */
+    public void end() {
+        request.reset();
+        response.releaseBody();
+    }
+
+    public HttpRequest getRequest() { return request; }
+    public HttpResponse getResponse() { return response; }
+    public long getStartTime() { return startTime; }
+}
@@ -0,0 +1,112 @@
+package com.webserver.http;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Header table stored as parallel name/value arrays.
+ * Requests carry a handful of headers, so a linear case-insensitive scan beats
+ * hashing, and clear() keeps the arrays for the next request on the connection.
+ */
+public class HttpHeaders {
+    private String[] names;
+    private String[] values;
+    private int size;
+
+    public HttpHeaders() {
+        this(16);
+    }
+
+    public HttpHeaders(int initialCapacity) {
+        this.names = new String[initialCapacity];
+        this.values = new String[initialCapacity];
+    }
+
+    /**
+     * Value of the first header with this name (case-insensitive), or null
+     */
+    public String get(String name) {
+        int i = indexOf(name);
+        return i >= 0 ? values[i] : null;
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Append a header, keeping any existing ones with the same name
+     */
+    public void add(String name, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Replace the first header with this name, or append it
+     */
+    public void set(String name, String value) {
+        int i = indexOf(name);
+        if (i >= 0) {
+            values[i] = value;
+        } else {
+            add(name, value);
+        }
+    }
+
+    /**
+     * Remove every header with this name
+     */
+    public void remove(String name) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!names[i].equalsIgnoreCase(name)) {
+                names[kept] = names[i];
+                values[kept] = values[i];
+                kept++;
+            }
+        }
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+    }
+
+    /**
+     * Drop all headers but keep the arrays for reuse
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    public int size() { return size; }
+    public String nameAt(int index) { return names[index]; }
+    public String valueAt(int index) { return values[index]; }
+
+    /**
+     * Copy into a map keyed by lower-case name; allocates, so keep it off the request path
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(names[i].toLowerCase(), values[i]);
+        }
+        return map;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,182 @@
+package com.webserver.http;
+
+import com.webserver.util.BufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered byte input for one connection, backed by a pooled buffer.
+ * Reads header lines as ISO-8859-1 and body bytes unchanged, and keeps unread
+ * bytes between keep-alive requests. Must be closed to return the buffer.
+ */
+public class HttpInput extends InputStream {
+    private final InputStream in;
+    private ByteBuffer buffer;
+    private byte[] array;
+    private int pos;
+    private int limit;
+
+    public HttpInput(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = BufferPool.getInstance().acquire(bufferSize);
+        this.array = buffer.array();
+    }
+
+    /**
+     * Block until at least one byte is buffered; false on end of stream
+     */
+    public boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        pos = 0;
+        limit = 0;
+        int n = in.read(array, 0, array.length);
+        if (n <= 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Thrown by readLine(int) when a line runs past the caller's limit
+     */
+    public static class LineTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LineTooLongException(int limit) {
+            super("Line exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Read a line terminated by LF (CRLF stripped); null if the stream ends first
+     */
+    public String readLine() throws IOException {
+        return readLine(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read a line of at most maxLength bytes, not counting CRLF. Fails as soon
+     * as the limit is passed rather than buffering the rest of the line.
+     */
+    public String readLine(int maxLength) throws IOException {
+        StringBuilder overflow = null;
+        while (true) {
+            if (!fill()) {
+                return overflow != null ? overflow.toString() : null;
+            }
+
+            for (int i = pos; i < limit; i++) {
+                if (array[i] == '\n') {
+                    int end = (i > pos && array[i - 1] == '\r') ? i - 1 : i;
+                    String line;
+                    if (overflow == null) {
+                        if (end - pos > maxLength) {
+                            throw new LineTooLongException(maxLength);
+                        }
+                        line = new String(array, pos, end - pos, StandardCharsets.ISO_8859_1);
+                    } else {
+                        appendLatin1(overflow, pos, end);
+                        line = stripCr(overflow);
+                        if (line.length() > maxLength) {
+                            throw new LineTooLongException(maxLength);
+                        }
+                    }
+                    pos = i + 1;
+                    return line;
+                }
+            }
+
+            // Line continues past the buffered bytes; one extra byte may be the CR
+            int buffered = (overflow != null ? overflow.length() : 0) + (limit - pos);
+            if (buffered > maxLength + 1L) {
+                throw new LineTooLongException(maxLength);
+            }
+            if (overflow == null) {
+                overflow = new StringBuilder(256);
+            }
+            appendLatin1(overflow, pos, limit);
+            pos = limit;
+        }
+    }
+
+    private void appendLatin1(StringBuilder sb, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sb.append((char) (array[i] & 0xFF));
+        }
+    }
+
+    private static String stripCr(StringBuilder sb) {
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') {
+            sb.setLength(len - 1);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return array[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos < limit) {
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(array, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        // Nothing buffered: read large requests straight into the caller's array
+        if (len >= array.length) {
+            return in.read(b, off, len);
+        }
+        if (!fill()) {
+            return -1;
+        }
+        return read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - pos) + in.available();
+    }
+
+    /**
+     * Take whatever is buffered but not yet read, e.g. bytes that followed a protocol upgrade
+     */
+    public byte[] drainBuffered() {
+        if (pos >= limit) {
+            return new byte[0];
+        }
+        byte[] rest = Arrays.copyOfRange(array, pos, limit);
+        pos = limit;
+        return rest;
+    }
+
+    /**
+     * Return the buffer to the pool; does not close the underlying stream
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            BufferPool.getInstance().release(buffer);
+            buffer = null;
+            array = null;
+            pos = 0;
+            limit = 0;
+        }
+    }
+}
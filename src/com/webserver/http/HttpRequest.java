@@ -1,10 +1,7 @@
 package com.webserver.http;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
 import java.util.Map;
 
 // Parse HTTP requests
@@ -12,67 +9,221 @@ public class HttpRequest {
     private String method;
     private String uri;
     private String version;
-    private Map<String, String> headers;
-    private String body;
+    private final HttpHeaders headers;
+    private RequestBody requestBody;
     private boolean valid;
 
+    /**
+     * Bounds on the request line and header block, checked while they are read
+     */
+    public static class HeadLimits {
+        public static final HeadLimits DEFAULT = new HeadLimits(8192, 100, 32 * 1024);
+
+        final int maxRequestLineLength;
+        final int maxHeaderCount;
+        final int maxHeaderBytes;
+
+        public HeadLimits(int maxRequestLineLength, int maxHeaderCount, int maxHeaderBytes) {
+            this.maxRequestLineLength = maxRequestLineLength;
+            this.maxHeaderCount = maxHeaderCount;
+            this.maxHeaderBytes = maxHeaderBytes;
+        }
+    }
+
+    /**
+     * Why a request head was refused, with the status it is answered with
+     */
+    public enum Rejection {
+        REQUEST_LINE_TOO_LONG(414, "Request line is too long."),
+        TOO_MANY_HEADERS(431, "Too many header fields."),
+        HEADERS_TOO_LARGE(431, "Header fields are too large."),
+        MALFORMED_HEADER(400, "Malformed header field."),
+        HEADER_TIMEOUT(408, "Request headers were not received in time.");
+
+        private final int status;
+        private final String message;
+
+        Rejection(int status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+
+        public int getStatus() { return status; }
+        public String getMessage() { return message; }
+    }
+
+    /**
+     * Thrown when the request head breaks one of the HeadLimits or is malformed
+     */
+    public static class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final Rejection rejection;
+
+        public RejectedException(Rejection rejection) {
+            super(rejection.getMessage());
+            this.rejection = rejection;
+        }
+
+        public Rejection getRejection() { return rejection; }
+    }
+
     public HttpRequest() {
-        this.headers = new HashMap<>();
+        this.headers = new HttpHeaders();
         this.valid = false;
     }
 
-    // Parse the HTTP request
+    // Parse the HTTP request, reading any body into memory or a temp file
     public static HttpRequest parse(InputStream inputStream) throws IOException {
+        try (HttpInput input = new HttpInput(inputStream, 8192)) {
+            HttpRequest request = parse(input, HeadLimits.DEFAULT, RequestBody.Limits.DEFAULT);
+            if (request.requestBody != null) {
+                request.requestBody.spool();
+            }
+            return request;
+        }
+    }
+
+    // Parse the next HTTP request from an input that persists across keep-alive requests
+    public static HttpRequest parse(HttpInput reader, HeadLimits headLimits, RequestBody.Limits limits)
+            throws IOException {
         HttpRequest request = new HttpRequest();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        request.read(reader, headLimits, limits);
+        return request;
+    }
+
+    /**
+     * Clear this request and parse the next one into it, reusing the header table.
+     * Throws RejectedException as soon as the head passes one of headLimits.
+     */
+    public void read(HttpInput reader, HeadLimits headLimits, RequestBody.Limits limits) throws IOException {
+        reset();
 
         // Parse request line
-        String requestLine = reader.readLine();
+        String requestLine;
+        try {
+            requestLine = reader.readLine(headLimits.maxRequestLineLength);
+        } catch (HttpInput.LineTooLongException e) {
+            throw new RejectedException(Rejection.REQUEST_LINE_TOO_LONG);
+        }
         if (requestLine == null || requestLine.isEmpty()) {
-            return request; // Invalid request
+            return; // Invalid request
         }
 
-        String[] parts = requestLine.split(" ");
-        if (parts.length != 3) {
-            return request; // Invalid request line
+        int firstSpace = requestLine.indexOf(' ');
+        int secondSpace = firstSpace > 0 ? requestLine.indexOf(' ', firstSpace + 1) : -1;
+        if (secondSpace < 0 || requestLine.indexOf(' ', secondSpace + 1) >= 0) {
+            return; // Invalid request line
         }
 
-        request.method = parts[0];
-        request.uri = parts[1];
-        request.version = parts[2];
+        method = knownMethod(requestLine, firstSpace);
+        uri = requestLine.substring(firstSpace + 1, secondSpace);
+        version = requestLine.startsWith("HTTP/1.1", secondSpace + 1) && requestLine.length() == secondSpace + 9
+            ? "HTTP/1.1"
+            : requestLine.substring(secondSpace + 1);
 
-        // Parse headers
+        // Parse headers; a repeated header replaces the earlier value, except for framing headers
+        int headerCount = 0;
+        int headerBytes = 0;
         String line;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+        while (true) {
+            try {
+                line = reader.readLine(headLimits.maxHeaderBytes - headerBytes);
+            } catch (HttpInput.LineTooLongException e) {
+                throw new RejectedException(Rejection.HEADERS_TOO_LARGE);
+            }
+            if (line == null || line.isEmpty()) {
+                break;
+            }
+            headerBytes += line.length() + 2;
+            if (++headerCount > headLimits.maxHeaderCount) {
+                throw new RejectedException(Rejection.TOO_MANY_HEADERS);
+            }
+            // A line without a name, an obsolete folded continuation, or whitespace before the
+            // colon cannot be framed safely: another hop may read the name differently
             int colonIndex = line.indexOf(':');
-            if (colonIndex > 0) {
-                String headerName = line.substring(0, colonIndex).trim();
-                String headerValue = line.substring(colonIndex + 1).trim();
-                request.headers.put(headerName.toLowerCase(), headerValue);
+            if (colonIndex <= 0 || isWhitespace(line.charAt(0)) || isWhitespace(line.charAt(colonIndex - 1))) {
+                throw new RejectedException(Rejection.MALFORMED_HEADER);
+            }
+            String headerName = line.substring(0, colonIndex);
+            String headerValue = line.substring(colonIndex + 1).trim();
+            if (isFramingHeader(headerName)) {
+                String previous = headers.get(headerName);
+                if (previous != null && !previous.equals(headerValue)) {
+                    throw new RejectedException(Rejection.MALFORMED_HEADER);
+                }
             }
+            headers.set(headerName, headerValue);
         }
 
-        // Parse body if present (for POST requests)
-        if ("POST".equalsIgnoreCase(request.method) || "PUT".equalsIgnoreCase(request.method)) {
-            String contentLengthStr = request.headers.get("content-length");
-            if (contentLengthStr != null) {
-                try {
-                    int contentLength = Integer.parseInt(contentLengthStr);
-                    if (contentLength > 0 && contentLength < 1024 * 1024) { // Limit to 1MB
-                        char[] bodyChars = new char[contentLength];
-                        int read = reader.read(bodyChars, 0, contentLength);
-                        if (read > 0) {
-                            request.body = new String(bodyChars, 0, read);
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    // Invalid content length
-                }
+        // Attach the body; it is read from the connection only when a handler asks for it
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLengthStr = headers.get("content-length");
+        boolean expectContinue = "100-continue".equalsIgnoreCase(headers.get("expect"));
+        if (transferEncoding != null) {
+            if (contentLengthStr != null || !"chunked".equalsIgnoreCase(transferEncoding)) {
+                return; // Ambiguous framing or unsupported coding
+            }
+            requestBody = new RequestBody(reader, -1, expectContinue, limits);
+        } else if (contentLengthStr != null) {
+            long contentLength;
+            if (contentLengthStr.isEmpty() || !contentLengthStr.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                return; // Signs and blanks are not digits
+            }
+            try {
+                contentLength = Long.parseLong(contentLengthStr);
+            } catch (NumberFormatException e) {
+                return; // Invalid content length
+            }
+            if (contentLength < 0) {
+                return;
+            }
+            if (contentLength > 0) {
+                requestBody = new RequestBody(reader, contentLength, expectContinue, limits);
             }
         }
 
-        request.valid = true;
-        return request;
+        valid = true;
+    }
+
+    /**
+     * Forget the previous request so this object can hold the next one.
+     * Closes the previous body, deleting any spooled upload.
+     */
+    public void reset() {
+        if (requestBody != null) {
+            requestBody.close();
+            requestBody = null;
+        }
+        method = null;
+        uri = null;
+        version = null;
+        headers.clear();
+        valid = false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isFramingHeader(String name) {
+        return name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding");
+    }
+
+    /**
+     * Shared constant for common methods so the request line needs no method substring
+     */
+    private static String knownMethod(String requestLine, int end) {
+        if (end == 3 && requestLine.startsWith("GET")) {
+            return "GET";
+        }
+        if (end == 4 && requestLine.startsWith("HEAD")) {
+            return "HEAD";
+        }
+        if (end == 4 && requestLine.startsWith("POST")) {
+            return "POST";
+        }
+        return requestLine.substring(0, end);
     }
 
     /**
@@ -110,6 +261,24 @@ public class HttpRequest {
         return path;
     }
 
+    /**
+     * Decoded value of a query string parameter, or null if absent
+     */
+    public String getQueryParameter(String name) {
+        int queryIndex = uri != null ? uri.indexOf('?') : -1;
+        if (queryIndex < 0) {
+            return null;
+        }
+        for (String pair : uri.substring(queryIndex + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (urlDecode(key).equals(name)) {
+                return eq < 0 ? "" : urlDecode(pair.substring(eq + 1));
+            }
+        }
+        return null;
+    }
+
     /**
      * Simple URL decoder
      */
@@ -142,12 +311,33 @@ public class HttpRequest {
     public String getMethod() { return method; }
     public String getUri() { return uri; }
     public String getVersion() { return version; }
-    public Map<String, String> getHeaders() { return headers; }
-    public String getHeader(String name) { return headers.get(name.toLowerCase()); }
-    public String getBody() { return body; }
+    public Map<String, String> getHeaders() { return headers.toMap(); }
+    public HttpHeaders getHeaderTable() { return headers; }
+    public String getHeader(String name) { return headers.get(name); }
+    public RequestBody getRequestBody() { return requestBody; }
+    public boolean hasBody() { return requestBody != null; }
+
+    /**
+     * Body decoded as UTF-8, or null if there is none or it cannot be read.
+     * Use getRequestBody() to stream large or binary bodies.
+     */
+    public String getBody() {
+        if (requestBody == null) {
+            return null;
+        }
+        try {
+            return requestBody.asString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
     public boolean isValid() { return valid; }
     public boolean isKeepAlive() {
         String connection = getHeader("connection");
+        // HTTP/1.1 connections are persistent unless the client asks to close
+        if ("HTTP/1.1".equals(version)) {
+            return connection == null || !"close".equalsIgnoreCase(connection);
+        }
         return connection != null && "keep-alive".equalsIgnoreCase(connection);
     }
 
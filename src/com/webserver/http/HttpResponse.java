@@ -1,11 +1,21 @@
 package com.webserver.http;
 
-import java.io.BufferedOutputStream;
+import com.webserver.util.BufferPool;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.*;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * HTTP/1.1 Response Builder
@@ -14,40 +24,99 @@ import java.util.*;
 public class HttpResponse {
     private int statusCode;
     private String statusMessage;
-    private Map<String, String> headers;
+    private String statusLine;
+    private final HttpHeaders headers;
     private byte[] body;
+    private Path bodyFile;
+    private long bodyFileLength;
+    private ByteBuffer bodyBuffer;
+    private InputStream bodyStream;
+    private long bodyStreamLength;
+
+    private static final int WRITE_BUFFER_SIZE = 16384;
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private static volatile CachedDate cachedDate = new CachedDate(0, "");
     
     private static final Map<Integer, String> STATUS_MESSAGES = new HashMap<>();
     static {
+        STATUS_MESSAGES.put(101, "Switching Protocols");
         STATUS_MESSAGES.put(200, "OK");
         STATUS_MESSAGES.put(201, "Created");
         STATUS_MESSAGES.put(204, "No Content");
         STATUS_MESSAGES.put(301, "Moved Permanently");
+        STATUS_MESSAGES.put(302, "Found");
         STATUS_MESSAGES.put(304, "Not Modified");
+        STATUS_MESSAGES.put(307, "Temporary Redirect");
         STATUS_MESSAGES.put(400, "Bad Request");
         STATUS_MESSAGES.put(403, "Forbidden");
         STATUS_MESSAGES.put(404, "Not Found");
         STATUS_MESSAGES.put(405, "Method Not Allowed");
+        STATUS_MESSAGES.put(408, "Request Timeout");
+        STATUS_MESSAGES.put(413, "Payload Too Large");
+        STATUS_MESSAGES.put(414, "URI Too Long");
+        STATUS_MESSAGES.put(426, "Upgrade Required");
+        STATUS_MESSAGES.put(429, "Too Many Requests");
+        STATUS_MESSAGES.put(431, "Request Header Fields Too Large");
         STATUS_MESSAGES.put(500, "Internal Server Error");
         STATUS_MESSAGES.put(501, "Not Implemented");
+        STATUS_MESSAGES.put(502, "Bad Gateway");
         STATUS_MESSAGES.put(503, "Service Unavailable");
+        STATUS_MESSAGES.put(504, "Gateway Timeout");
+    }
+
+    // Status lines for the known codes, built once
+    private static final Map<Integer, String> STATUS_LINES = new HashMap<>();
+    static {
+        for (Map.Entry<Integer, String> status : STATUS_MESSAGES.entrySet()) {
+            STATUS_LINES.put(status.getKey(), "HTTP/1.1 " + status.getKey() + " " + status.getValue() + "\r\n");
+        }
     }
 
     public HttpResponse() {
-        this.headers = new LinkedHashMap<>();
-        this.statusCode = 200;
-        this.statusMessage = "OK";
-        
-        // Add default headers
+        this.headers = new HttpHeaders();
+        reset();
+    }
+
+    /**
+     * Return to a fresh 200 response with only the default headers, keeping the header table
+     */
+    public HttpResponse reset() {
+        headers.clear();
+        body = null;
+        bodyFile = null;
+        bodyFileLength = 0;
+        bodyBuffer = null;
+        clearBodyStream();
+        setStatus(200);
         addDefaultHeaders();
+        return this;
     }
 
     private void addDefaultHeaders() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-        headers.put("Date", dateFormat.format(new Date()));
-        headers.put("Server", "Java-WebServer/1.0");
-        headers.put("Connection", "close");
+        headers.add("Date", currentDate());
+        headers.add("Server", "Java-WebServer/1.0");
+        headers.add("Connection", "close");
+    }
+
+    /**
+     * HTTP date for the current second, formatted at most once per second
+     */
+    public static String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate current = cachedDate;
+        if (current.second != second) {
+            current = new CachedDate(second, HTTP_DATE.format(Instant.ofEpochSecond(second).atOffset(ZoneOffset.UTC)));
+            cachedDate = current;
+        }
+        return current.formatted;
+    }
+
+    /**
+     * Format a timestamp as an HTTP date (RFC 7231)
+     */
+    public static String formatDate(long epochMillis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC));
     }
 
     /**
@@ -56,6 +125,20 @@ public class HttpResponse {
     public HttpResponse setStatus(int code) {
         this.statusCode = code;
         this.statusMessage = STATUS_MESSAGES.getOrDefault(code, "Unknown");
+        this.statusLine = STATUS_LINES.get(code);
+        return this;
+    }
+
+    /**
+     * Set a status with its reason phrase, e.g. one relayed from a backend
+     */
+    public HttpResponse setStatus(int code, String message) {
+        if (STATUS_MESSAGES.containsKey(code) || message == null || message.isEmpty()) {
+            return setStatus(code);
+        }
+        this.statusCode = code;
+        this.statusMessage = message;
+        this.statusLine = null;
         return this;
     }
 
@@ -63,7 +146,7 @@ public class HttpResponse {
      * Add response header
      */
     public HttpResponse addHeader(String name, String value) {
-        headers.put(name, value);
+        headers.set(name, value);
         return this;
     }
 
@@ -71,10 +154,13 @@ public class HttpResponse {
      * Set response body (text)
      */
     public HttpResponse setBody(String body) {
+        clearBodyStream();
         this.body = body.getBytes(StandardCharsets.UTF_8);
-        headers.put("Content-Length", String.valueOf(this.body.length));
-        if (!headers.containsKey("Content-Type")) {
-            headers.put("Content-Type", "text/html; charset=UTF-8");
+        this.bodyFile = null;
+        this.bodyBuffer = null;
+        headers.set("Content-Length", String.valueOf(this.body.length));
+        if (!headers.contains("Content-Type")) {
+            headers.set("Content-Type", "text/html; charset=UTF-8");
         }
         return this;
     }
@@ -83,16 +169,79 @@ public class HttpResponse {
      * Set response body (binary)
      */
     public HttpResponse setBody(byte[] body) {
+        clearBodyStream();
         this.body = body;
-        headers.put("Content-Length", String.valueOf(body.length));
+        this.bodyFile = null;
+        this.bodyBuffer = null;
+        headers.set("Content-Length", String.valueOf(body.length));
         return this;
     }
 
+    /**
+     * Set response body to a buffer, e.g. a slice of a memory-mapped archive, streamed at send time
+     */
+    public HttpResponse setBody(ByteBuffer body) {
+        clearBodyStream();
+        this.bodyBuffer = body;
+        this.body = null;
+        this.bodyFile = null;
+        headers.set("Content-Length", String.valueOf(body.remaining()));
+        return this;
+    }
+
+    /**
+     * Set response body to a file streamed at send time instead of loaded into memory
+     */
+    public HttpResponse setBodyFile(Path file, long length) {
+        clearBodyStream();
+        this.bodyFile = file;
+        this.bodyFileLength = length;
+        this.body = null;
+        this.bodyBuffer = null;
+        headers.set("Content-Length", String.valueOf(length));
+        return this;
+    }
+
+    /**
+     * Set response body to a stream read at send time, e.g. a proxied backend response.
+     * The stream is closed once sent, or when the body is replaced or the response reset.
+     */
+    public HttpResponse setBodyStream(InputStream body, long length) {
+        releaseBody();
+        this.bodyStream = body;
+        this.bodyStreamLength = length;
+        this.body = null;
+        this.bodyFile = null;
+        this.bodyBuffer = null;
+        headers.set("Content-Length", String.valueOf(length));
+        return this;
+    }
+
+    private void clearBodyStream() {
+        releaseBody();
+        bodyStreamLength = 0;
+    }
+
+    /**
+     * Close a body stream that has not been sent; the length is kept for logging
+     */
+    public void releaseBody() {
+        InputStream stream = bodyStream;
+        bodyStream = null;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
     /**
      * Set content type
      */
     public HttpResponse setContentType(String contentType) {
-        headers.put("Content-Type", contentType);
+        headers.set("Content-Type", contentType);
         return this;
     }
 
@@ -100,44 +249,207 @@ public class HttpResponse {
      * Enable keep-alive
      */
     public HttpResponse setKeepAlive(boolean keepAlive) {
-        headers.put("Connection", keepAlive ? "keep-alive" : "close");
+        headers.set("Connection", keepAlive ? "keep-alive" : "close");
         return this;
     }
 
+    public int getStatusCode() { return statusCode; }
+    public HttpHeaders getHeaders() { return headers; }
+
     /**
-     * Send response to output stream
+     * Number of body bytes this response carries
+     */
+    public long getBodyLength() {
+        if (bodyFile != null) {
+            return bodyFileLength;
+        }
+        if (bodyBuffer != null) {
+            return bodyBuffer.remaining();
+        }
+        if (bodyStreamLength > 0) {
+            return bodyStreamLength;
+        }
+        return body != null ? body.length : 0;
+    }
+
+    /**
+     * Send response to output stream through a pooled write buffer
      */
     public void send(OutputStream out) throws IOException {
-        BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
-        
-        // Status line
-        String statusLine = String.format("HTTP/1.1 %d %s\r\n", statusCode, statusMessage);
-        bufferedOut.write(statusLine.getBytes(StandardCharsets.US_ASCII));
-        
-        // Headers
-        for (Map.Entry<String, String> header : headers.entrySet()) {
-            String headerLine = String.format("%s: %s\r\n", header.getKey(), header.getValue());
-            bufferedOut.write(headerLine.getBytes(StandardCharsets.US_ASCII));
+        send(out, true);
+    }
+
+    /**
+     * Send the response; without the body (answering HEAD) the headers, Content-Length
+     * included, are the same but no body file or stream is opened
+     */
+    public void send(OutputStream out, boolean includeBody) throws IOException {
+        if (!includeBody) {
+            releaseBody();
         }
-        
-        // Empty line between headers and body
-        bufferedOut.write("\r\n".getBytes(StandardCharsets.US_ASCII));
-        
-        // Body
-        if (body != null && body.length > 0) {
-            bufferedOut.write(body);
+        BufferPool pool = BufferPool.getInstance();
+        ByteBuffer buffer = pool.acquire(WRITE_BUFFER_SIZE);
+        try {
+            byte[] buf = buffer.array();
+            int pos = 0;
+
+            // Status line
+            if (statusLine != null) {
+                pos = putAscii(out, buf, pos, statusLine);
+            } else {
+                pos = putAscii(out, buf, pos, "HTTP/1.1 ");
+                pos = putAscii(out, buf, pos, String.valueOf(statusCode));
+                pos = putAscii(out, buf, pos, " ");
+                pos = putAscii(out, buf, pos, statusMessage);
+                pos = putAscii(out, buf, pos, "\r\n");
+            }
+
+            // Headers
+            for (int i = 0; i < headers.size(); i++) {
+                pos = putAscii(out, buf, pos, headers.nameAt(i));
+                pos = putAscii(out, buf, pos, ": ");
+                pos = putAscii(out, buf, pos, headers.valueAt(i));
+                pos = putAscii(out, buf, pos, "\r\n");
+            }
+
+            // Empty line between headers and body
+            pos = putAscii(out, buf, pos, "\r\n");
+
+            // Body
+            if (includeBody) {
+                pos = writeBody(out, buffer, pos);
+            }
+
+            if (pos > 0) {
+                out.write(buf, 0, pos);
+            }
+            out.flush();
+        } finally {
+            // A failed header write must still close a proxied body, or its backend connection leaks
+            releaseBody();
+            pool.release(buffer);
         }
-        
-        bufferedOut.flush();
+    }
+
+    /**
+     * Write whichever body is set after the pending header bytes
+     */
+    private int writeBody(OutputStream out, ByteBuffer buffer, int pos) throws IOException {
+        byte[] buf = buffer.array();
+        if (bodyFile != null) {
+            pos = writeFileBody(out, buffer, pos);
+        } else if (bodyBuffer != null) {
+            pos = writeBufferBody(out, buf, pos);
+        } else if (bodyStream != null) {
+            pos = writeStreamBody(out, buf, pos);
+        } else if (body != null && body.length > 0) {
+            if (body.length <= buf.length - pos) {
+                System.arraycopy(body, 0, buf, pos, body.length);
+                pos += body.length;
+            } else {
+                out.write(buf, 0, pos);
+                pos = 0;
+                out.write(body);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Stream the body file through the write buffer after the pending header bytes
+     */
+    private int writeFileBody(OutputStream out, ByteBuffer buffer, int pos) throws IOException {
+        byte[] buf = buffer.array();
+        long remaining = bodyFileLength;
+        try (FileChannel channel = FileChannel.open(bodyFile, StandardOpenOption.READ)) {
+            while (remaining > 0) {
+                buffer.limit((int) Math.min(buf.length, pos + remaining));
+                buffer.position(pos);
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    // File shrank after Content-Length was sent; abort so the client sees a short body
+                    throw new IOException("File truncated while sending: " + bodyFile);
+                }
+                pos += n;
+                remaining -= n;
+                if (pos == buf.length || remaining == 0) {
+                    out.write(buf, 0, pos);
+                    pos = 0;
+                }
+            }
+        }
+        buffer.clear();
+        return pos;
+    }
+
+    /**
+     * Copy the body buffer through the write buffer after the pending header bytes
+     */
+    private int writeBufferBody(OutputStream out, byte[] buf, int pos) throws IOException {
+        ByteBuffer source = bodyBuffer.duplicate();
+        while (source.hasRemaining()) {
+            int n = Math.min(source.remaining(), buf.length - pos);
+            source.get(buf, pos, n);
+            pos += n;
+            if (pos == buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Copy the body stream through the write buffer after the pending header bytes, then close it
+     */
+    private int writeStreamBody(OutputStream out, byte[] buf, int pos) throws IOException {
+        long remaining = bodyStreamLength;
+        try {
+            while (remaining > 0) {
+                int n = bodyStream.read(buf, pos, (int) Math.min(buf.length - pos, remaining));
+                if (n < 0) {
+                    throw new IOException("Body stream ended " + remaining + " bytes early");
+                }
+                pos += n;
+                remaining -= n;
+                if (pos == buf.length) {
+                    out.write(buf, 0, pos);
+                    pos = 0;
+                }
+            }
+        } finally {
+            releaseBody();
+        }
+        return pos;
+    }
+
+    /**
+     * Copy ASCII text into the buffer, flushing to the stream when it fills up
+     */
+    private static int putAscii(OutputStream out, byte[] buf, int pos, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (pos == buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+            buf[pos++] = (byte) text.charAt(i);
+        }
+        return pos;
     }
 
     /**
      * Create error response
      */
     public static HttpResponse error(int statusCode, String message) {
-        HttpResponse response = new HttpResponse();
-        response.setStatus(statusCode);
-        
+        return new HttpResponse().setError(statusCode, message);
+    }
+
+    /**
+     * Turn this response into an error page
+     */
+    public HttpResponse setError(int statusCode, String message) {
+        setStatus(statusCode);
+
         String html = String.format(
             "<!DOCTYPE html>\n" +
             "<html>\n" +
@@ -153,9 +465,23 @@ public class HttpResponse {
             statusCode, STATUS_MESSAGES.get(statusCode),
             message
         );
-        
-        response.setBody(html);
-        return response;
+
+        return setBody(html);
+    }
+
+    /**
+     * Create 429 response telling the client when to retry
+     */
+    public static HttpResponse tooManyRequests(long retryAfterSeconds) {
+        return new HttpResponse().setTooManyRequests(retryAfterSeconds);
+    }
+
+    /**
+     * Turn this response into a 429 telling the client when to retry
+     */
+    public HttpResponse setTooManyRequests(long retryAfterSeconds) {
+        setError(429, "Rate limit exceeded, please retry later.");
+        return addHeader("Retry-After", String.valueOf(retryAfterSeconds));
     }
 
     /**
@@ -168,6 +494,19 @@ public class HttpResponse {
         return response;
     }
 
+    /**
+     * Date header value shared by all threads for one second
+     */
+    private static final class CachedDate {
+        final long second;
+        final String formatted;
+
+        CachedDate(long second, String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+
     /**
      * Get MIME type from file extension
      */
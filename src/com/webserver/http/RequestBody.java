@@ -0,0 +1,390 @@
+package com.webserver.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Request body read lazily from the connection.
+ * Handlers stream it with getInputStream(), which decodes chunked transfer coding,
+ * enforces the size limit and answers "Expect: 100-continue" on first read. A
+ * handler that needs the whole body calls spool(): small bodies stay in memory,
+ * larger ones go to a temp file, so memory use stays bounded for any upload.
+ */
+public class RequestBody implements AutoCloseable {
+    private static final byte[] CONTINUE_RESPONSE =
+        "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // Chunk-size lines and trailers are framing, not body, so maxBodySize does not cover them
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+    private static final int MAX_TRAILER_COUNT = 32;
+    private static final int MAX_TRAILER_BYTES = 8192;
+
+    private final HttpInput input;
+    private final long contentLength; // -1 when chunked
+    private final boolean expectContinue;
+    private final Limits limits;
+    private OutputStream continueOutput;
+    private boolean continueSent;
+
+    private InputStream wireStream;
+    private long bytesRead;
+    private boolean fullyRead;
+
+    // Spooled copy, filled by spool()
+    private byte[] memoryCopy;
+    private Path spoolFile;
+
+    /**
+     * Size limits and spool location for request bodies
+     */
+    public static class Limits {
+        public static final Limits DEFAULT = new Limits(10L * 1024 * 1024, 64 * 1024, null);
+
+        final long maxBodySize;
+        final int spoolThreshold;
+        final File tempDir;
+
+        public Limits(long maxBodySize, int spoolThreshold, File tempDir) {
+            this.maxBodySize = maxBodySize;
+            this.spoolThreshold = spoolThreshold;
+            this.tempDir = tempDir;
+        }
+    }
+
+    /**
+     * Thrown when the body exceeds the configured maximum size
+     */
+    public static class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(long limit) {
+            super("Request body exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Thrown when chunked framing is malformed or a chunk-size line or trailer section is too long
+     */
+    public static class MalformedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedException(String message) {
+            super(message);
+        }
+    }
+
+    RequestBody(HttpInput input, long contentLength, boolean expectContinue, Limits limits) {
+        this.input = input;
+        this.contentLength = contentLength;
+        this.expectContinue = expectContinue;
+        this.limits = limits;
+    }
+
+    /**
+     * Body of a message read from another connection, such as a proxied response;
+     * contentLength is -1 for chunked transfer coding
+     */
+    public static RequestBody forMessage(HttpInput input, long contentLength, Limits limits) {
+        return new RequestBody(input, contentLength, false, limits);
+    }
+
+    /**
+     * Where to write "100 Continue" when the handler starts reading
+     */
+    public void setContinueOutput(OutputStream output) {
+        this.continueOutput = output;
+    }
+
+    public boolean isChunked() { return contentLength < 0; }
+    public long getContentLength() { return contentLength; }
+    public boolean isFullyRead() { return fullyRead; }
+
+    /**
+     * True if the client is waiting for "100 Continue" that was never sent,
+     * in which case the body may or may not follow and the connection cannot be reused
+     */
+    public boolean isContinuePending() {
+        return expectContinue && !continueSent && !fullyRead;
+    }
+
+    /**
+     * Stream the body; reads from the spooled copy if spool() was called
+     */
+    public InputStream getInputStream() throws IOException {
+        if (memoryCopy != null) {
+            return new ByteArrayInputStream(memoryCopy);
+        }
+        if (spoolFile != null) {
+            return Files.newInputStream(spoolFile);
+        }
+        return wire();
+    }
+
+    /**
+     * Read the whole body into memory or a temp file so it can be read more than once
+     */
+    public void spool() throws IOException {
+        if (memoryCopy != null || spoolFile != null) {
+            return;
+        }
+
+        InputStream in = wire();
+        byte[] chunk = new byte[8192];
+        ByteArrayOutputStream memory = new ByteArrayOutputStream(
+            (int) Math.min(limits.spoolThreshold, contentLength > 0 ? contentLength : 1024));
+        OutputStream fileOut = null;
+        try {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                if (fileOut == null && memory.size() + n > limits.spoolThreshold) {
+                    spoolFile = limits.tempDir != null
+                        ? Files.createTempFile(limits.tempDir.toPath(), "upload-", ".tmp")
+                        : Files.createTempFile("upload-", ".tmp");
+                    fileOut = Files.newOutputStream(spoolFile);
+                    memory.writeTo(fileOut);
+                    memory = null;
+                }
+                if (fileOut != null) {
+                    fileOut.write(chunk, 0, n);
+                } else {
+                    memory.write(chunk, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            if (fileOut != null) {
+                fileOut.close();
+                fileOut = null;
+            }
+            close();
+            throw e;
+        } finally {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        if (spoolFile == null) {
+            memoryCopy = memory.toByteArray();
+        }
+    }
+
+    /**
+     * Body as UTF-8 text; spools it first if necessary
+     */
+    public String asString() throws IOException {
+        spool();
+        if (memoryCopy != null) {
+            return new String(memoryCopy, StandardCharsets.UTF_8);
+        }
+        return new String(Files.readAllBytes(spoolFile), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of body bytes consumed from the connection so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Skip whatever the handler did not read so the next keep-alive request starts cleanly.
+     * Returns false if more than maxDiscard bytes remain, meaning the connection should close.
+     */
+    public boolean discard(long maxDiscard) throws IOException {
+        if (fullyRead) {
+            return true;
+        }
+        if (isContinuePending()) {
+            return false;
+        }
+        if (contentLength >= 0 && contentLength - bytesRead > maxDiscard) {
+            return false;
+        }
+
+        InputStream in = wire();
+        long limit = bytesRead + maxDiscard;
+        byte[] chunk = new byte[1024];
+        while (in.read(chunk) != -1) {
+            if (bytesRead > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete the spool file, if any
+     */
+    @Override
+    public void close() {
+        memoryCopy = null;
+        if (spoolFile != null) {
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                spoolFile.toFile().deleteOnExit();
+            }
+            spoolFile = null;
+        }
+    }
+
+    private InputStream wire() throws IOException {
+        if (wireStream == null) {
+            if (contentLength > limits.maxBodySize) {
+                throw new TooLargeException(limits.maxBodySize);
+            }
+            sendContinue();
+            wireStream = contentLength >= 0 ? new FixedLengthStream() : new ChunkedStream();
+        }
+        return wireStream;
+    }
+
+    private void sendContinue() throws IOException {
+        if (expectContinue && !continueSent && continueOutput != null) {
+            continueOutput.write(CONTINUE_RESPONSE);
+            continueOutput.flush();
+            continueSent = true;
+        }
+    }
+
+    private void count(int n) throws TooLargeException {
+        bytesRead += n;
+        if (bytesRead > limits.maxBodySize) {
+            throw new TooLargeException(limits.maxBodySize);
+        }
+    }
+
+    /**
+     * Body delimited by Content-Length
+     */
+    private class FixedLengthStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long remaining = contentLength - bytesRead;
+            if (remaining <= 0) {
+                fullyRead = true;
+                return -1;
+            }
+            int n = input.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("Connection closed before request body was complete");
+            }
+            count(n);
+            if (bytesRead == contentLength) {
+                fullyRead = true;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Body in chunked transfer coding (RFC 7230 section 4.1)
+     */
+    private class ChunkedStream extends InputStream {
+        private long chunkRemaining;
+        private boolean finished;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (chunkRemaining == 0) {
+                chunkRemaining = readChunkSize();
+                if (chunkRemaining == 0) {
+                    skipTrailers();
+                    finished = true;
+                    fullyRead = true;
+                    return -1;
+                }
+            }
+
+            int n = input.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n == -1) {
+                throw new IOException("Connection closed inside a chunk");
+            }
+            count(n);
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                String crlf = readFramingLine(0);
+                if (crlf == null || !crlf.isEmpty()) {
+                    throw new MalformedException("Malformed chunk terminator");
+                }
+            }
+            return n;
+        }
+
+        private long readChunkSize() throws IOException {
+            String line = readFramingLine(MAX_CHUNK_LINE_LENGTH);
+            if (line == null) {
+                throw new IOException("Connection closed before chunk size");
+            }
+            int semicolon = line.indexOf(';'); // chunk extensions are ignored
+            String size = (semicolon >= 0 ? line.substring(0, semicolon) : line).trim();
+            // Long.parseLong takes a sign; a proxy in front may read "+5" differently
+            if (size.isEmpty() || !isHex(size)) {
+                throw new MalformedException("Malformed chunk size: " + line);
+            }
+            try {
+                long value = Long.parseLong(size, 16);
+                if (value < 0) {
+                    throw new NumberFormatException(size);
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw new MalformedException("Malformed chunk size: " + line);
+            }
+        }
+
+        private static boolean isHex(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Skip the trailer section, bounded like a request head; trailer fields are not used
+         */
+        private void skipTrailers() throws IOException {
+            int count = 0;
+            int bytes = 0;
+            String line;
+            while ((line = readFramingLine(MAX_TRAILER_BYTES - bytes)) != null && !line.isEmpty()) {
+                bytes += line.length() + 2;
+                if (++count > MAX_TRAILER_COUNT) {
+                    throw new MalformedException("More than " + MAX_TRAILER_COUNT + " trailer fields");
+                }
+            }
+        }
+
+        private String readFramingLine(int maxLength) throws IOException {
+            try {
+                return input.readLine(Math.max(0, maxLength));
+            } catch (HttpInput.LineTooLongException e) {
+                throw new MalformedException("Chunked framing line exceeds " + maxLength + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A client connection was accepted and handed to the thread pool.
+ * Off by default because it fires once per connection; the bundled
+ * webserver.jfc profile turns it on.
+ */
+@Name("webserver.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({"Web Server", "Connection"})
+@Description("Client connection accepted by the acceptor thread")
+@Enabled(false)
+@StackTrace(false)
+public class ConnectionAcceptedEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+}
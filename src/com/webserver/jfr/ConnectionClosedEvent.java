@@ -0,0 +1,38 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A connection was closed. Off by default like ConnectionAcceptedEvent.
+ */
+@Name("webserver.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"Web Server", "Connection"})
+@Description("Client connection closed")
+@Enabled(false)
+@StackTrace(false)
+public class ConnectionClosedEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Requests Served")
+    public int requests;
+
+    @Label("Open Time")
+    @Timespan(Timespan.MILLISECONDS)
+    public long openMillis;
+
+    @Label("Close Reason")
+    @Description("Deadline or drain that closed the connection, empty for a normal close")
+    public String reason;
+}
@@ -0,0 +1,23 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Time a connection spent in the thread pool queue before a worker picked it up
+ */
+@Name("webserver.ConnectionDequeued")
+@Label("Connection Dequeued")
+@Category({"Web Server", "Connection"})
+@Description("Connection waited in the thread pool queue for a worker")
+@Threshold("10 ms")
+@StackTrace(false)
+public class ConnectionDequeuedEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+}
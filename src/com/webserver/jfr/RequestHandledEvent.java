@@ -0,0 +1,37 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Routing the request and building the response: file lookup, cache, admin endpoints
+ */
+@Name("webserver.RequestHandled")
+@Label("Request Handled")
+@Category({"Web Server", "Request"})
+@Description("Request routed and response prepared")
+@Threshold("20 ms")
+@StackTrace(false)
+public class RequestHandledEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Body Size")
+    @DataAmount
+    public long bodySize;
+}
@@ -0,0 +1,32 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Reading and parsing the request line and headers
+ */
+@Name("webserver.RequestParsed")
+@Label("Request Parsed")
+@Category({"Web Server", "Request"})
+@Description("Request line and headers read and parsed")
+@Threshold("10 ms")
+@StackTrace(false)
+public class RequestParsedEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Valid")
+    public boolean valid;
+}
@@ -0,0 +1,34 @@
+package com.webserver.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Writing the status line, headers and body to the socket
+ */
+@Name("webserver.ResponseWritten")
+@Label("Response Written")
+@Category({"Web Server", "Request"})
+@Description("Response written to the client socket")
+@Threshold("20 ms")
+@StackTrace(false)
+public class ResponseWrittenEvent extends Event {
+    @Label("Connection Id")
+    public long connectionId;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Body Size")
+    @DataAmount
+    public long bodySize;
+}
@@ -0,0 +1,84 @@
+package com.webserver.sse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The events published on one stream path.
+ * Each event is serialized once into a read-only buffer that every subscriber
+ * shares, and the last few are kept in a ring so a reconnecting client can
+ * resume from its Last-Event-ID.
+ */
+class EventChannel {
+
+    /**
+     * A serialized event; ids increase by one per channel
+     */
+    static final class Event {
+        final long id;
+        final ByteBuffer bytes;
+
+        Event(long id, ByteBuffer bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    private final String path;
+    private final Event[] ring;
+    private long nextId = 1;
+    private int size;
+
+    EventChannel(String path, int replayBufferSize) {
+        this.path = path;
+        this.ring = new Event[Math.max(1, replayBufferSize)];
+    }
+
+    String getPath() { return path; }
+
+    /**
+     * Serialize an event, assign it the next id and keep it for replay
+     */
+    synchronized Event append(String eventType, String data) {
+        long id = nextId++;
+        Event event = new Event(id, serialize(id, eventType, data));
+        ring[(int) (id % ring.length)] = event;
+        size = Math.min(size + 1, ring.length);
+        return event;
+    }
+
+    /**
+     * Retained events newer than lastEventId, oldest first. A client that fell
+     * further behind than the ring reaches gets everything still retained.
+     */
+    synchronized List<Event> since(long lastEventId) {
+        long newest = nextId - 1;
+        long first = Math.max(lastEventId + 1, newest - size + 1);
+        List<Event> events = new ArrayList<>((int) Math.max(0, newest - first + 1));
+        for (long id = first; id <= newest; id++) {
+            events.add(ring[(int) (id % ring.length)]);
+        }
+        return events;
+    }
+
+    synchronized long getLastId() { return nextId - 1; }
+
+    /**
+     * text/event-stream wire form; multi-line data becomes one data field per line
+     */
+    static ByteBuffer serialize(long id, String eventType, String data) {
+        StringBuilder sb = new StringBuilder(data.length() + 32);
+        sb.append("id: ").append(id).append('\n');
+        if (eventType != null && !eventType.isEmpty()) {
+            // A line break would end the field early and let the rest pass as other fields
+            sb.append("event: ").append(eventType.replaceAll("[\r\n]", "")).append('\n');
+        }
+        for (String line : data.split("\r\n|\r|\n", -1)) {
+            sb.append("data: ").append(line).append('\n');
+        }
+        sb.append('\n');
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+}
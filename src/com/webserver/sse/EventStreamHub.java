@@ -0,0 +1,217 @@
+package com.webserver.sse;
+
+import com.webserver.core.ServerConfig;
+import com.webserver.util.Logger;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events streams.
+ * ConnectionHandler answers a GET on a stream path with the event-stream
+ * headers and hands the socket over here, so an open stream holds no worker.
+ * publish() serializes an event once, keeps it for Last-Event-ID replay and
+ * queues the same bytes on every subscriber of the path.
+ */
+public class EventStreamHub {
+    private final ServerConfig config;
+    private final Logger logger;
+    private final Map<String, EventChannel> channels = new ConcurrentHashMap<>();
+    private final EventStreamLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    private final AtomicLong subscribed = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong published = new AtomicLong(0);
+    private final AtomicLong replayed = new AtomicLong(0);
+    private final AtomicLong slowConsumers = new AtomicLong(0);
+
+    public EventStreamHub(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+        this.loops = new EventStreamLoop[Math.max(1, config.getSseEventLoops())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventStreamLoop(this, i + 1);
+        }
+        for (String path : config.getSsePaths().split(",")) {
+            if (!path.trim().isEmpty()) {
+                register(path.trim());
+            }
+        }
+    }
+
+    public void start() throws IOException {
+        for (EventStreamLoop loop : loops) {
+            loop.start();
+        }
+        logger.info(String.format("Event streams started: %d event loops, paths %s", loops.length,
+            channels.keySet()));
+    }
+
+    /**
+     * Open a stream at a normalized request path such as "/events/orders"
+     */
+    public void register(String path) {
+        channels.computeIfAbsent(path, p -> new EventChannel(p, config.getSseReplayBufferSize()));
+    }
+
+    public boolean isEndpoint(String path) {
+        return channels.containsKey(path);
+    }
+
+    /**
+     * Claim one of sse.maxConnections for a stream about to be opened.
+     * The slot is held until the adopted stream closes, or until release()
+     * if the socket is never adopted.
+     */
+    public boolean tryReserve() {
+        int max = config.getSseMaxConnections();
+        while (true) {
+            int current = reserved.get();
+            if (current >= max) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a slot taken by tryReserve()
+     */
+    public void release() {
+        reserved.decrementAndGet();
+    }
+
+    /**
+     * Publish an event to every subscriber of a path; eventType may be null.
+     * Returns the event id, or -1 if the path is not a stream.
+     */
+    public long publish(String path, String eventType, String data) {
+        EventChannel channel = channels.get(path);
+        if (channel == null) {
+            return -1;
+        }
+        published.incrementAndGet();
+        // Append and dispatch under the channel lock so every loop sees ids in order
+        synchronized (channel) {
+            EventChannel.Event event = channel.append(eventType, data);
+            for (EventStreamLoop loop : loops) {
+                loop.execute(() -> loop.broadcast(path, event));
+            }
+            return event.id;
+        }
+    }
+
+    /**
+     * The id a stream starts after: the client's Last-Event-ID if the channel has
+     * reached it, otherwise (-1 for a new client, or an id from before a restart)
+     * the newest event. Taken before the headers are sent, so events published
+     * while the socket is handed over are replayed rather than lost.
+     */
+    public long startAfter(String path, long lastEventId) {
+        EventChannel channel = channels.get(path);
+        if (channel == null) {
+            return lastEventId;
+        }
+        long newest = channel.getLastId();
+        return lastEventId >= 0 && lastEventId <= newest ? lastEventId : newest;
+    }
+
+    /**
+     * Take over a socket whose response headers have been sent. Events after
+     * lastEventId, from startAfter, are replayed from the ring first. onClose, if
+     * not null, runs once when the stream ends.
+     * Returns false if the socket cannot be switched to non-blocking mode.
+     */
+    public boolean adopt(Socket socket, String path, String remoteAddress, long lastEventId, Runnable onClose) {
+        SocketChannel channel = socket.getChannel();
+        EventChannel events = channels.get(path);
+        if (channel == null || events == null) {
+            return false;
+        }
+        subscribed.incrementAndGet();
+        EventStreamLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        loop.adopt(channel, events, remoteAddress, lastEventId, preamble(), onClose);
+        return true;
+    }
+
+    /**
+     * Reconnect delay advice sent once at the start of every stream
+     */
+    private ByteBuffer preamble() {
+        String retry = "retry: " + config.getSseRetry() + "\n\n";
+        return ByteBuffer.wrap(retry.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public int getSubscriberCount() {
+        int count = 0;
+        for (EventStreamLoop loop : loops) {
+            count += loop.getSubscriberCount();
+        }
+        return count;
+    }
+
+    long getMaxQueuedBytes() { return config.getSseMaxQueuedBytes(); }
+    long getHeartbeatInterval() { return config.getSseHeartbeatInterval(); }
+
+    void recordReplayed(int count) {
+        replayed.addAndGet(count);
+    }
+
+    void recordSlowConsumer(EventStreamSubscriber subscriber) {
+        slowConsumers.incrementAndGet();
+        logger.warn("Dropping slow event stream consumer: " + subscriber);
+    }
+
+    /**
+     * Close every stream and stop the loops
+     */
+    public void stop() {
+        for (EventStreamLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (EventStreamLoop loop : loops) {
+            try {
+                loop.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Subscriber counts and traffic for /_admin/sse
+     */
+    public String describe() {
+        Map<String, Integer> byPath = new TreeMap<>();
+        for (EventStreamLoop loop : loops) {
+            CompletableFuture<Map<String, Integer>> counts = new CompletableFuture<>();
+            loop.execute(() -> counts.complete(loop.countByPath()));
+            try {
+                counts.get(1, TimeUnit.SECONDS).forEach((path, count) -> byPath.merge(path, count, Integer::sum));
+            } catch (Exception e) {
+                // Loop busy or stopped; report what we have
+            }
+        }
+        Map<String, Long> lastIds = new TreeMap<>();
+        channels.forEach((path, channel) -> lastIds.put(path, channel.getLastId()));
+        return String.format("Event streams subscribers=%d, loops=%d, subscribed=%d, rejected=%d, published=%d, "
+                + "replayed=%d, slowConsumersDropped=%d%nBy path: %s%nLast event id: %s%n", getSubscriberCount(),
+            loops.length, subscribed.get(), rejected.get(), published.get(), replayed.get(), slowConsumers.get(),
+            byPath, lastIds);
+    }
+}
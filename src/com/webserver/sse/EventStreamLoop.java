@@ -0,0 +1,231 @@
+package com.webserver.sse;
+
+import com.webserver.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector thread that owns a set of event stream subscribers.
+ * Publishers and workers hand it tasks; only the loop thread touches a
+ * subscriber. Heartbeat comments go out on the same shared-buffer path as
+ * events and double as dead-peer detection.
+ */
+class EventStreamLoop implements Runnable {
+    private static final ByteBuffer HEARTBEAT =
+        ByteBuffer.wrap(": heartbeat\n\n".getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    private final EventStreamHub hub;
+    private final Thread thread;
+    private final Logger logger;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<String, Set<EventStreamSubscriber>> byPath = new HashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger(0);
+    private volatile Selector selector;
+    private volatile boolean running = true;
+    private long lastHeartbeat;
+
+    EventStreamLoop(EventStreamHub hub, int index) {
+        this.hub = hub;
+        this.logger = Logger.getInstance();
+        this.thread = new Thread(this, "EventStream-Loop-" + index);
+        this.thread.setDaemon(true);
+        this.lastHeartbeat = System.currentTimeMillis();
+    }
+
+    void start() throws IOException {
+        selector = Selector.open();
+        thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    /**
+     * Take over a channel whose response headers were sent. The client first
+     * gets the retained events after lastEventId, which EventStreamHub.startAfter
+     * fixed before the headers went out.
+     */
+    void adopt(SocketChannel channel, EventChannel events, String remoteAddress, long lastEventId,
+               ByteBuffer preamble, Runnable onClose) {
+        execute(() -> {
+            EventStreamSubscriber subscriber = new EventStreamSubscriber(channel, this, events.getPath(),
+                remoteAddress, lastEventId, onClose);
+            try {
+                channel.configureBlocking(false);
+                subscriber.attach(channel.register(selector, SelectionKey.OP_READ, subscriber));
+            } catch (IOException e) {
+                logger.warn("Could not register event stream from " + remoteAddress + ": " + e.getMessage());
+                subscriber.close();
+                return;
+            }
+            byPath.computeIfAbsent(events.getPath(), p -> new LinkedHashSet<>()).add(subscriber);
+            subscriberCount.incrementAndGet();
+            subscriber.enqueue(preamble.duplicate());
+            // Publishes racing with this task are skipped by id when their broadcast arrives
+            List<EventChannel.Event> missed = events.since(lastEventId);
+            hub.recordReplayed(missed.size());
+            for (EventChannel.Event event : missed) {
+                subscriber.send(event);
+            }
+        });
+    }
+
+    /**
+     * Queue an event on every subscriber of its path; runs on the loop thread
+     */
+    void broadcast(String path, EventChannel.Event event) {
+        Set<EventStreamSubscriber> subscribers = byPath.get(path);
+        if (subscribers == null) {
+            return;
+        }
+        // Copy first: a slow consumer dropped during the walk removes itself from the set
+        for (EventStreamSubscriber subscriber : new ArrayList<>(subscribers)) {
+            subscriber.send(event);
+        }
+    }
+
+    /**
+     * Called once per adopted stream, by close(), even if it never got registered
+     */
+    void remove(EventStreamSubscriber subscriber) {
+        Set<EventStreamSubscriber> subscribers = byPath.get(subscriber.getPath());
+        if (subscribers != null && subscribers.remove(subscriber)) {
+            subscriberCount.decrementAndGet();
+            if (subscribers.isEmpty()) {
+                byPath.remove(subscriber.getPath());
+            }
+        }
+        hub.release();
+    }
+
+    int getSubscriberCount() { return subscriberCount.get(); }
+    long getMaxQueuedBytes() { return hub.getMaxQueuedBytes(); }
+
+    void recordSlowConsumer(EventStreamSubscriber subscriber) {
+        hub.recordSlowConsumer(subscriber);
+    }
+
+    /**
+     * Close every stream and end the loop
+     */
+    void shutdown() {
+        execute(() -> running = false);
+    }
+
+    void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long heartbeatInterval = hub.getHeartbeatInterval();
+                selector.select(heartbeatInterval > 0 ? Math.max(100, heartbeatInterval / 2) : 0);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key, (EventStreamSubscriber) key.attachment());
+                }
+
+                if (heartbeatInterval > 0) {
+                    heartbeat(heartbeatInterval);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.error("Event stream loop failed: " + e.getMessage());
+        } finally {
+            for (EventStreamSubscriber subscriber : allSubscribers()) {
+                subscriber.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void handle(SelectionKey key, EventStreamSubscriber subscriber) {
+        try {
+            if (key.isValid() && key.isWritable()) {
+                subscriber.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                subscriber.onReadable();
+            }
+        } catch (IOException e) {
+            subscriber.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Event stream task failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * A comment line on every stream once per interval keeps proxies from timing it out
+     */
+    private void heartbeat(long heartbeatInterval) {
+        long now = System.currentTimeMillis();
+        if (now - lastHeartbeat < heartbeatInterval) {
+            return;
+        }
+        lastHeartbeat = now;
+        for (EventStreamSubscriber subscriber : allSubscribers()) {
+            subscriber.enqueue(HEARTBEAT.duplicate());
+        }
+    }
+
+    private List<EventStreamSubscriber> allSubscribers() {
+        List<EventStreamSubscriber> all = new ArrayList<>(subscriberCount.get());
+        for (Set<EventStreamSubscriber> subscribers : byPath.values()) {
+            all.addAll(subscribers);
+        }
+        return all;
+    }
+
+    /**
+     * Subscriber counts per path, read on the loop thread
+     */
+    Map<String, Integer> countByPath() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Set<EventStreamSubscriber>> entry : byPath.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+}
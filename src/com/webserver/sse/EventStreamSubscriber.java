@@ -0,0 +1,151 @@
+package com.webserver.sse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * One open event stream, owned by a single event loop thread.
+ * Outbound buffers are shared with every other subscriber of the path; only a
+ * duplicate's position is consumed here. Clients send nothing after the
+ * request, so reads only detect that the peer went away.
+ */
+class EventStreamSubscriber {
+    private static final int MAX_GATHER = 16;
+
+    private final SocketChannel channel;
+    private final EventStreamLoop loop;
+    private final String path;
+    private final String remoteAddress;
+    private final Runnable onClose;
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+    private SelectionKey key;
+    private long queuedBytes;
+    private long lastEventId;
+    private boolean closed;
+
+    EventStreamSubscriber(SocketChannel channel, EventStreamLoop loop, String path, String remoteAddress,
+                          long lastEventId, Runnable onClose) {
+        this.channel = channel;
+        this.loop = loop;
+        this.path = path;
+        this.remoteAddress = remoteAddress;
+        this.lastEventId = lastEventId;
+        this.onClose = onClose;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    String getPath() { return path; }
+
+    /**
+     * Queue an event unless the client already has it (replay and live delivery can overlap)
+     */
+    void send(EventChannel.Event event) {
+        if (event.id <= lastEventId) {
+            return;
+        }
+        lastEventId = event.id;
+        enqueue(event.bytes.duplicate());
+    }
+
+    /**
+     * Queue a buffer and write as much as the socket takes now
+     */
+    void enqueue(ByteBuffer buffer) {
+        if (closed) {
+            return;
+        }
+        if (queuedBytes + buffer.remaining() > loop.getMaxQueuedBytes()) {
+            loop.recordSlowConsumer(this);
+            close();
+            return;
+        }
+        outbound.add(buffer);
+        queuedBytes += buffer.remaining();
+        flush();
+    }
+
+    /**
+     * Gathering write of queued buffers; registers for OP_WRITE if the socket is full
+     */
+    void flush() {
+        try {
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : outbound) {
+                    gather[count++] = buffer;
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                long written = channel.write(gather, 0, count);
+                queuedBytes -= written;
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    outbound.poll();
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+        if (key != null && key.isValid()) {
+            int ops = outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    /**
+     * Drain and ignore anything the client sends; end of stream means it disconnected
+     */
+    void onReadable() throws IOException {
+        int n;
+        do {
+            discard.clear();
+            n = channel.read(discard);
+        } while (n > 0);
+        if (n < 0) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+        queuedBytes = 0;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        loop.remove(this);
+        if (onClose != null) {
+            onClose.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EventStream{%s %s, queued=%d}", remoteAddress, path, queuedBytes);
+    }
+}
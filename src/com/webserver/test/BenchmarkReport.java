@@ -0,0 +1,313 @@
+package com.webserver.test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * JSON results for BenchmarkRunner and the comparison against a baseline.
+ * The file holds run metadata plus one object of numeric metrics per scenario,
+ * so a results file from a known-good build can be kept as the baseline.
+ */
+final class BenchmarkReport {
+
+    /**
+     * Metrics checked against the baseline: +1 where higher is better, -1 where lower is better
+     */
+    private static final Map<String, Integer> DIRECTIONS = new LinkedHashMap<>();
+    static {
+        DIRECTIONS.put("throughput", 1);
+        DIRECTIONS.put("p50Ms", -1);
+        DIRECTIONS.put("p99Ms", -1);
+        DIRECTIONS.put("cpuMicrosPerRequest", -1);
+        DIRECTIONS.put("allocBytesPerRequest", -1);
+        DIRECTIONS.put("errors", -1);
+        DIRECTIONS.put("errorRate", -1);
+    }
+
+    /**
+     * Metrics where any move in the wrong direction is a regression, whatever the tolerance
+     */
+    private static final Set<String> STRICT = Set.of("errors", "errorRate");
+
+    private BenchmarkReport() {
+    }
+
+    static String formatMetrics(String scenario, Map<String, Double> metrics) {
+        return String.format("%-9s %9.0f req/s  p50 %7.3f ms  p90 %7.3f ms  p99 %7.3f ms  max %8.3f ms  "
+                + "cpu %7.1f us/req  alloc %9.0f B/req  errors %.0f", scenario, metrics.get("throughput"),
+            metrics.get("p50Ms"), metrics.get("p90Ms"), metrics.get("p99Ms"), metrics.get("maxMs"),
+            metrics.get("cpuMicrosPerRequest"), metrics.get("allocBytesPerRequest"), metrics.get("errors"));
+    }
+
+    static void write(File file, Map<String, Object> settings, Map<String, Map<String, Double>> results)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"java\": \"").append(escape(System.getProperty("java.version"))).append("\",\n");
+        json.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"settings\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            json.append(separator).append("    \"").append(escape(setting.getKey())).append("\": \"")
+                .append(escape(String.valueOf(setting.getValue()))).append('"');
+            separator = ",\n";
+        }
+        json.append(settings.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"scenarios\": {");
+        separator = "\n";
+        for (Map.Entry<String, Map<String, Double>> scenario : results.entrySet()) {
+            json.append(separator).append("    \"").append(escape(scenario.getKey())).append("\": {");
+            String metricSeparator = "\n";
+            for (Map.Entry<String, Double> metric : scenario.getValue().entrySet()) {
+                json.append(metricSeparator).append("      \"").append(escape(metric.getKey())).append("\": ")
+                    .append(String.format(Locale.ROOT, "%.4f", metric.getValue()));
+                metricSeparator = ",\n";
+            }
+            json.append("\n    }");
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        Files.write(file.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Scenario metrics from a results file
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<String, Double>> read(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Object root = new JsonParser(text).parse();
+        if (!(root instanceof Map) || !(((Map<String, Object>) root).get("scenarios") instanceof Map)) {
+            throw new IOException("Not a benchmark results file: " + file);
+        }
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        Map<String, Object> scenarios = (Map<String, Object>) ((Map<String, Object>) root).get("scenarios");
+        for (Map.Entry<String, Object> scenario : scenarios.entrySet()) {
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> metric : ((Map<String, Object>) scenario.getValue()).entrySet()) {
+                if (metric.getValue() instanceof Double) {
+                    metrics.put(metric.getKey(), (Double) metric.getValue());
+                }
+            }
+            results.put(scenario.getKey(), metrics);
+        }
+        return results;
+    }
+
+    /**
+     * Print every compared metric and return the ones that regressed beyond the tolerance
+     */
+    static List<String> compare(Map<String, Map<String, Double>> baseline, Map<String, Map<String, Double>> current,
+                                double tolerance, PrintStream out) {
+        List<String> regressions = new ArrayList<>();
+        out.println("\nComparison with baseline:");
+        for (Map.Entry<String, Map<String, Double>> scenario : current.entrySet()) {
+            Map<String, Double> base = withErrorRate(baseline.get(scenario.getKey()));
+            if (base == null) {
+                out.println(String.format("  %-9s not in baseline", scenario.getKey()));
+                continue;
+            }
+            Map<String, Double> metrics = withErrorRate(scenario.getValue());
+            for (Map.Entry<String, Integer> metric : DIRECTIONS.entrySet()) {
+                Double before = base.get(metric.getKey());
+                Double after = metrics.get(metric.getKey());
+                if (before == null || after == null) {
+                    continue;
+                }
+                // From a zero baseline there is no relative change; any move counts in full
+                double change = before != 0 ? (after - before) / before
+                    : Math.signum(after - before) * Double.POSITIVE_INFINITY;
+                double allowed = STRICT.contains(metric.getKey()) ? 0 : tolerance;
+                boolean regressed = metric.getValue() > 0 ? change < -allowed : change > allowed;
+                String line = String.format("%-9s %-21s %12.4f -> %12.4f  %8s", scenario.getKey(),
+                    metric.getKey(), before, after,
+                    Double.isInfinite(change) ? "from 0" : String.format("%+7.1f%%", change * 100));
+                out.println("  " + line + (regressed ? "  REGRESSION" : ""));
+                if (regressed) {
+                    regressions.add(line);
+                }
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * A copy of the metrics with errorRate, the share of attempts that failed, added
+     */
+    private static Map<String, Double> withErrorRate(Map<String, Double> metrics) {
+        if (metrics == null) {
+            return null;
+        }
+        Map<String, Double> result = new LinkedHashMap<>(metrics);
+        Double requests = metrics.get("requests");
+        Double errors = metrics.get("errors");
+        if (requests != null && errors != null) {
+            double attempts = requests + errors;
+            result.put("errorRate", attempts > 0 ? errors / attempts : 0);
+        }
+        return result;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Just enough JSON for results files and JSON access logs: objects, arrays, strings, numbers, booleans and null
+     */
+    static final class JsonParser {
+        private final String text;
+        private int pos;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Object parse() throws IOException {
+            Object value = value();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("Trailing content");
+            }
+            return value;
+        }
+
+        private Object value() throws IOException {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end");
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                return object();
+            } else if (c == '[') {
+                return array();
+            } else if (c == '"') {
+                return string();
+            } else if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            } else if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            return number();
+        }
+
+        private Map<String, Object> object() throws IOException {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                map.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() throws IOException {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() throws IOException {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c == '\\' && pos < text.length()) {
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'u':
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: sb.append(escaped);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Double number() throws IOException {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Invalid value");
+            }
+        }
+
+        private char peek() throws IOException {
+            if (pos >= text.length()) {
+                throw error("Unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at offset " + pos);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package com.webserver.test;
+
+import com.webserver.WebServer;
+import com.webserver.core.ServerConfig;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * End-to-end benchmark suite.
+ * Starts a WebServer in this JVM on an ephemeral port over a generated document
+ * root, drives each scenario with keep-alive client threads, and writes
+ * throughput, latency percentiles and server-side CPU and allocation per request
+ * to a JSON file. Given a baseline from an earlier run, it lists every metric
+ * that got worse by more than the tolerance and exits with status 1.
+ *
+ * Usage: java -cp bin com.webserver.test.BenchmarkRunner [--option value ...]
+ *   --scenarios        comma-separated subset of small,large,notfound,listing,idle (default: all)
+ *   --duration         seconds measured per scenario (10)
+ *   --warmup           seconds run before measuring each scenario (3)
+ *   --clients          concurrent keep-alive connections (16)
+ *   --small-files      number of small files (500)
+ *   --small-min        smallest small file in bytes, sizes are log-uniform (256)
+ *   --small-max        largest small file in bytes (32768)
+ *   --large-files      number of large files (4)
+ *   --large-size       bytes per large file (8388608)
+ *   --listing-entries  entries in the listed directory (200)
+ *   --idle             idle connections held open during the idle scenario (32)
+ *   --seed             random seed for the generated files (42)
+ *   --server-config    properties file for the server, e.g. config.properties
+ *   --out              results file (benchmark-results.json)
+ *   --baseline         results file to compare against
+ *   --tolerance        allowed relative regression per metric (0.10)
+ */
+public class BenchmarkRunner {
+    private static final String HOST = "localhost";
+    private static final String THREAD_PREFIX = "Bench-";
+    private static final List<String> ALL_SCENARIOS = List.of("small", "large", "notfound", "listing", "idle");
+
+    private final Map<String, String> options;
+    private final int smallFiles;
+    private final int largeFiles;
+    private int port;
+
+    private BenchmarkRunner(Map<String, String> options) {
+        this.options = options;
+        this.smallFiles = intOption("small-files", 500);
+        this.largeFiles = intOption("large-files", 4);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument: " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        try {
+            int status = new BenchmarkRunner(options).run();
+            System.exit(status);
+        } catch (Exception e) {
+            System.err.println("Benchmark failed: " + e);
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    private int run() throws Exception {
+        System.out.println("Web Server Benchmark Suite");
+        System.out.println("==========================\n");
+
+        Path root = Files.createTempDirectory("webserver-bench");
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        try {
+            generateDocumentRoot(root);
+            WebServer server = new WebServer(serverConfig(root));
+            server.start();
+            port = server.getLocalPort();
+            System.out.println(String.format("Server listening on port %d, document root %s\n", port, root));
+            try {
+                for (String scenario : scenarios()) {
+                    Map<String, Double> metrics = runScenario(scenario);
+                    results.put(scenario, metrics);
+                    System.out.println(BenchmarkReport.formatMetrics(scenario, metrics));
+                }
+            } finally {
+                server.shutdown();
+            }
+        } finally {
+            deleteRecursively(root);
+        }
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(options.keySet())) {
+            settings.put(key, options.get(key));
+        }
+        File out = new File(options.getOrDefault("out", "benchmark-results.json"));
+        BenchmarkReport.write(out, settings, results);
+        System.out.println("\nResults written to " + out);
+
+        String baseline = options.get("baseline");
+        if (baseline == null) {
+            return 0;
+        }
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.10"));
+        List<String> regressions = BenchmarkReport.compare(BenchmarkReport.read(new File(baseline)), results,
+            tolerance, System.out);
+        if (regressions.isEmpty()) {
+            System.out.println(String.format("\nNo regressions beyond %.0f%% against %s", tolerance * 100, baseline));
+            return 0;
+        }
+        System.out.println(String.format("\n%d regression(s) beyond %.0f%% against %s:", regressions.size(),
+            tolerance * 100, baseline));
+        for (String regression : regressions) {
+            System.out.println("  " + regression);
+        }
+        return 1;
+    }
+
+    private List<String> scenarios() {
+        String selected = options.get("scenarios");
+        if (selected == null) {
+            return ALL_SCENARIOS;
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : selected.split(",")) {
+            name = name.trim();
+            if (!ALL_SCENARIOS.contains(name)) {
+                throw new IllegalArgumentException("Unknown scenario " + name + ", expected one of " + ALL_SCENARIOS);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Benchmark defaults, then the optional server config file, then the settings
+     * the benchmark cannot run without
+     */
+    private ServerConfig serverConfig(Path root) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("keepAlive.enabled", "true");
+        props.setProperty("keepAlive.maxRequests", "1000000");
+        props.setProperty("threadPool.maxSize", "200");
+        String serverConfig = options.get("server-config");
+        if (serverConfig != null) {
+            try (InputStream in = new FileInputStream(serverConfig)) {
+                props.load(in);
+            }
+        }
+        props.setProperty("server.port", "0");
+        props.setProperty("server.documentRoot", root.toString());
+        props.setProperty("log.level", "WARN");
+        props.setProperty("accessLog.enabled", "false");
+        props.setProperty("config.watch", "false");
+        props.setProperty("warmup.enabled", "false");
+
+        File file = root.resolveSibling(root.getFileName() + ".properties").toFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "Generated by BenchmarkRunner");
+        }
+        try {
+            return ServerConfig.load(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Small files with log-uniform sizes, a few large files and a directory without an index page
+     */
+    private void generateDocumentRoot(Path root) throws IOException {
+        Random random = new Random(longOption("seed", 42));
+        int smallMin = intOption("small-min", 256);
+        int smallMax = intOption("small-max", 32768);
+        long largeSize = longOption("large-size", 8L * 1024 * 1024);
+
+        Files.write(root.resolve("index.html"),
+            "<html><body>Benchmark</body></html>".getBytes(StandardCharsets.UTF_8));
+        Path small = Files.createDirectory(root.resolve("small"));
+        long smallBytes = 0;
+        for (int i = 0; i < smallFiles; i++) {
+            double logSize = Math.log(smallMin) + random.nextDouble() * (Math.log(smallMax) - Math.log(smallMin));
+            byte[] content = new byte[(int) Math.exp(logSize)];
+            random.nextBytes(content);
+            Files.write(small.resolve("f" + i + ".bin"), content);
+            smallBytes += content.length;
+        }
+
+        Path large = Files.createDirectory(root.resolve("large"));
+        byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < largeFiles; i++) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(large.resolve("f" + i + ".bin")))) {
+                for (long written = 0; written < largeSize; written += chunk.length) {
+                    random.nextBytes(chunk);
+                    out.write(chunk, 0, (int) Math.min(chunk.length, largeSize - written));
+                }
+            }
+        }
+
+        Path listing = Files.createDirectory(root.resolve("listing"));
+        int entries = intOption("listing-entries", 200);
+        for (int i = 0; i < entries; i++) {
+            Files.write(listing.resolve(String.format("entry-%04d.txt", i)), new byte[0]);
+        }
+        System.out.println(String.format("Generated %d small files (%d KB), %d large files of %d MB, %d listing entries",
+            smallFiles, smallBytes / 1024, largeFiles, largeSize / (1024 * 1024), entries));
+    }
+
+    private Map<String, Double> runScenario(String scenario) throws Exception {
+        int clients = intOption("clients", 16);
+        IntFunction<String> paths;
+        switch (scenario) {
+            case "small":
+            case "idle":
+                paths = n -> "/small/f" + n % smallFiles + ".bin";
+                break;
+            case "large":
+                paths = n -> "/large/f" + n % Math.max(1, largeFiles) + ".bin";
+                clients = Math.min(clients, 4);
+                break;
+            case "notfound":
+                paths = n -> "/missing/page-" + n + ".html";
+                break;
+            default:
+                paths = n -> "/listing";
+                break;
+        }
+
+        List<Socket> idleConnections = new ArrayList<>();
+        try {
+            if ("idle".equals(scenario)) {
+                int idle = intOption("idle", 32);
+                for (int i = 0; i < idle; i++) {
+                    idleConnections.add(openIdleConnection());
+                }
+            }
+            Map<String, Double> metrics = drive(clients, paths);
+            if (!idleConnections.isEmpty()) {
+                metrics.put("idleConnections", (double) idleConnections.size());
+            }
+            return metrics;
+        } finally {
+            for (Socket socket : idleConnections) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * A keep-alive connection that has served one request and then just sits there
+     */
+    private Socket openIdleConnection() throws IOException {
+        Socket socket = new Socket(HOST, port);
+        HttpConnection connection = new HttpConnection(socket, HOST);
+        connection.request("GET", "/index.html");
+        return socket;
+    }
+
+    /**
+     * Run clients through warm-up and the measured window; returns the scenario's metrics
+     */
+    private Map<String, Double> drive(int clients, IntFunction<String> paths) throws Exception {
+        long warmupMillis = longOption("warmup", 3) * 1000;
+        long durationMillis = longOption("duration", 10) * 1000;
+        ClientState state = new ClientState();
+        CountDownLatch done = new CountDownLatch(clients);
+        List<LatencyRecorder> recorders = new ArrayList<>();
+
+        for (int i = 0; i < clients; i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            Thread client = new Thread(() -> {
+                try {
+                    runClient(state, paths, recorder);
+                } finally {
+                    done.countDown();
+                }
+            }, THREAD_PREFIX + "Client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+
+        Thread.sleep(warmupMillis);
+        Map<Long, long[]> before = serverThreadUsage();
+        long start = System.nanoTime();
+        state.measuring = true;
+        Thread.sleep(durationMillis);
+        state.measuring = false;
+        long elapsedNanos = System.nanoTime() - start;
+        Map<Long, long[]> after = serverThreadUsage();
+        state.running = false;
+        done.await();
+
+        long[] latencies = LatencyRecorder.merge(recorders);
+        long requests = latencies.length;
+        long cpuNanos = 0;
+        long allocated = 0;
+        for (Map.Entry<Long, long[]> thread : after.entrySet()) {
+            long[] previous = before.getOrDefault(thread.getKey(), new long[2]);
+            cpuNanos += Math.max(0, thread.getValue()[0] - previous[0]);
+            allocated += Math.max(0, thread.getValue()[1] - previous[1]);
+        }
+
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        metrics.put("requests", (double) requests);
+        metrics.put("errors", (double) state.errors.get());
+        metrics.put("throughput", requests * 1e9 / elapsedNanos);
+        metrics.put("p50Ms", percentile(latencies, 0.50));
+        metrics.put("p90Ms", percentile(latencies, 0.90));
+        metrics.put("p99Ms", percentile(latencies, 0.99));
+        metrics.put("maxMs", latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0);
+        metrics.put("cpuMicrosPerRequest", requests > 0 ? cpuNanos / 1e3 / requests : 0);
+        metrics.put("allocBytesPerRequest", requests > 0 ? (double) allocated / requests : 0);
+        return metrics;
+    }
+
+    private static final class ClientState {
+        volatile boolean running = true;
+        volatile boolean measuring;
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private void runClient(ClientState state, IntFunction<String> paths, LatencyRecorder recorder) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpConnection connection = null;
+        while (state.running) {
+            try {
+                if (connection == null) {
+                    connection = new HttpConnection(new Socket(HOST, port), HOST);
+                }
+                long begin = System.nanoTime();
+                int status = connection.request("GET", paths.apply(random.nextInt(Integer.MAX_VALUE)));
+                long latency = System.nanoTime() - begin;
+                if (state.measuring) {
+                    if (status >= 500) {
+                        state.errors.incrementAndGet();
+                    } else {
+                        recorder.record(latency);
+                    }
+                }
+                if (!connection.isKeepAlive()) {
+                    connection.close();
+                    connection = null;
+                }
+            } catch (IOException e) {
+                if (state.measuring) {
+                    state.errors.incrementAndGet();
+                }
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
+                }
+            }
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Per-client latency samples in nanoseconds; merged and sorted once at the end
+     */
+    static final class LatencyRecorder {
+        private long[] samples = new long[1 << 14];
+        private int count;
+
+        void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        static long[] merge(List<LatencyRecorder> recorders) {
+            int total = 0;
+            for (LatencyRecorder recorder : recorders) {
+                total += recorder.count;
+            }
+            long[] all = new long[total];
+            int pos = 0;
+            for (LatencyRecorder recorder : recorders) {
+                System.arraycopy(recorder.samples, 0, all, pos, recorder.count);
+                pos += recorder.count;
+            }
+            Arrays.sort(all);
+            return all;
+        }
+    }
+
+    static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    /**
+     * CPU time and allocated bytes of every live thread except the benchmark's own
+     */
+    private static Map<Long, long[]> serverThreadUsage() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        Map<Long, long[]> usage = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || infos[i].getThreadName().startsWith(THREAD_PREFIX)
+                    || "main".equals(infos[i].getThreadName())) {
+                continue;
+            }
+            usage.put(ids[i], new long[] {threads.getThreadCpuTime(ids[i]), allocated[i]});
+        }
+        return usage;
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    private long longOption(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+}
@@ -0,0 +1,146 @@
+package com.webserver.test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal keep-alive HTTP/1.1 client connection for the load tools.
+ * Sends one request at a time and consumes the response body, framed by
+ * Content-Length or chunked encoding, without keeping it. A response that
+ * cannot be parsed is an IOException, so callers count it as an error.
+ */
+final class HttpConnection implements Closeable {
+    private final Socket socket;
+    private final String host;
+    private final OutputStream out;
+    private final BufferedInputStream in;
+    private boolean keepAlive = true;
+
+    /**
+     * @param host value for the Host header
+     */
+    HttpConnection(Socket socket, String host) throws IOException {
+        this.socket = socket;
+        this.host = host;
+        socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+    }
+
+    /**
+     * False once the server said it will close the connection
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Send a request without a body and consume the response; returns the status code
+     */
+    int request(String method, String path) throws IOException {
+        out.write((method + " " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: keep-alive\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        String statusLine = readLine();
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before the response");
+        }
+        if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        int status = (int) parseNumber(statusLine.substring(9, 12), 10, "status code");
+        long contentLength = -1;
+        boolean chunked = false;
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = parseNumber(value, 10, "Content-Length");
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = !value.equalsIgnoreCase("close");
+            }
+        }
+
+        if ("HEAD".equalsIgnoreCase(method) || status == 204 || status == 304) {
+            return status;
+        }
+        if (chunked) {
+            skipChunks();
+        } else if (contentLength >= 0) {
+            in.skipNBytes(contentLength);
+        } else {
+            // Body runs to end of stream
+            keepAlive = false;
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return status;
+    }
+
+    private void skipChunks() throws IOException {
+        while (true) {
+            String sizeLine = readLine();
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            int semicolon = sizeLine.indexOf(';');
+            long size = parseNumber((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16,
+                "chunk size");
+            if (size == 0) {
+                // Trailers end with an empty line
+                String trailer;
+                while ((trailer = readLine()) != null && !trailer.isEmpty()) {
+                    // Ignore
+                }
+                return;
+            }
+            in.skipNBytes(size);
+            readLine();
+        }
+    }
+
+    /**
+     * A non-negative number from the response, or an IOException naming the bad field
+     */
+    private static long parseNumber(String text, int radix, String field) throws IOException {
+        try {
+            long value = Long.parseLong(text, radix);
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IOException("Malformed " + field + ": " + text);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = sb.length();
+                return length > 0 && sb.charAt(length - 1) == '\r' ? sb.substring(0, length - 1) : sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.webserver.test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays an access log against a running server.
+ * Reads the server's own access log (common, combined or json) or any Common
+ * Log Format file, keeps the GET and HEAD requests, and sends them over a pool
+ * of keep-alive connections at their original inter-arrival times divided by
+ * the speed factor. Latency is measured from each request's scheduled time, so
+ * time spent queued behind busy connections counts, and is reported per URI class.
+ *
+ * CLF timestamps have one-second resolution; requests logged in the same second
+ * are spread evenly across it.
+ *
+ * Usage: java -cp bin com.webserver.test.LogReplay --log access.log [--option value ...]
+ *   --log          access log to replay (required)
+ *   --host         server host (localhost)
+ *   --port         server port (8080)
+ *   --connections  concurrent keep-alive connections (32)
+ *   --speed        time scale; 2 replays twice as fast, 0 sends as fast as the connections allow (1)
+ *   --limit        replay at most this many requests, 0 for all (0)
+ *   --timeout      connect and read timeout in milliseconds (10000)
+ *   --classes      comma-separated name=regex on the path, first match wins (default: by file extension)
+ *   --out          results file in the BenchmarkRunner format
+ *   --baseline     results file to compare against
+ *   --tolerance    allowed relative regression per metric (0.10)
+ */
+public class LogReplay {
+    private static final String THREAD_PREFIX = "Replay-";
+    private static final DateTimeFormatter CLF_TIME =
+        DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+    private static final Pattern CLF_LINE =
+        Pattern.compile("^\\S+ \\S+ \\S+ \\[([^\\]]+)\\] \"(\\S+) (\\S+)(?: [^\"]*)?\" (\\d{3}) \\S+.*$");
+    private static final Pattern HEX_ESCAPE = Pattern.compile("\\\\x([0-9a-fA-F]{2})");
+
+    private final Map<String, String> options;
+    private final String host;
+    private final int port;
+    private final int timeout;
+    private final Map<String, Pattern> classes = new LinkedHashMap<>();
+    private long unparseable;
+    private long unsupportedMethod;
+
+    /**
+     * One logged request; offset is milliseconds after the first record
+     */
+    private static final class Record {
+        final long offsetMillis;
+        final String method;
+        final String uri;
+        final int loggedStatus;
+        final String uriClass;
+
+        Record(long offsetMillis, String method, String uri, int loggedStatus, String uriClass) {
+            this.offsetMillis = offsetMillis;
+            this.method = method;
+            this.uri = uri;
+            this.loggedStatus = loggedStatus;
+            this.uriClass = uriClass;
+        }
+    }
+
+    /**
+     * A record handed to a connection, with the time it was due
+     */
+    private static final class Task {
+        static final Task END = new Task(null, 0);
+
+        final Record record;
+        final long dueNanos;
+
+        Task(Record record, long dueNanos) {
+            this.record = record;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Per-connection results for one URI class; merged after the run
+     */
+    private static final class ClassStats {
+        final BenchmarkRunner.LatencyRecorder latencies = new BenchmarkRunner.LatencyRecorder();
+        long errors;
+        long statusMismatches;
+    }
+
+    private LogReplay(Map<String, String> options) {
+        this.options = options;
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        this.timeout = Integer.parseInt(options.getOrDefault("timeout", "10000"));
+        String spec = options.getOrDefault("classes", "");
+        for (String entry : spec.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals > 0) {
+                classes.put(entry.substring(0, equals).trim(), Pattern.compile(entry.substring(equals + 1).trim()));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument: " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("log")) {
+            System.err.println("Usage: java -cp bin com.webserver.test.LogReplay --log access.log [--option value ...]");
+            System.exit(2);
+        }
+
+        try {
+            System.exit(new LogReplay(options).run());
+        } catch (Exception e) {
+            System.err.println("Replay failed: " + e);
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    private int run() throws Exception {
+        System.out.println("Access Log Replay");
+        System.out.println("=================\n");
+
+        File log = new File(options.get("log"));
+        List<Record> records = readLog(log, Long.parseLong(options.getOrDefault("limit", "0")));
+        if (records.isEmpty()) {
+            System.err.println("No replayable requests in " + log);
+            return 2;
+        }
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "32"));
+        long span = records.get(records.size() - 1).offsetMillis;
+        System.out.println(String.format("%d requests from %s spanning %.1f s (%d unparseable, %d not GET/HEAD)",
+            records.size(), log, span / 1000.0, unparseable, unsupportedMethod));
+        System.out.println(String.format("Replaying against %s:%d over %d connections at %s\n", host, port,
+            connections, speed > 0 ? speed + "x" : "full speed"));
+
+        List<Map<String, ClassStats>> perConnection = new ArrayList<>();
+        AtomicLong lateStarts = new AtomicLong();
+        long elapsedNanos = replay(records, speed, connections, perConnection, lateStarts);
+
+        Map<String, Map<String, Double>> results = summarize(perConnection, elapsedNanos);
+        System.out.println(String.format("%-12s %8s %9s %9s %9s %9s %7s %9s", "class", "requests", "p50 ms",
+            "p90 ms", "p99 ms", "max ms", "errors", "mismatch"));
+        for (Map.Entry<String, Map<String, Double>> entry : results.entrySet()) {
+            Map<String, Double> metrics = entry.getValue();
+            System.out.println(String.format("%-12s %8.0f %9.3f %9.3f %9.3f %9.3f %7.0f %9.0f", entry.getKey(),
+                metrics.get("requests"), metrics.get("p50Ms"), metrics.get("p90Ms"), metrics.get("p99Ms"),
+                metrics.get("maxMs"), metrics.get("errors"), metrics.get("statusMismatches")));
+        }
+        Map<String, Double> all = results.get("all");
+        System.out.println(String.format("\n%.1f s elapsed, %.0f req/s achieved, %d requests started over 10 ms late",
+            elapsedNanos / 1e9, all.get("throughput"), lateStarts.get()));
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(options.keySet())) {
+            settings.put(key, options.get(key));
+        }
+        String out = options.get("out");
+        if (out != null) {
+            BenchmarkReport.write(new File(out), settings, results);
+            System.out.println("Results written to " + out);
+        }
+
+        String baseline = options.get("baseline");
+        if (baseline == null) {
+            return 0;
+        }
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.10"));
+        List<String> regressions = BenchmarkReport.compare(BenchmarkReport.read(new File(baseline)), results,
+            tolerance, System.out);
+        if (regressions.isEmpty()) {
+            System.out.println("\nNo regressions beyond " + Math.round(tolerance * 100) + "%");
+            return 0;
+        }
+        System.out.println(String.format("\n%d metric(s) regressed beyond %d%%", regressions.size(),
+            Math.round(tolerance * 100)));
+        return 1;
+    }
+
+    /**
+     * Replayable records in log order, with offsets relative to the first one
+     */
+    private List<Record> readLog(File file, long limit) throws IOException {
+        List<Long> times = new ArrayList<>();
+        List<String[]> requests = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && (limit <= 0 || requests.size() < limit)) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.startsWith("{") ? parseJson(line) : parseClf(line);
+                if (fields == null) {
+                    unparseable++;
+                    continue;
+                }
+                if (!fields[1].equals("GET") && !fields[1].equals("HEAD")) {
+                    unsupportedMethod++;
+                    continue;
+                }
+                if (!fields[2].startsWith("/") || fields[2].chars().anyMatch(c -> c <= ' ' || c > '~')) {
+                    unparseable++;
+                    continue;
+                }
+                try {
+                    times.add(ZonedDateTime.parse(fields[0], CLF_TIME).toInstant().toEpochMilli());
+                } catch (DateTimeParseException e) {
+                    unparseable++;
+                    continue;
+                }
+                requests.add(fields);
+            }
+        }
+
+        List<Record> records = new ArrayList<>(requests.size());
+        if (requests.isEmpty()) {
+            return records;
+        }
+        long first = times.get(0);
+        int i = 0;
+        while (i < requests.size()) {
+            // Spread each run of same-second records evenly over that second
+            int end = i;
+            while (end < requests.size() && times.get(end).equals(times.get(i))) {
+                end++;
+            }
+            int run = end - i;
+            for (int j = i; j < end; j++) {
+                String[] fields = requests.get(j);
+                long offset = Math.max(0, times.get(j) - first) + (j - i) * 1000L / run;
+                records.add(new Record(offset, fields[1], fields[2], Integer.parseInt(fields[3]),
+                    classify(fields[2])));
+            }
+            i = end;
+        }
+        // Clock steps backwards in the log would otherwise stall the schedule
+        records.sort(Comparator.comparingLong(record -> record.offsetMillis));
+        return records;
+    }
+
+    /**
+     * Time, method, URI and status from a common or combined line, or null
+     */
+    private static String[] parseClf(String line) {
+        Matcher m = CLF_LINE.matcher(line);
+        if (!m.matches()) {
+            return null;
+        }
+        return new String[] {m.group(1), unescape(m.group(2)), unescape(m.group(3)), m.group(4)};
+    }
+
+    /**
+     * Time, method, URI and status from a line of the server's json format, or null
+     */
+    @SuppressWarnings("unchecked")
+    private static String[] parseJson(String line) {
+        try {
+            Object parsed = new BenchmarkReport.JsonParser(line).parse();
+            if (!(parsed instanceof Map)) {
+                return null;
+            }
+            Map<String, Object> fields = (Map<String, Object>) parsed;
+            Object time = fields.get("time");
+            Object method = fields.get("method");
+            Object uri = fields.get("uri");
+            Object status = fields.get("status");
+            if (!(time instanceof String) || !(method instanceof String) || !(uri instanceof String)
+                    || !(status instanceof Double)) {
+                return null;
+            }
+            return new String[] {(String) time, (String) method, (String) uri,
+                String.valueOf(((Double) status).intValue())};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Undo the \xHH escaping AccessLog applies to quotes and non-printable characters
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        Matcher m = HEX_ESCAPE.matcher(value);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(
+                String.valueOf((char) Integer.parseInt(m.group(1), 16))));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * First matching --classes entry, otherwise the file extension; "dir" for a trailing slash
+     */
+    private String classify(String uri) {
+        int query = uri.indexOf('?');
+        String path = query >= 0 ? uri.substring(0, query) : uri;
+        for (Map.Entry<String, Pattern> entry : classes.entrySet()) {
+            if (entry.getValue().matcher(path).find()) {
+                return entry.getKey();
+            }
+        }
+        if (path.endsWith("/")) {
+            return "dir";
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "none";
+    }
+
+    /**
+     * Feed the records to the connection threads on schedule; returns the elapsed time
+     */
+    private long replay(List<Record> records, double speed, int connections,
+                        List<Map<String, ClassStats>> perConnection, AtomicLong lateStarts) throws Exception {
+        // At full speed a short queue keeps every connection busy without scheduling ahead
+        BlockingQueue<Task> queue = speed > 0 ? new LinkedBlockingQueue<>()
+            : new LinkedBlockingQueue<>(connections * 4);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Map<String, ClassStats> stats = new HashMap<>();
+            perConnection.add(stats);
+            Thread thread = new Thread(() -> runConnection(queue, stats, speed > 0, lateStarts),
+                THREAD_PREFIX + "Connection-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        for (Record record : records) {
+            long due = start;
+            if (speed > 0) {
+                due = start + (long) (record.offsetMillis * 1e6 / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            enqueue(queue, new Task(record, due), threads);
+        }
+        for (int i = 0; i < connections; i++) {
+            enqueue(queue, Task.END, threads);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Queue a task without blocking forever on a full queue if every connection thread has died
+     */
+    private static void enqueue(BlockingQueue<Task> queue, Task task, List<Thread> threads)
+            throws InterruptedException {
+        while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+            if (threads.stream().noneMatch(Thread::isAlive)) {
+                throw new IllegalStateException("Every replay connection stopped; see the errors above");
+            }
+        }
+    }
+
+    private void runConnection(BlockingQueue<Task> queue, Map<String, ClassStats> stats, boolean timed,
+                               AtomicLong lateStarts) {
+        HttpConnection connection = null;
+        try {
+            while (true) {
+                Task task = queue.take();
+                if (task == Task.END) {
+                    break;
+                }
+                Record record = task.record;
+                ClassStats classStats = stats.computeIfAbsent(record.uriClass, c -> new ClassStats());
+                long begin = System.nanoTime();
+                if (timed && begin - task.dueNanos > TimeUnit.MILLISECONDS.toNanos(10)) {
+                    lateStarts.incrementAndGet();
+                }
+                try {
+                    if (connection == null) {
+                        connection = connect();
+                    }
+                    int status = connection.request(record.method, record.uri);
+                    long end = System.nanoTime();
+                    if (status >= 500) {
+                        classStats.errors++;
+                    } else {
+                        classStats.latencies.record(end - (timed ? task.dueNanos : begin));
+                    }
+                    if (status != record.loggedStatus) {
+                        classStats.statusMismatches++;
+                    }
+                    if (!connection.isKeepAlive()) {
+                        connection.close();
+                        connection = null;
+                    }
+                } catch (IOException e) {
+                    classStats.errors++;
+                    if (connection != null) {
+                        connection.close();
+                        connection = null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private HttpConnection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            return new HttpConnection(socket, host);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Metrics per class in the BenchmarkRunner results layout, plus an "all" row
+     */
+    private static Map<String, Map<String, Double>> summarize(List<Map<String, ClassStats>> perConnection,
+                                                              long elapsedNanos) {
+        Map<String, List<BenchmarkRunner.LatencyRecorder>> recorders = new TreeMap<>();
+        Map<String, long[]> counts = new TreeMap<>();
+        for (Map<String, ClassStats> stats : perConnection) {
+            for (Map.Entry<String, ClassStats> entry : stats.entrySet()) {
+                for (String name : List.of(entry.getKey(), "all")) {
+                    recorders.computeIfAbsent(name, n -> new ArrayList<>()).add(entry.getValue().latencies);
+                    long[] count = counts.computeIfAbsent(name, n -> new long[2]);
+                    count[0] += entry.getValue().errors;
+                    count[1] += entry.getValue().statusMismatches;
+                }
+            }
+        }
+
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>(recorders.keySet());
+        // Totals last
+        names.remove("all");
+        names.add("all");
+        for (String name : names) {
+            long[] latencies = BenchmarkRunner.LatencyRecorder.merge(recorders.get(name));
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            metrics.put("requests", (double) latencies.length);
+            metrics.put("errors", (double) counts.get(name)[0]);
+            metrics.put("statusMismatches", (double) counts.get(name)[1]);
+            metrics.put("throughput", latencies.length * 1e9 / elapsedNanos);
+            metrics.put("p50Ms", BenchmarkRunner.percentile(latencies, 0.50));
+            metrics.put("p90Ms", BenchmarkRunner.percentile(latencies, 0.90));
+            metrics.put("p99Ms", BenchmarkRunner.percentile(latencies, 0.99));
+            metrics.put("maxMs", latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0);
+            results.put(name, metrics);
+        }
+        return results;
+    }
+}
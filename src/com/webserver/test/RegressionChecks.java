@@ -0,0 +1,1592 @@
+package com.webserver.test;
+
+import com.webserver.balancer.LoadBalancer;
+import com.webserver.cache.AssetManifest;
+import com.webserver.cache.FileCache;
+import com.webserver.cache.MicroCache;
+import com.webserver.cache.OffHeapStore;
+import com.webserver.cluster.CacheCluster;
+import com.webserver.core.BandwidthShaper;
+import com.webserver.core.ServerConfig;
+import com.webserver.core.ShapedOutputStream;
+import com.webserver.http.HttpInput;
+import com.webserver.http.HttpRequest;
+import com.webserver.http.HttpResponse;
+import com.webserver.http.RequestBody;
+import com.webserver.sse.EventStreamHub;
+import com.webserver.util.AccessLog;
+import com.webserver.websocket.WebSocketConnection;
+import com.webserver.websocket.WebSocketFrame;
+import com.webserver.websocket.WebSocketHub;
+import com.webserver.websocket.WebSocketListener;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Regression checks for behavior that broke before: protocol framing, limits
+ * and deadlines. Server checks run against a running server (default
+ * localhost:8080); local checks drive the classes directly. A check whose
+ * feature is switched off on the server is skipped rather than failed.
+ *
+ * Usage: RegressionChecks [--host h] [--port p] [--unix socket-path] [--only substring]
+ *        [--large uri --write-timeout ms] [--events path [--max-connections n]]
+ *
+ * --large names a file of several times the socket buffers (e.g. 32 MB) and
+ * --write-timeout the server's timeout.write; the slow download check reads it
+ * for longer than that. Keep timeout.write low (a few seconds) for that run.
+ * --events names an sse.paths stream; the checks publish to it. --max-connections
+ * is the server's rateLimit.maxConnectionsPerClient, for the check that open
+ * streams keep their slots.
+ */
+public class RegressionChecks {
+    private static final int SOCKET_TIMEOUT = 10000;
+
+    private final String host;
+    private final int port;
+    private final String only;
+    private String unixSocketPath;
+    private String largeUri;
+    private long writeTimeout;
+    private String eventsPath;
+    private int maxConnections;
+    private int passed;
+    private int failed;
+    private int skipped;
+
+    /**
+     * A check body; throws to fail, or Skip if the server is not set up for it
+     */
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private static final class Skip extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Skip(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * @param only run only checks whose name contains this, or null for all
+     */
+    public RegressionChecks(String host, int port, String only) {
+        this.host = host;
+        this.port = port;
+        this.only = only;
+    }
+
+    /**
+     * The server's Unix domain socket; checks that need it are skipped without one
+     */
+    public RegressionChecks withUnixSocket(String path) {
+        this.unixSocketPath = path;
+        return this;
+    }
+
+    /**
+     * A large file on the server and its timeout.write, for the slow download check
+     */
+    public RegressionChecks withLargeFile(String uri, long writeTimeout) {
+        this.largeUri = uri;
+        this.writeTimeout = writeTimeout;
+        return this;
+    }
+
+    /**
+     * An event stream path on the server, for the Last-Event-ID checks
+     */
+    public RegressionChecks withEventStream(String path) {
+        this.eventsPath = path;
+        return this;
+    }
+
+    /**
+     * The server's rateLimit.maxConnectionsPerClient, for the slot check
+     */
+    public RegressionChecks withConnectionLimit(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = 8080;
+        String only = null;
+        String unixPath = null;
+        String largeUri = null;
+        long writeTimeout = 0;
+        String eventsPath = null;
+        int maxConnections = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--host": host = args[i + 1]; break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--only": only = args[i + 1]; break;
+                case "--unix": unixPath = args[i + 1]; break;
+                case "--large": largeUri = args[i + 1]; break;
+                case "--write-timeout": writeTimeout = Long.parseLong(args[i + 1]); break;
+                case "--events": eventsPath = args[i + 1]; break;
+                case "--max-connections": maxConnections = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        System.exit(new RegressionChecks(host, port, only).withUnixSocket(unixPath)
+            .withLargeFile(largeUri, writeTimeout).withEventStream(eventsPath).withConnectionLimit(maxConnections).run() ? 0 : 1);
+    }
+
+    /**
+     * Run every check; true if none failed
+     */
+    public boolean run() {
+        System.out.println(String.format("Regression checks against %s:%d%n", host, port));
+
+        check("HEAD has headers but no body, keep-alive stays in sync", this::headOverKeepAlive);
+        check("Unix socket peers are not trusted as loopback for /_admin/", this::unixSocketNotLoopback);
+        check("Slow download that keeps moving outlives timeout.write", this::slowDownloadCompletes);
+        check("Stalled download is closed by timeout.write", this::stalledDownloadCloses);
+        check("Last-Event-ID ahead of the stream (server restarted) gets new events", this::resumeAheadOfStream);
+        check("Open event streams hold their connection slots until they close", this::streamsHoldSlots);
+
+        // Local checks: no server needed
+        check("Load-tool client reports malformed responses as IOException", RegressionChecks::malformedResponses);
+        check("Endless chunk-size line is refused, not buffered", RegressionChecks::chunkLineLimit);
+        check("Trailer flood is refused", RegressionChecks::trailerLimit);
+        check("Chunked body within the limits still decodes", RegressionChecks::chunkedBodyDecodes);
+        check("Signed chunk size is refused", RegressionChecks::signedChunkSize);
+        check("Ambiguous Content-Length and Transfer-Encoding headers are refused", RegressionChecks::ambiguousFraming);
+        check("Small response is not delayed by the global bandwidth debt", RegressionChecks::smallResponseUnpaced);
+        check("Paced writer is seen as pacing, not stalled, while parked", RegressionChecks::pacingIsNotStall);
+        check("Balancer does not resend a POST the backend may have acted on", RegressionChecks::postNotResent);
+        check("Balancer retries a GET elsewhere and ejects a failing backend", RegressionChecks::balancerEjectsAndRetries);
+        check("Balancer drops headers named in Connection, both ways", RegressionChecks::connectionNominatedHeaders);
+        check("Proxied body is closed when the response head fails to write", RegressionChecks::bodyClosedOnFailedSend);
+        check("Micro-cache runs one computation per key for concurrent misses and stale hits", RegressionChecks::microCacheCoalescing);
+        check("File with a fingerprint-like name is served as is", RegressionChecks::literalFingerprintName);
+        check("Off-heap slot never reads bytes from a recycled segment", RegressionChecks::offHeapRecycling);
+        check("Config reload with a bad value changes nothing", RegressionChecks::reloadAllOrNothing);
+        check("Access log keeps its tail on close and escapes the remote host", RegressionChecks::accessLogTail);
+        check("WebSocket slots are reserved atomically and freed when onOpen fails", RegressionChecks::webSocketSlots);
+        check("WebSocket reassembles fragments, answers pings and completes the close handshake", RegressionChecks::webSocketFraming);
+        check("Event stream slots are reserved atomically and freed on close", RegressionChecks::eventStreamSlots);
+        check("Event stream replays from Last-Event-ID without gaps or duplicates", RegressionChecks::eventStreamReplay);
+        check("Benchmark comparison counts new errors as a regression", RegressionChecks::benchmarkErrors);
+        check("Cluster peer port serves member hosts only", RegressionChecks::clusterMembersOnly);
+        check("Cluster fetches bodies from their owner and skips a member that is down", RegressionChecks::clusterFetch);
+        check("File cache keeps at most cache.maxEntries files, dropping the least used", RegressionChecks::fileCacheBounded);
+
+        System.out.println(String.format("%nPassed: %d, failed: %d, skipped: %d", passed, failed, skipped));
+        return failed == 0;
+    }
+
+    private void check(String name, Check check) {
+        if (only != null && !name.toLowerCase(Locale.ROOT).contains(only.toLowerCase(Locale.ROOT))) {
+            return;
+        }
+        try {
+            check.run();
+            passed++;
+            System.out.println("PASS  " + name);
+        } catch (Skip e) {
+            skipped++;
+            System.out.println("SKIP  " + name + " (" + e.getMessage() + ")");
+        } catch (Exception | AssertionError e) {
+            failed++;
+            System.out.println("FAIL  " + name + ": " + e);
+        }
+    }
+
+    // ---- Server checks ----
+
+    private void headOverKeepAlive() throws Exception {
+        try (Raw conn = connect()) {
+            Response get = conn.exchange("GET /test.txt HTTP/1.1\r\nHost: x\r\n\r\n", false);
+            expect(get.status == 200, "GET /test.txt returned " + get.status);
+            Response head = conn.exchange("HEAD /test.txt HTTP/1.1\r\nHost: x\r\n\r\n", true);
+            expect(head.status == 200, "HEAD returned " + head.status);
+            expect(String.valueOf(get.body.length).equals(head.header("content-length")),
+                "HEAD Content-Length " + head.header("content-length") + " != GET body " + get.body.length);
+            // If HEAD had sent a body, this status line would be read from the middle of it
+            Response next = conn.exchange("GET /test.txt HTTP/1.1\r\nHost: x\r\n\r\n", false);
+            expect(next.status == 200, "request after HEAD returned " + next.status);
+        }
+    }
+
+    private void unixSocketNotLoopback() throws Exception {
+        if (unixSocketPath == null) {
+            throw new Skip("no --unix socket path given");
+        }
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(unixSocketPath));
+        try (Raw conn = new Raw(channel, Channels.newInputStream(channel), Channels.newOutputStream(channel))) {
+            Response admin = conn.exchange("GET /_admin/stats HTTP/1.1\r\nHost: x\r\n"
+                + "X-Forwarded-For: 203.0.113.7\r\n\r\n", false);
+            if (admin.status == 404) {
+                throw new Skip("admin endpoints disabled");
+            }
+            expect(admin.status == 403, "/_admin/stats over the Unix socket returned " + admin.status);
+        }
+    }
+
+    private void slowDownloadCompletes() throws Exception {
+        if (largeUri == null || writeTimeout <= 0) {
+            throw new Skip("needs --large and --write-timeout");
+        }
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(16 * 1024);
+        socket.connect(new InetSocketAddress(host, port));
+        socket.setSoTimeout((int) (writeTimeout * 4));
+        try (Raw conn = new Raw(socket, socket.getInputStream(), socket.getOutputStream())) {
+            conn.send("GET " + largeUri + " HTTP/1.1\r\nHost: x\r\n\r\n");
+            Response head = conn.read(true);
+            expect(head.status == 200, largeUri + " returned " + head.status);
+            long length = Long.parseLong(head.header("content-length"));
+
+            // Read at a pace that takes about twice the write timeout in total
+            long start = System.nanoTime();
+            long targetNanos = writeTimeout * 2_000_000L;
+            byte[] buf = new byte[8192];
+            long received = 0;
+            while (received < length) {
+                int n = conn.in.read(buf, 0, (int) Math.min(buf.length, length - received));
+                if (n < 0) {
+                    break;
+                }
+                received += n;
+                long due = start + targetNanos * received / length;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            expect(received == length, "connection cut after " + received + " of " + length + " bytes, "
+                + elapsed + " ms");
+            expect(elapsed > writeTimeout, "download finished in " + elapsed + " ms; use a larger file");
+        }
+    }
+
+    private void stalledDownloadCloses() throws Exception {
+        if (largeUri == null || writeTimeout <= 0) {
+            throw new Skip("needs --large and --write-timeout");
+        }
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(16 * 1024);
+        socket.connect(new InetSocketAddress(host, port));
+        socket.setSoTimeout((int) (writeTimeout * 4));
+        try (Raw conn = new Raw(socket, socket.getInputStream(), socket.getOutputStream())) {
+            conn.send("GET " + largeUri + " HTTP/1.1\r\nHost: x\r\n\r\n");
+            Response head = conn.read(true);
+            expect(head.status == 200, largeUri + " returned " + head.status);
+            long length = Long.parseLong(head.header("content-length"));
+            // Read nothing more until the deadline has had time to fire twice over
+            Thread.sleep(writeTimeout * 3);
+            long received;
+            try {
+                received = conn.in.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                return; // Reset by the server: closed as expected
+            }
+            expect(received < length, "stalled download was not cut off");
+        }
+    }
+
+    private void resumeAheadOfStream() throws Exception {
+        if (eventsPath == null) {
+            throw new Skip("needs --events");
+        }
+        try (Raw stream = connect(); Raw publisher = connect()) {
+            Response subscribed = stream.exchange("GET " + eventsPath + " HTTP/1.1\r\nHost: x\r\n"
+                + "Last-Event-ID: 999999999\r\n\r\n", true);
+            if (subscribed.status == 404) {
+                throw new Skip("event streams disabled");
+            }
+            expect(subscribed.status == 200, eventsPath + " returned " + subscribed.status);
+
+            String marker = "regress-" + System.nanoTime();
+            Response published = publisher.exchange("POST " + eventsPath + " HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: " + marker.length() + "\r\n\r\n" + marker, false);
+            expect(published.status == 200, "publish returned " + published.status);
+
+            // Read until the event arrives; heartbeats alone keep a stream stuck at the client's id open
+            long deadline = System.currentTimeMillis() + SOCKET_TIMEOUT;
+            String line;
+            while ((line = stream.readLine()) != null && System.currentTimeMillis() < deadline) {
+                if (line.equals("data: " + marker)) {
+                    return;
+                }
+            }
+            throw new AssertionError("event was not delivered");
+        }
+    }
+
+    private void streamsHoldSlots() throws Exception {
+        if (eventsPath == null || maxConnections <= 0) {
+            throw new Skip("needs --events and --max-connections");
+        }
+        // Connections from earlier checks may still be closing on the server
+        expect(awaitSlot() == 200, "no free connection slot before the check");
+        List<Raw> streams = new ArrayList<>();
+        try {
+            for (int i = 0; i < maxConnections; i++) {
+                Raw stream = connect();
+                streams.add(stream);
+                Response subscribed = stream.exchange("GET " + eventsPath + " HTTP/1.1\r\nHost: x\r\n\r\n", true);
+                if (subscribed.status == 404) {
+                    throw new Skip("event streams disabled");
+                }
+                expect(subscribed.status == 200, eventsPath + " returned " + subscribed.status);
+            }
+            try (Raw extra = connect()) {
+                Response over = extra.exchange("GET /test.txt HTTP/1.1\r\nHost: x\r\n\r\n", false);
+                expect(over.status == 429, "connection past the limit returned " + over.status);
+            }
+        } finally {
+            streams.forEach(Raw::close);
+        }
+
+        // The event loops notice the closed streams and give the slots back
+        int status = awaitSlot();
+        expect(status == 200, "after closing the streams a request returned " + status);
+    }
+
+    /**
+     * Status of a plain request, retried for up to two seconds while it is refused with 429
+     */
+    private int awaitSlot() throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        int status;
+        do {
+            Thread.sleep(100);
+            try (Raw conn = connect()) {
+                status = conn.exchange("GET /test.txt HTTP/1.1\r\nHost: x\r\n\r\n", false).status;
+            }
+        } while (status == 429 && System.currentTimeMillis() < deadline);
+        return status;
+    }
+
+    // ---- Local checks ----
+
+    private static void malformedResponses() throws Exception {
+        String[] responses = {
+            "HTTP/1.1 2x0 OK\r\nContent-Length: 0\r\n\r\n",
+            "garbage\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nContent-Length: -5\r\n\r\n",
+            "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+        };
+        for (String response : responses) {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                 Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+                 Socket peer = server.accept();
+                 HttpConnection connection = new HttpConnection(client, "x")) {
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                peer.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+                peer.shutdownOutput();
+                try {
+                    connection.request("GET", "/");
+                    throw new AssertionError("accepted " + response.trim());
+                } catch (IOException expected) {
+                    // Counted as an error by the load tools
+                }
+            }
+        }
+    }
+
+    private static void chunkLineLimit() throws Exception {
+        // A chunk extension that never ends; the old parser kept reading it into memory
+        String body = "1;ext=" + "x".repeat(1024 * 1024) + "\r\na\r\n0\r\n\r\n";
+        expectMalformedBody(body);
+    }
+
+    private static void trailerLimit() throws Exception {
+        StringBuilder body = new StringBuilder("1\r\na\r\n0\r\n");
+        for (int i = 0; i < 10000; i++) {
+            body.append("X-Trailer-").append(i).append(": v\r\n");
+        }
+        expectMalformedBody(body.append("\r\n").toString());
+    }
+
+    private static void chunkedBodyDecodes() throws Exception {
+        String body = "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nX-Checksum: 1\r\n\r\n";
+        try (HttpInput input = chunkedRequest(body)) {
+            HttpRequest request = HttpRequest.parse(input, HttpRequest.HeadLimits.DEFAULT,
+                RequestBody.Limits.DEFAULT);
+            byte[] decoded = request.getRequestBody().getInputStream().readAllBytes();
+            expect("hello world".equals(new String(decoded, StandardCharsets.ISO_8859_1)),
+                "decoded " + new String(decoded, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static void signedChunkSize() throws Exception {
+        expectMalformedBody("+5\r\nhello\r\n0\r\n\r\n");
+        expectMalformedBody("0x5\r\nhello\r\n0\r\n\r\n");
+    }
+
+    private static void ambiguousFraming() throws Exception {
+        expectRejectedHead("Content-Length : 5\r\n");
+        expectRejectedHead("Transfer-Encoding\t: chunked\r\n");
+        expectRejectedHead("Content-Length: 5\r\nContent-Length: 6\r\n");
+        expectRejectedHead("Transfer-Encoding: chunked\r\ntransfer-encoding: identity\r\n");
+
+        HttpRequest signed = parseHead("Content-Length: +5\r\n");
+        expect(!signed.isValid(), "Content-Length with a sign was accepted");
+        HttpRequest repeated = parseHead("Content-Length: 5\r\nContent-Length: 5\r\n");
+        expect(repeated.isValid(), "identical repeated Content-Length was refused");
+    }
+
+    private static void expectRejectedHead(String headers) throws Exception {
+        try {
+            parseHead(headers);
+            throw new AssertionError("accepted " + headers.trim());
+        } catch (HttpRequest.RejectedException expected) {
+            expect(expected.getRejection() == HttpRequest.Rejection.MALFORMED_HEADER,
+                "rejected as " + expected.getRejection());
+        }
+    }
+
+    private static HttpRequest parseHead(String headers) throws IOException {
+        String request = "POST /upload HTTP/1.1\r\nHost: x\r\n" + headers + "\r\nhello";
+        HttpInput input = new HttpInput(new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)), 8192);
+        return HttpRequest.parse(input, HttpRequest.HeadLimits.DEFAULT, RequestBody.Limits.DEFAULT);
+    }
+
+    private static void expectMalformedBody(String body) throws Exception {
+        try (HttpInput input = chunkedRequest(body)) {
+            HttpRequest request = HttpRequest.parse(input, HttpRequest.HeadLimits.DEFAULT,
+                RequestBody.Limits.DEFAULT);
+            request.getRequestBody().getInputStream().readAllBytes();
+            throw new AssertionError("body was accepted");
+        } catch (RequestBody.MalformedException expected) {
+            // Answered with 400
+        }
+    }
+
+    private static void smallResponseUnpaced() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("bandwidth.globalLimit", "65536");
+        props.setProperty("bandwidth.burst", "16384");
+        BandwidthShaper shaper = new BandwidthShaper(localConfig(props));
+
+        // A large response puts the global bucket into debt and keeps it there
+        ShapedOutputStream bulk = shaper.wrap(OutputStream.nullOutputStream());
+        bulk.beginResponse(null, 1024 * 1024);
+        Thread writer = new Thread(() -> {
+            try {
+                bulk.write(new byte[1024 * 1024]);
+            } catch (IOException e) {
+                // Interrupted below
+            }
+        });
+        writer.start();
+        try {
+            Thread.sleep(300);
+            ShapedOutputStream small = shaper.wrap(OutputStream.nullOutputStream());
+            small.beginResponse(null, 1000);
+            long start = System.nanoTime();
+            small.write(new byte[1000]);
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            expect(elapsed < 100, "1000-byte response waited " + elapsed + " ms behind the bulk transfer");
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+
+    private static void pacingIsNotStall() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("bandwidth.globalLimit", "16384");
+        props.setProperty("bandwidth.burst", "16384");
+        BandwidthShaper shaper = new BandwidthShaper(localConfig(props));
+
+        // 64 KB at 16 KB/s parks for seconds between chunks with no bytes moving
+        ShapedOutputStream bulk = shaper.wrap(OutputStream.nullOutputStream());
+        bulk.beginResponse(null, 64 * 1024);
+        Thread writer = new Thread(() -> {
+            try {
+                bulk.write(new byte[64 * 1024]);
+            } catch (IOException e) {
+                // Interrupted below
+            }
+        });
+        writer.start();
+        try {
+            Thread.sleep(300);
+            long written = bulk.getBytesWritten();
+            Thread.sleep(300);
+            expect(bulk.getBytesWritten() == written, "writer was not parked; bytes kept moving");
+            expect(bulk.isPacing(), "parked writer does not report pacing, so timeout.write would cut it off");
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+        expect(!bulk.isPacing(), "pacing flag left set after the writer stopped");
+    }
+
+    private static void connectionNominatedHeaders() throws Exception {
+        List<String> received = new ArrayList<>();
+        try (ServerSocket backend = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = backend.accept()) {
+                    BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        synchronized (received) {
+                            received.add(line.toLowerCase(Locale.ROOT));
+                        }
+                    }
+                    // X-Trace is listed after it appears, which is allowed
+                    socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nX-Trace: abc\r\nX-Kept: 1\r\n"
+                        + "Connection: keep-alive, X-Trace\r\nContent-Length: 2\r\n\r\nok")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                } catch (IOException e) {
+                    // Closed at the end of the check
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            Properties props = new Properties();
+            props.setProperty("balancer.backends", "127.0.0.1:" + backend.getLocalPort());
+            props.setProperty("balancer.healthInterval", "0");
+            LoadBalancer balancer = new LoadBalancer(localConfig(props));
+            HttpResponse response = balancer.forward(request("GET / HTTP/1.1\r\nHost: x\r\n"
+                + "Connection: X-Client-Hop\r\nX-Client-Hop: 1\r\nX-Client-Kept: 1\r\n\r\n"),
+                new HttpResponse(), "127.0.0.1");
+            response.send(OutputStream.nullOutputStream());
+
+            expect(response.getStatusCode() == 200, "GET through the balancer returned " + response.getStatusCode());
+            expect(response.getHeaders().get("x-trace") == null, "backend's nominated X-Trace was forwarded");
+            expect("1".equals(response.getHeaders().get("x-kept")), "end-to-end X-Kept was dropped");
+            synchronized (received) {
+                expect(received.stream().noneMatch(h -> h.startsWith("x-client-hop:")),
+                    "client's nominated X-Client-Hop reached the backend");
+                expect(received.stream().anyMatch(h -> h.startsWith("x-client-kept:")),
+                    "end-to-end X-Client-Kept did not reach the backend");
+            }
+        }
+    }
+
+    private static void bodyClosedOnFailedSend() {
+        AtomicInteger closes = new AtomicInteger();
+        InputStream body = new ByteArrayInputStream(new byte[1024]) {
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        };
+        HttpResponse response = new HttpResponse().setBodyStream(body, 1024);
+        // Longer than the write buffer, so the head reaches the socket before the body is read
+        response.addHeader("X-Padding", "x".repeat(64 * 1024));
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("client went away");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("client went away");
+            }
+        };
+        try {
+            response.send(broken);
+            throw new AssertionError("send to a broken stream succeeded");
+        } catch (IOException expected) {
+            // The head could not be written
+        }
+        expect(closes.get() == 1, "body stream closed " + closes.get() + " times");
+    }
+
+    private static void postNotResent() throws Exception {
+        AtomicInteger posts = new AtomicInteger();
+        try (ServerSocket backend = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            // Answers GETs with keep-alive; takes a POST and drops the connection without answering
+            Thread server = new Thread(() -> {
+                while (!backend.isClosed()) {
+                    try (Socket socket = backend.accept()) {
+                        BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            String method = line.split(" ")[0];
+                            long length = 0;
+                            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                                if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+                                    length = Long.parseLong(line.substring(15).trim());
+                                }
+                            }
+                            in.skip(length);
+                            if ("POST".equals(method)) {
+                                posts.incrementAndGet();
+                                break;
+                            }
+                            socket.getOutputStream().write(
+                                "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+                        }
+                    } catch (IOException e) {
+                        // Closed at the end of the check
+                    }
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            Properties props = new Properties();
+            props.setProperty("balancer.backends", "127.0.0.1:" + backend.getLocalPort());
+            props.setProperty("balancer.healthInterval", "0");
+            LoadBalancer balancer = new LoadBalancer(localConfig(props));
+
+            // A GET leaves a pooled keep-alive connection behind for the POST
+            HttpResponse warm = balancer.forward(request("GET / HTTP/1.1\r\nHost: x\r\n\r\n"),
+                new HttpResponse(), "127.0.0.1");
+            expect(warm.getStatusCode() == 200, "GET through the balancer returned " + warm.getStatusCode());
+            warm.send(OutputStream.nullOutputStream());
+
+            HttpResponse post = balancer.forward(request("POST /orders HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: 2\r\n\r\nhi"), new HttpResponse(), "127.0.0.1");
+            expect(posts.get() == 1, "backend received the POST " + posts.get() + " times");
+            expect(post.getStatusCode() == 502, "POST returned " + post.getStatusCode());
+        }
+    }
+
+    private static void balancerEjectsAndRetries() throws Exception {
+        AtomicInteger deadAccepts = new AtomicInteger();
+        try (ServerSocket dead = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+             ServerSocket live = new ServerSocket(0, 10, InetAddress.getLoopbackAddress())) {
+            serveBackend(dead, deadAccepts, null);
+            serveBackend(live, new AtomicInteger(), "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+            Properties props = new Properties();
+            props.setProperty("balancer.backends",
+                "127.0.0.1:" + dead.getLocalPort() + ",127.0.0.1:" + live.getLocalPort());
+            props.setProperty("balancer.healthInterval", "0");
+            props.setProperty("balancer.ejectAfter", "2");
+            props.setProperty("balancer.ejectDuration", "60000");
+            LoadBalancer balancer = new LoadBalancer(localConfig(props));
+
+            // Ties rotate between the backends, so the dead one is picked until it is ejected
+            for (int i = 0; i < 10; i++) {
+                HttpResponse response = balancer.forward(request("GET / HTTP/1.1\r\nHost: x\r\n\r\n"),
+                    new HttpResponse(), "127.0.0.1");
+                expect(response.getStatusCode() == 200,
+                    "GET " + i + " was not retried on the live backend: " + response.getStatusCode());
+                response.send(OutputStream.nullOutputStream());
+            }
+            expect(deadAccepts.get() == 2, "dead backend was tried " + deadAccepts.get() + " times, expected 2");
+            expect(balancer.describe().contains("127.0.0.1:" + dead.getLocalPort() + " ejected"),
+                "dead backend is not shown as ejected:\n" + balancer.describe());
+            balancer.stop();
+        }
+    }
+
+    /**
+     * Answer every request on every accepted connection with response, or close
+     * the connection at once if response is null
+     */
+    private static void serveBackend(ServerSocket backend, AtomicInteger accepts, String response) {
+        Thread acceptor = new Thread(() -> {
+            while (!backend.isClosed()) {
+                Socket socket;
+                try {
+                    socket = backend.accept();
+                } catch (IOException e) {
+                    return; // Closed at the end of the check
+                }
+                accepts.incrementAndGet();
+                Thread worker = new Thread(() -> {
+                    try (socket) {
+                        BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                        while (response != null && in.readLine() != null) {
+                            String line;
+                            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                                // Requests in these checks have no body
+                            }
+                            socket.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+                        }
+                    } catch (IOException e) {
+                        // Client went away
+                    }
+                });
+                worker.setDaemon(true);
+                worker.start();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void microCacheCoalescing() throws Exception {
+        MicroCache cache = new MicroCache(200, 60000, 100, "");
+        try {
+            // Concurrent misses share one computation
+            AtomicInteger loads = new AtomicInteger();
+            List<MicroCache.Snapshot> results = concurrentGets(cache, () -> {
+                loads.incrementAndGet();
+                return MicroCache.Snapshot.html("v1");
+            });
+            expect(loads.get() == 1, "16 concurrent misses ran the loader " + loads.get() + " times");
+            expect(results.stream().allMatch(r -> r == results.get(0)), "waiters got different snapshots");
+
+            // Once stale, every caller gets the old snapshot while a single refresh runs
+            Thread.sleep(300);
+            AtomicInteger refreshes = new AtomicInteger();
+            CountDownLatch refreshed = new CountDownLatch(1);
+            List<MicroCache.Snapshot> stale = concurrentGets(cache, () -> {
+                refreshes.incrementAndGet();
+                refreshed.countDown();
+                return MicroCache.Snapshot.html("v2");
+            });
+            expect(stale.stream().allMatch(r -> r == results.get(0)), "stale hits did not get the old snapshot");
+            expect(refreshed.await(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS), "stale entry was never refreshed");
+            expect(refreshes.get() == 1, "16 stale hits ran " + refreshes.get() + " refreshes");
+
+            // A failed computation fails its waiters and is not cached
+            AtomicInteger failures = new AtomicInteger();
+            AtomicInteger thrown = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch arrived = new CountDownLatch(16);
+            for (int i = 0; i < 16; i++) {
+                Thread thread = new Thread(() -> {
+                    arrived.countDown();
+                    try {
+                        cache.get("broken", () -> {
+                            failures.incrementAndGet();
+                            awaitQuietly(arrived);
+                            sleepQuietly(100);
+                            throw new IllegalStateException("listing failed");
+                        });
+                    } catch (IllegalStateException e) {
+                        thrown.incrementAndGet();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            expect(failures.get() == 1, "16 concurrent misses ran the failing loader " + failures.get() + " times");
+            expect(thrown.get() == 16, thrown.get() + " of 16 callers saw the failure");
+            expect(cache.get("broken", () -> MicroCache.Snapshot.html("ok")) != null, "failure was cached");
+        } finally {
+            cache.stop();
+        }
+    }
+
+    /**
+     * Sixteen threads asking for the same key at once; loader holds the
+     * computation open until all of them have arrived
+     */
+    private static List<MicroCache.Snapshot> concurrentGets(MicroCache cache, Supplier<MicroCache.Snapshot> loader)
+            throws InterruptedException {
+        List<MicroCache.Snapshot> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch arrived = new CountDownLatch(16);
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(() -> {
+                arrived.countDown();
+                MicroCache.Snapshot snapshot = cache.get("/dir/", () -> {
+                    awaitQuietly(arrived);
+                    sleepQuietly(100);
+                    return loader.get();
+                });
+                synchronized (results) {
+                    results.add(snapshot);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return results;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void literalFingerprintName() throws Exception {
+        Path root = Files.createTempDirectory("regress");
+        try {
+            Files.writeString(root.resolve("lib.js"), "var lib;");
+            Files.writeString(root.resolve("lib.0123456789ab.js"), "var built;");
+            AssetManifest manifest = new AssetManifest(root.toString(), "js", 1048576);
+            manifest.build();
+            expect(manifest.resolve("/lib.0123456789ab.js") == null,
+                "existing lib.0123456789ab.js was mapped to lib.js");
+            AssetManifest.Lookup stale = manifest.resolve("/lib.fedcba987654.js");
+            expect(stale != null && "/lib.js".equals(stale.getOriginalUri()) && !stale.isCurrent(),
+                "a fingerprinted name with no such file no longer maps to lib.js");
+        } finally {
+            Files.deleteIfExists(root.resolve("lib.js"));
+            Files.deleteIfExists(root.resolve("lib.0123456789ab.js"));
+            Files.delete(root);
+        }
+    }
+
+    private static void offHeapRecycling() throws Exception {
+        Path root = Files.createTempDirectory("regress");
+        int fileCount = 16;
+        Path[] files = new Path[fileCount];
+        try {
+            // File i is filled with byte i, so a body from another file shows at once
+            for (int i = 0; i < fileCount; i++) {
+                byte[] content = new byte[1000 + i * 150];
+                Arrays.fill(content, (byte) i);
+                files[i] = Files.write(root.resolve("f" + i), content);
+            }
+            // Four 4 KB segments hold a handful of files, so the cursor wraps constantly
+            OffHeapStore store = new OffHeapStore(4 * 4096, 4096, "");
+            AtomicInteger mismatches = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int n = 0; n < 20000; n++) {
+                            int i = (seed * 7 + n) % fileCount;
+                            OffHeapStore.Slot slot = store.store(files[i], Files.size(files[i]));
+                            ByteBuffer body = slot != null ? slot.pin() : null;
+                            if (body == null) {
+                                continue;
+                            }
+                            try {
+                                while (body.hasRemaining()) {
+                                    if (body.get() != (byte) i) {
+                                        mismatches.incrementAndGet();
+                                        break;
+                                    }
+                                }
+                            } finally {
+                                slot.unpin();
+                            }
+                        }
+                    } catch (IOException e) {
+                        mismatches.incrementAndGet();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            expect(store.getRecycledSegments() > 0, "no segment was recycled");
+            expect(mismatches.get() == 0, mismatches.get() + " pinned bodies held another file's bytes");
+        } finally {
+            for (Path file : files) {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.delete(root);
+        }
+    }
+
+    private static HttpRequest request(String text) throws IOException {
+        return HttpRequest.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Defaults plus the given settings, with the document root in the temp directory
+     */
+    private static void accessLogTail() throws Exception {
+        File file = File.createTempFile("regress", ".log");
+        try {
+            AccessLog log = AccessLog.getInstance();
+            log.start(file.getPath(), "common", 65536, 4096, 1000, 0, 0);
+            // From X-Forwarded-For on a Unix socket, so the client chose it
+            log.log("10.0.0.1 - - [forged]", "GET", "/", "HTTP/1.1", 200, 10, null, null, 1);
+            for (int i = 0; i < 20000; i++) {
+                log.log("127.0.0.1", "GET", "/item/" + i, "HTTP/1.1", 200, 10, null, null, 1);
+            }
+            log.close();
+
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+            long expected = log.getWrittenCount();
+            expect(lines.size() == expected, lines.size() + " lines in the file, " + expected + " written");
+            expect(lines.get(0).startsWith("10.0.0.1\\x20-\\x20-\\x20[forged] - - ["),
+                "remote host not escaped: " + lines.get(0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void webSocketSlots() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("websocket.maxConnections", "4");
+        props.setProperty("websocket.relayPaths", "");
+        WebSocketHub hub = new WebSocketHub(localConfig(props));
+        hub.start();
+        try {
+            int granted = raceReservations(hub::tryReserve);
+            expect(granted == 4, granted + " handshakes admitted under websocket.maxConnections=4");
+
+            // The last slot goes to a connection whose listener throws in onOpen
+            hub.release();
+            expect(hub.tryReserve(), "released slot was not free");
+            hub.register("/broken", new WebSocketListener() {
+                @Override
+                public void onOpen(WebSocketConnection connection) {
+                    throw new IllegalStateException("listener bug");
+                }
+
+                @Override
+                public void onText(WebSocketConnection connection, String message) {
+                }
+            });
+            try (ServerSocketChannel server = ServerSocketChannel.open()
+                     .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                 SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+                expect(!hub.tryReserve(), "a fifth slot was free");
+                expect(hub.adopt(server.accept().socket(), "/broken", "local", new byte[0], null),
+                    "socket was not adopted");
+                client.socket().setSoTimeout(SOCKET_TIMEOUT);
+                expect(client.socket().getInputStream().read() == -1, "connection left open after onOpen threw");
+                long deadline = System.currentTimeMillis() + 2000;
+                boolean freed;
+                while (!(freed = hub.tryReserve()) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                expect(freed, "slot still held after onOpen threw");
+            }
+        } finally {
+            hub.stop();
+        }
+    }
+
+    private static void webSocketFraming() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("websocket.relayPaths", "");
+        WebSocketHub hub = new WebSocketHub(localConfig(props));
+        List<Integer> closeCodes = new ArrayList<>();
+        CountDownLatch closed = new CountDownLatch(2);
+        hub.register("/echo", new WebSocketListener() {
+            @Override
+            public void onText(WebSocketConnection connection, String message) {
+                connection.send(message);
+            }
+
+            @Override
+            public void onClose(WebSocketConnection connection, int code) {
+                synchronized (closeCodes) {
+                    closeCodes.add(code);
+                }
+                closed.countDown();
+            }
+        });
+        hub.start();
+        try (ServerSocketChannel server = ServerSocketChannel.open()
+                 .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            // A fragmented message with a ping between the fragments; the first fragment
+            // arrived with the handshake, the last one in two writes
+            byte[] first = maskedFrame(false, WebSocketFrame.OP_TEXT, "Hel".getBytes(StandardCharsets.UTF_8));
+            byte[] last = maskedFrame(true, WebSocketFrame.OP_CONTINUATION, "lo".getBytes(StandardCharsets.UTF_8));
+            try (Socket client = new Socket()) {
+                client.connect(server.getLocalAddress());
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                expect(hub.adopt(server.accept().socket(), "/echo", "local", first, null), "socket was not adopted");
+                OutputStream out = client.getOutputStream();
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                out.write(maskedFrame(true, WebSocketFrame.OP_PING, new byte[] {'p'}));
+                out.write(last, 0, 3);
+                out.flush();
+                Thread.sleep(50);
+                out.write(last, 3, last.length - 3);
+                out.flush();
+
+                Frame pong = readFrame(in);
+                expect(pong.opcode == WebSocketFrame.OP_PONG && Arrays.equals(pong.payload, new byte[] {'p'}),
+                    "ping between fragments was not answered with its payload");
+                Frame echo = readFrame(in);
+                expect(echo.opcode == WebSocketFrame.OP_TEXT
+                    && "Hello".equals(new String(echo.payload, StandardCharsets.UTF_8)),
+                    "fragmented message was not reassembled: opcode " + echo.opcode);
+
+                // Close handshake: the server echoes the status and then closes the socket
+                out.write(maskedFrame(true, WebSocketFrame.OP_CLOSE, new byte[] {0x03, (byte) 0xE8}));
+                out.flush();
+                Frame close = readFrame(in);
+                expect(close.closeStatus() == WebSocketFrame.CLOSE_NORMAL,
+                    "close frame was not answered with 1000");
+                expect(in.read() == -1, "socket left open after the close handshake");
+            }
+
+            // Client frames must be masked
+            try (Socket client = new Socket()) {
+                client.connect(server.getLocalAddress());
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                expect(hub.adopt(server.accept().socket(), "/echo", "local", new byte[0], null),
+                    "socket was not adopted");
+                client.getOutputStream().write(new byte[] {(byte) 0x81, 0x02, 'h', 'i'});
+                DataInputStream in = new DataInputStream(client.getInputStream());
+                Frame close = readFrame(in);
+                expect(close.closeStatus() == WebSocketFrame.CLOSE_PROTOCOL_ERROR,
+                    "unmasked frame was not refused with 1002");
+                expect(in.read() == -1, "socket left open after a protocol error");
+            }
+            expect(closed.await(2, TimeUnit.SECONDS), "listener was not told of both closes");
+            synchronized (closeCodes) {
+                expect(closeCodes.contains(WebSocketFrame.CLOSE_NORMAL)
+                    && closeCodes.contains(WebSocketFrame.CLOSE_PROTOCOL_ERROR), "listener saw close codes " + closeCodes);
+            }
+        } finally {
+            hub.stop();
+        }
+    }
+
+    /**
+     * A client frame: masked, as RFC 6455 requires, with a payload under 126 bytes
+     */
+    private static byte[] maskedFrame(boolean fin, int opcode, byte[] payload) {
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(mask, 0, frame, 2, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[6 + i] = (byte) (payload[i] ^ mask[i & 3]);
+        }
+        return frame;
+    }
+
+    /**
+     * Read one unmasked server frame
+     */
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        int opcode = in.readUnsignedByte() & 0x0F;
+        int length = in.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(opcode, payload);
+    }
+
+    private static void eventStreamSlots() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("sse.maxConnections", "4");
+        props.setProperty("sse.paths", "/events");
+        EventStreamHub hub = new EventStreamHub(localConfig(props));
+        hub.start();
+        try {
+            int granted = raceReservations(hub::tryReserve);
+            expect(granted == 4, granted + " streams admitted under sse.maxConnections=4");
+
+            // An adopted stream holds its slot until the client goes away
+            hub.release();
+            expect(hub.tryReserve(), "released slot was not free");
+            try (ServerSocketChannel server = ServerSocketChannel.open()
+                     .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+                SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                expect(hub.adopt(server.accept().socket(), "/events", "local", -1, null), "socket was not adopted");
+                Thread.sleep(200);
+                expect(!hub.tryReserve(), "open stream does not hold its slot");
+                client.close();
+                long deadline = System.currentTimeMillis() + 5000;
+                boolean freed;
+                while (!(freed = hub.tryReserve()) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                expect(freed, "slot still held after the stream closed");
+            }
+        } finally {
+            hub.stop();
+        }
+    }
+
+    /**
+     * Call tryReserve from many threads at once; returns how many calls succeeded
+     */
+    private static void eventStreamReplay() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("sse.paths", "/events");
+        props.setProperty("sse.replayBufferSize", "4");
+        EventStreamHub hub = new EventStreamHub(localConfig(props));
+        hub.start();
+        try (ServerSocketChannel server = ServerSocketChannel.open()
+                 .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            for (int i = 1; i <= 5; i++) {
+                hub.publish("/events", null, "e" + i);
+            }
+
+            // Resumes after 3; event 6 is published during the handover and must arrive once
+            try (Socket client = new Socket()) {
+                client.connect(server.getLocalAddress());
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                long after = hub.startAfter("/events", 3);
+                hub.publish("/events", null, "e6");
+                expect(hub.adopt(server.accept().socket(), "/events", "local", after, null), "socket was not adopted");
+                hub.publish("/events", null, "e7");
+                List<Long> ids = readEventIds(client, 7);
+                expect(ids.equals(List.of(4L, 5L, 6L, 7L)), "resuming after 3 received ids " + ids);
+            }
+
+            // Fell behind the ring of 4: gets what is retained
+            try (Socket client = new Socket()) {
+                client.connect(server.getLocalAddress());
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                long after = hub.startAfter("/events", 0);
+                expect(hub.adopt(server.accept().socket(), "/events", "local", after, null), "socket was not adopted");
+                List<Long> ids = readEventIds(client, 7);
+                expect(ids.equals(List.of(4L, 5L, 6L, 7L)), "resuming after 0 received ids " + ids);
+            }
+
+            // An id from before a restart starts at the newest event
+            try (Socket client = new Socket()) {
+                client.connect(server.getLocalAddress());
+                client.setSoTimeout(SOCKET_TIMEOUT);
+                long after = hub.startAfter("/events", 999);
+                expect(hub.adopt(server.accept().socket(), "/events", "local", after, null), "socket was not adopted");
+                hub.publish("/events", null, "e8");
+                List<Long> ids = readEventIds(client, 8);
+                expect(ids.equals(List.of(8L)), "resuming after 999 received ids " + ids);
+            }
+        } finally {
+            hub.stop();
+        }
+    }
+
+    /**
+     * Ids of the events a stream delivers, up to and including lastId
+     */
+    private static List<Long> readEventIds(Socket client, long lastId) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        List<Long> ids = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("id: ")) {
+                ids.add(Long.parseLong(line.substring(4)));
+                if (ids.get(ids.size() - 1) >= lastId) {
+                    return ids;
+                }
+            }
+        }
+        throw new EOFException("stream ended after ids " + ids);
+    }
+
+    private static int raceReservations(BooleanSupplier tryReserve) throws InterruptedException {
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                    for (int j = 0; j < 100; j++) {
+                        if (tryReserve.getAsBoolean()) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return granted.get();
+    }
+
+    private static void benchmarkErrors() {
+        Map<String, Double> base = new LinkedHashMap<>();
+        base.put("requests", 10000.0);
+        base.put("errors", 0.0);
+        base.put("throughput", 5000.0);
+        Map<String, Double> clean = new LinkedHashMap<>(base);
+        clean.put("throughput", 4990.0);
+        Map<String, Double> failing = new LinkedHashMap<>(clean);
+        failing.put("errors", 3.0);
+
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        expect(BenchmarkReport.compare(Map.of("small", base), Map.of("small", clean), 0.05, quiet).isEmpty(),
+            "run within tolerance was reported as a regression");
+        List<String> regressions = BenchmarkReport.compare(Map.of("small", base), Map.of("small", failing), 0.05,
+            quiet);
+        expect(regressions.stream().anyMatch(line -> line.contains("errors ")),
+            "errors against a zero baseline were not a regression: " + regressions);
+        expect(regressions.stream().anyMatch(line -> line.contains("errorRate")),
+            "error rate against a zero baseline was not a regression: " + regressions);
+    }
+
+    private static void fileCacheBounded() throws Exception {
+        File hot = File.createTempFile("regress", ".html");
+        try {
+            Files.write(hot.toPath(), new byte[100]);
+            FileCache cache = new FileCache(1 << 20, 1 << 20, 100, null);
+            cache.get(hot);
+            for (int i = 0; i < 1000; i++) {
+                cache.put(Path.of("/regress/file-" + i), 100, 0, new byte[100]);
+                cache.get(hot);
+            }
+            expect(cache.getEntryCount() <= 100, cache.getEntryCount() + " entries under cache.maxEntries=100");
+            expect(cache.getCachedBytes() == cache.getEntryCount() * 100L,
+                "evicted bodies still counted: " + cache.getCachedBytes() + " bytes for " + cache.getEntryCount()
+                    + " entries");
+            long misses = cache.getMisses();
+            cache.get(hot);
+            expect(cache.getMisses() == misses, "the most used file was evicted");
+        } finally {
+            hot.delete();
+        }
+    }
+
+    private static void clusterMembersOnly() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        Properties props = new Properties();
+        props.setProperty("cluster.self", "127.0.0.1:" + port);
+        props.setProperty("cluster.peers", "127.0.0.1:" + port + ",127.0.0.2:" + port);
+        CacheCluster cluster = new CacheCluster(localConfig(props), new FileCache(1 << 20, 1 << 20, 100, null));
+        cluster.start();
+        try {
+            // Every 127/8 address is loopback, so one host can connect as a member and as a stranger
+            expect(peerAnswers("127.0.0.2", port), "member host was not answered");
+            expect(!peerAnswers("127.0.0.3", port), "non-member host was answered");
+        } finally {
+            cluster.stop();
+        }
+    }
+
+    private static void clusterFetch() throws Exception {
+        int[] ports = new int[3];
+        for (int i = 0; i < ports.length; i++) {
+            try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                ports[i] = probe.getLocalPort();
+            }
+        }
+        // The third member never starts, standing in for a node that is down
+        String members = "127.0.0.1:" + ports[0] + ",127.0.0.1:" + ports[1] + ",127.0.0.1:" + ports[2];
+        CacheCluster[] nodes = new CacheCluster[2];
+        for (int i = 0; i < nodes.length; i++) {
+            Properties props = new Properties();
+            props.setProperty("cluster.self", "127.0.0.1:" + ports[i]);
+            props.setProperty("cluster.peers", members);
+            props.setProperty("cluster.hotThreshold", "3");
+            props.setProperty("cluster.retryInterval", "60000");
+            nodes[i] = new CacheCluster(localConfig(props), new FileCache(1 << 20, 1 << 20, 100, null));
+            nodes[i].start();
+        }
+
+        Path root = Files.createTempDirectory(Path.of(System.getProperty("java.io.tmpdir")), "cluster");
+        List<Path> files = new ArrayList<>();
+        try {
+            File ownedByPeer = null;
+            File ownedByDownNode = null;
+            for (int i = 0; i < 64 && (ownedByPeer == null || ownedByDownNode == null); i++) {
+                Path path = root.resolve("file" + i + ".txt");
+                Files.writeString(path, "body of file " + i);
+                files.add(path);
+                String key = nodes[0].keyFor(path.toFile());
+                if (nodes[1].owns(key)) {
+                    ownedByPeer = path.toFile();
+                } else if (!nodes[0].owns(key)) {
+                    ownedByDownNode = path.toFile();
+                }
+            }
+            expect(ownedByPeer != null && ownedByDownNode != null, "no key landed on each of the other members");
+
+            String key = nodes[0].keyFor(ownedByPeer);
+            byte[] body = nodes[0].fetch(key, ownedByPeer.length(), ownedByPeer.lastModified());
+            expect(body != null && Arrays.equals(body, Files.readAllBytes(ownedByPeer.toPath())),
+                "owner did not return the file body");
+            expect(nodes[0].fetch(key, ownedByPeer.length(), ownedByPeer.lastModified() - 1000) == null,
+                "owner returned a body for another version of the file");
+            expect(!nodes[0].recordFetch(key) && !nodes[0].recordFetch(key) && nodes[0].recordFetch(key),
+                "key was not hot after cluster.hotThreshold fetches");
+
+            // A member that cannot be reached is skipped for the retry interval
+            String downKey = nodes[0].keyFor(ownedByDownNode);
+            expect(nodes[0].fetch(downKey, ownedByDownNode.length(), ownedByDownNode.lastModified()) == null,
+                "fetch from a down member returned a body");
+            expect(nodes[0].fetch(downKey, ownedByDownNode.length(), ownedByDownNode.lastModified()) == null,
+                "second fetch from a down member returned a body");
+            String described = nodes[0].describe();
+            expect(described.contains("127.0.0.1:" + ports[2] + " down"), "down member not shown as down:\n" + described);
+            expect(described.contains("hits=1, misses=1, errors=1, replicated=1"),
+                "fetch counters wrong, the down member should be tried once:\n" + described);
+        } finally {
+            for (CacheCluster node : nodes) {
+                node.stop();
+            }
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.delete(root);
+        }
+    }
+
+    /**
+     * Send one peer GET from the given local address; true if the node answered it
+     */
+    private static boolean peerAnswers(String localAddress, int port) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.bind(new InetSocketAddress(localAddress, 0));
+            socket.connect(new InetSocketAddress("127.0.0.1", port), SOCKET_TIMEOUT);
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(1); // OP_GET
+            out.writeUTF("no-such-file");
+            out.writeLong(0);
+            out.writeLong(0);
+            out.flush();
+            return socket.getInputStream().read() >= 0;
+        } catch (SocketException e) {
+            // Reset by a node that closed the connection unread
+            return false;
+        }
+    }
+
+    private static void reloadAllOrNothing() throws Exception {
+        File file = File.createTempFile("regress", ".properties");
+        try {
+            Properties props = new Properties();
+            props.setProperty("server.documentRoot", System.getProperty("java.io.tmpdir"));
+            props.setProperty("server.port", "8081");
+            props.setProperty("timeout.write", "5000");
+            try (OutputStream out = new FileOutputStream(file)) {
+                props.store(out, "Generated by RegressionChecks");
+            }
+            ServerConfig config = ServerConfig.load(file);
+
+            // Valid changes to keys parsed before the broken one must not be applied either
+            props.setProperty("server.port", "8082");
+            props.setProperty("timeout.write", "6000");
+            props.setProperty("fingerprint.maxHtmlSize", "lots");
+            try (OutputStream out = new FileOutputStream(file)) {
+                props.store(out, "Generated by RegressionChecks");
+            }
+            try {
+                config.reload();
+                throw new AssertionError("reload accepted a malformed value");
+            } catch (IOException expected) {
+                // Refused as a whole
+            }
+            expect(config.getPort() == 8081, "port changed to " + config.getPort() + " by a failed reload");
+            expect(config.getWriteTimeout() == 5000,
+                "timeout.write changed to " + config.getWriteTimeout() + " by a failed reload");
+
+            props.setProperty("fingerprint.maxHtmlSize", "4096");
+            try (OutputStream out = new FileOutputStream(file)) {
+                props.store(out, "Generated by RegressionChecks");
+            }
+            config.reload();
+            expect(config.getPort() == 8082 && config.getWriteTimeout() == 6000
+                && config.getFingerprintMaxHtmlSize() == 4096, "valid reload was not applied");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ServerConfig localConfig(Properties props) throws IOException {
+        props.setProperty("server.documentRoot", System.getProperty("java.io.tmpdir"));
+        File file = File.createTempFile("regress", ".properties");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                props.store(out, "Generated by RegressionChecks");
+            }
+            return ServerConfig.load(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static HttpInput chunkedRequest(String body) {
+        String request = "POST /upload HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n" + body;
+        return new HttpInput(new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1)), 8192);
+    }
+
+    // ---- Helpers ----
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private Raw connect() throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        return new Raw(socket, socket.getInputStream(), socket.getOutputStream());
+    }
+
+    private static final class Frame {
+        final int opcode;
+        final byte[] payload;
+
+        Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        /**
+         * Status code of a close frame, -1 for any other frame
+         */
+        int closeStatus() {
+            return opcode == WebSocketFrame.OP_CLOSE && payload.length >= 2
+                ? (payload[0] & 0xFF) << 8 | payload[1] & 0xFF : -1;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Response(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * A raw connection: writes exactly the bytes given and parses what comes back
+     */
+    private static final class Raw implements Closeable {
+        final Closeable connection;
+        final OutputStream out;
+        final InputStream in;
+
+        Raw(Closeable connection, InputStream in, OutputStream out) {
+            this.connection = connection;
+            this.out = out;
+            this.in = new BufferedInputStream(in);
+        }
+
+        void send(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        }
+
+        Response exchange(String request, boolean head) throws IOException {
+            send(request);
+            return read(head);
+        }
+
+        /**
+         * Read one response framed by Content-Length; with head set only the head is read
+         */
+        Response read(boolean head) throws IOException {
+            String statusLine = readLine();
+            if (statusLine == null) {
+                throw new EOFException("Connection closed before the response");
+            }
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + statusLine);
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        line.substring(colon + 1).trim());
+                }
+            }
+            String length = headers.get("content-length");
+            byte[] body = new byte[0];
+            if (!head && status != 204 && status != 304 && length != null) {
+                body = in.readNBytes(Integer.parseInt(length));
+            }
+            return new Response(status, headers, body);
+        }
+
+        /**
+         * True if the server closed the connection (or reset it) within the socket timeout
+         */
+        boolean closedByServer() {
+            try {
+                return in.read() == -1;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int len = sb.length();
+                    return len > 0 && sb.charAt(len - 1) == '\r' ? sb.substring(0, len - 1) : sb.toString();
+                }
+                sb.append((char) c);
+            }
+            return sb.length() > 0 ? sb.toString() : null;
+        }
+
+        @Override
+        public void close() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
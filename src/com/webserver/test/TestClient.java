@@ -24,6 +24,9 @@ public class TestClient {
             int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 50;
             int requestsPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 10;
             runLoadTest(numClients, requestsPerClient);
+        } else if (args.length > 0 && "regress".equals(args[0])) {
+            // Regression checks for previously fixed bugs
+            System.exit(new RegressionChecks(HOST, PORT, args.length > 1 ? args[1] : null).run() ? 0 : 1);
         } else {
             // Simple test mode
             runSimpleTest();
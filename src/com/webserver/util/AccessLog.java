@@ -0,0 +1,403 @@
+package com.webserver.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access log in Common, Combined or JSON format.
+ * Request threads format each record into a pre-sized thread-local buffer and
+ * hand the bytes to a bounded queue; a single writer thread batches records
+ * into a direct buffer and writes them to the file channel, rotating by size
+ * or age. When the queue is full records are dropped and counted rather than
+ * blocking a worker.
+ */
+public class AccessLog {
+    private static final DateTimeFormatter CLF_TIME =
+        DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+    private static final DateTimeFormatter ROTATE_SUFFIX =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.US);
+    private static volatile AccessLog instance;
+    /** Queued by close() to wake the writer; never written */
+    private static final byte[] STOP = new byte[0];
+
+    public enum Format { COMMON, COMBINED, JSON }
+
+    private final Logger logger;
+    private volatile boolean enabled;
+    private Format format = Format.COMBINED;
+    private Path path;
+    private long maxFileSize;
+    private long rotateIntervalMillis;
+    private long flushIntervalMillis;
+    private BlockingQueue<byte[]> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    // Writer thread state
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    private long fileSize;
+    private long fileOpenedAt;
+
+    private final ThreadLocal<RecordBuffer> recordBuffers = ThreadLocal.withInitial(RecordBuffer::new);
+    private volatile CachedTime cachedTime = new CachedTime(0, "");
+
+    private AccessLog() {
+        this.logger = Logger.getInstance();
+    }
+
+    public static AccessLog getInstance() {
+        if (instance == null) {
+            synchronized (AccessLog.class) {
+                if (instance == null) {
+                    instance = new AccessLog();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Open the log file and start the writer thread
+     */
+    public synchronized void start(String filePath, String formatName, int queueCapacity, int bufferSize,
+                                   long flushIntervalMillis, long maxFileSize, long rotateIntervalMillis) {
+        if (running) {
+            return;
+        }
+
+        try {
+            this.format = Format.valueOf(formatName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown access log format '" + formatName + "', using COMBINED");
+            this.format = Format.COMBINED;
+        }
+        this.path = Paths.get(filePath);
+        this.maxFileSize = maxFileSize;
+        this.rotateIntervalMillis = rotateIntervalMillis;
+        this.flushIntervalMillis = Math.max(10, flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+
+        try {
+            openFile();
+        } catch (IOException e) {
+            logger.error("Failed to open access log " + filePath + ": " + e.getMessage());
+            return;
+        }
+
+        running = true;
+        enabled = true;
+        writerThread = new Thread(this::runWriter, "AccessLog-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info(String.format("Access log enabled: %s (%s)", path, format));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record one completed request; never blocks the calling thread
+     */
+    public void log(String remoteHost, String method, String uri, String version, int status,
+                    long bytes, String referer, String userAgent, long durationMillis) {
+        if (!enabled) {
+            return;
+        }
+
+        RecordBuffer rb = recordBuffers.get();
+        rb.reset();
+        if (format == Format.JSON) {
+            rb.append("{\"remote\":\"").appendJson(remoteHost)
+              .append("\",\"time\":\"").append(timestamp())
+              .append("\",\"method\":\"").appendJson(method)
+              .append("\",\"uri\":\"").appendJson(uri)
+              .append("\",\"protocol\":\"").appendJson(version)
+              .append("\",\"status\":").append(status)
+              .append(",\"bytes\":").append(bytes)
+              .append(",\"referer\":\"").appendJson(referer)
+              .append("\",\"userAgent\":\"").appendJson(userAgent)
+              .append("\",\"durationMs\":").append(durationMillis)
+              .append("}\n");
+        } else {
+            rb.appendToken(remoteHost).append(" - - [").append(timestamp()).append("] \"")
+              .appendEscaped(method).append(' ').appendEscaped(uri).append(' ').appendEscaped(version)
+              .append("\" ").append(status).append(' ');
+            if (bytes > 0) {
+                rb.append(bytes);
+            } else {
+                rb.append('-');
+            }
+            if (format == Format.COMBINED) {
+                rb.append(" \"").appendEscaped(referer != null ? referer : "-")
+                  .append("\" \"").appendEscaped(userAgent != null ? userAgent : "-")
+                  .append("\" ").append(durationMillis);
+            }
+            rb.append('\n');
+        }
+
+        if (!queue.offer(rb.toBytes())) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * CLF timestamp, formatted at most once per second
+     */
+    private String timestamp() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedTime current = cachedTime;
+        if (current.second != second) {
+            String formatted = CLF_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()));
+            current = new CachedTime(second, formatted);
+            cachedTime = current;
+        }
+        return current.formatted;
+    }
+
+    private void runWriter() {
+        long lastFlush = System.currentTimeMillis();
+        while (running || !queue.isEmpty()) {
+            try {
+                byte[] record = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                while (record != null) {
+                    if (record != STOP) {
+                        append(record);
+                    }
+                    record = queue.poll();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastFlush >= flushIntervalMillis || writeBuffer.position() > 0 && !running) {
+                    flush();
+                    lastFlush = now;
+                    rotateIfNeeded(now);
+                }
+            } catch (InterruptedException e) {
+                // Not expected: close() wakes the writer with STOP so a file write is never interrupted
+            } catch (IOException e) {
+                logger.error("Access log write failed: " + e.getMessage());
+            }
+        }
+
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Error closing access log: " + e.getMessage());
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (record.length > writeBuffer.remaining()) {
+            flush();
+        }
+        if (record.length > writeBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(record));
+        } else {
+            writeBuffer.put(record);
+        }
+        written.incrementAndGet();
+    }
+
+    private void flush() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+    }
+
+    private void rotateIfNeeded(long now) throws IOException {
+        boolean tooBig = maxFileSize > 0 && fileSize >= maxFileSize;
+        boolean tooOld = rotateIntervalMillis > 0 && now - fileOpenedAt >= rotateIntervalMillis;
+        if (!tooBig && !tooOld || fileSize == 0) {
+            return;
+        }
+
+        channel.close();
+        String suffix = ROTATE_SUFFIX.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault()));
+        Path rotated = path.resolveSibling(path.getFileName() + "." + suffix);
+        Files.move(path, rotated, StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+        logger.info("Access log rotated to " + rotated);
+    }
+
+    private void openFile() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        fileOpenedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Stop accepting records, write out the queue and close the file
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        enabled = false;
+        running = false;
+        // Interrupting would close the FileChannel mid-write and lose the buffered tail;
+        // if the queue is full the writer sees running == false within one flush interval
+        queue.offer(STOP);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(String.format("Access log closed: %d records written, %d dropped",
+            written.get(), dropped.get()));
+    }
+
+    public long getWrittenCount() { return written.get(); }
+    public long getDroppedCount() { return dropped.get(); }
+
+    /**
+     * Timestamp string shared by all threads for one second
+     */
+    private static final class CachedTime {
+        final long second;
+        final String formatted;
+
+        CachedTime(long second, String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+
+    /**
+     * Per-thread byte buffer records are formatted into; grows only for unusually long records
+     */
+    private static final class RecordBuffer {
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        private void put(int b) {
+            if (length == bytes.length) {
+                bytes = java.util.Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[length++] = (byte) b;
+        }
+
+        RecordBuffer append(char c) {
+            put(c);
+            return this;
+        }
+
+        RecordBuffer append(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                put(s.charAt(i));
+            }
+            return this;
+        }
+
+        RecordBuffer append(long value) {
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+            if (value >= 10) {
+                append(value / 10);
+            }
+            put((char) ('0' + value % 10));
+            return this;
+        }
+
+        /**
+         * Quotes and non-printable characters are written as \xHH, as CLF parsers expect
+         */
+        RecordBuffer appendEscaped(String s) {
+            return appendEscaped(s, false);
+        }
+
+        /**
+         * Escaped like a quoted field, and spaces too, so an unquoted field stays one token
+         */
+        RecordBuffer appendToken(String s) {
+            return appendEscaped(s, true);
+        }
+
+        private RecordBuffer appendEscaped(String s, boolean escapeSpace) {
+            if (s == null) {
+                return append('-');
+            }
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x20 || c > 0x7e || c == '"' || c == '\\' || c == ' ' && escapeSpace) {
+                    if (c > 0xff) {
+                        c = '?';
+                    }
+                    put('\\');
+                    put('x');
+                    put(HEX[(c >> 4) & 0xf]);
+                    put(HEX[c & 0xf]);
+                } else {
+                    put(c);
+                }
+            }
+            return this;
+        }
+
+        RecordBuffer appendJson(String s) {
+            if (s == null) {
+                return this;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    put('\\');
+                    put(c);
+                } else if (c < 0x20 || c > 0x7e) {
+                    put('\\');
+                    put('u');
+                    put(HEX[(c >> 12) & 0xf]);
+                    put(HEX[(c >> 8) & 0xf]);
+                    put(HEX[(c >> 4) & 0xf]);
+                    put(HEX[c & 0xf]);
+                } else {
+                    put(c);
+                }
+            }
+            return this;
+        }
+
+        byte[] toBytes() {
+            return java.util.Arrays.copyOf(bytes, length);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.webserver.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of ByteBuffers for request reads and response writes.
+ * Each thread keeps a small private cache per size class in front of a shared
+ * lock-free queue, so steady-state serving reuses the same buffers without
+ * allocating. Optional leak detection records where outstanding buffers were
+ * acquired and reports the ones held longer than the leak threshold.
+ */
+public class BufferPool {
+    private static final int[] SIZE_CLASSES = {4096, 8192, 16384, 65536};
+    private static volatile BufferPool instance;
+
+    private final boolean direct;
+    private final int threadCacheSize;
+    private final int maxPooledPerClass;
+    private final Queue<ByteBuffer>[] sharedQueues;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+    private final Logger logger;
+
+    private final AtomicLong acquires = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong outstanding = new AtomicLong(0);
+    private final AtomicLong leaksReported = new AtomicLong(0);
+
+    private volatile boolean leakDetection;
+    private volatile long leakThresholdMillis;
+    private final Map<ByteBuffer, LeakRecord> liveBuffers = new IdentityHashMap<>();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(boolean direct, int threadCacheSize, int maxPooledPerClass) {
+        this.direct = direct;
+        this.threadCacheSize = threadCacheSize;
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.logger = Logger.getInstance();
+        this.sharedQueues = new Queue[SIZE_CLASSES.length];
+        this.sharedCounts = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            sharedQueues[i] = new ConcurrentLinkedQueue<>();
+            sharedCounts[i] = new AtomicInteger(0);
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[SIZE_CLASSES.length];
+            for (int i = 0; i < caches.length; i++) {
+                caches[i] = new ArrayDeque<>(threadCacheSize);
+            }
+            return caches;
+        });
+    }
+
+    /**
+     * Get the shared heap pool used for socket stream I/O, which needs backing arrays
+     */
+    public static BufferPool getInstance() {
+        if (instance == null) {
+            synchronized (BufferPool.class) {
+                if (instance == null) {
+                    instance = new BufferPool(false, 4, 1024);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Replace the shared pool; call once at startup before serving
+     */
+    public static void configure(int threadCacheSize, int maxPooledPerClass,
+                                 boolean leakDetection, long leakThresholdMillis) {
+        BufferPool pool = new BufferPool(false, threadCacheSize, maxPooledPerClass);
+        pool.leakDetection = leakDetection;
+        pool.leakThresholdMillis = leakThresholdMillis;
+        synchronized (BufferPool.class) {
+            instance = pool;
+        }
+    }
+
+    /**
+     * Acquire a cleared buffer with at least the given capacity
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        acquires.incrementAndGet();
+        int sizeClass = sizeClassFor(minCapacity);
+
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = threadCaches.get()[sizeClass].pollFirst();
+            if (buffer == null) {
+                buffer = sharedQueues[sizeClass].poll();
+                if (buffer != null) {
+                    sharedCounts[sizeClass].decrementAndGet();
+                }
+            }
+        }
+
+        if (buffer != null) {
+            hits.incrementAndGet();
+            buffer.clear();
+        } else {
+            int capacity = sizeClass >= 0 ? SIZE_CLASSES[sizeClass] : minCapacity;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        outstanding.incrementAndGet();
+        if (leakDetection) {
+            synchronized (liveBuffers) {
+                liveBuffers.put(buffer, new LeakRecord());
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from acquire; the caller must not use it afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        if (leakDetection) {
+            synchronized (liveBuffers) {
+                if (liveBuffers.remove(buffer) == null) {
+                    logger.warn("Buffer released twice or not from this pool");
+                    return;
+                }
+            }
+        }
+        outstanding.decrementAndGet();
+
+        int sizeClass = exactSizeClass(buffer.capacity());
+        if (sizeClass < 0 || buffer.isDirect() != direct) {
+            return; // Oversized one-off allocation, let GC take it
+        }
+
+        ArrayDeque<ByteBuffer> cache = threadCaches.get()[sizeClass];
+        if (cache.size() < threadCacheSize) {
+            cache.addFirst(buffer);
+        } else if (sharedCounts[sizeClass].incrementAndGet() <= maxPooledPerClass) {
+            sharedQueues[sizeClass].offer(buffer);
+        } else {
+            sharedCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * Log buffers held longer than the leak threshold; returns how many were found
+     */
+    public int reportLeaks() {
+        if (!leakDetection) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        List<LeakRecord> leaks = new ArrayList<>();
+        synchronized (liveBuffers) {
+            for (LeakRecord record : liveBuffers.values()) {
+                if (!record.reported && now - record.acquiredAt > leakThresholdMillis) {
+                    record.reported = true;
+                    leaks.add(record);
+                }
+            }
+        }
+
+        for (LeakRecord record : leaks) {
+            leaksReported.incrementAndGet();
+            logger.error(String.format("Buffer leak: held for %d ms, acquired by %s",
+                now - record.acquiredAt, record.threadName), record.allocationSite);
+        }
+        return leaks.size();
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int exactSizeClass(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity == SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get current pool statistics
+     */
+    public PoolStats getStats() {
+        int pooled = 0;
+        for (AtomicInteger count : sharedCounts) {
+            pooled += count.get();
+        }
+        return new PoolStats(acquires.get(), hits.get(), outstanding.get(), pooled, leaksReported.get());
+    }
+
+    /**
+     * Where and when an outstanding buffer was acquired
+     */
+    private static class LeakRecord {
+        final long acquiredAt = System.currentTimeMillis();
+        final String threadName = Thread.currentThread().getName();
+        final Throwable allocationSite = new Throwable("Buffer acquired here");
+        boolean reported;
+    }
+
+    /**
+     * Buffer pool statistics
+     */
+    public static class PoolStats {
+        public final long acquires;
+        public final long hits;
+        public final long outstanding;
+        public final int pooled;
+        public final long leaks;
+
+        public PoolStats(long acquires, long hits, long outstanding, int pooled, long leaks) {
+            this.acquires = acquires;
+            this.hits = hits;
+            this.outstanding = outstanding;
+            this.pooled = pooled;
+            this.leaks = leaks;
+        }
+
+        public double getHitRate() {
+            return acquires == 0 ? 0.0 : (double) hits / acquires;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "BufferStats{acquires=%d, hitRate=%.1f%%, outstanding=%d, pooled=%d, leaks=%d}",
+                acquires, getHitRate() * 100, outstanding, pooled, leaks
+            );
+        }
+    }
+}
@@ -83,6 +83,24 @@ public class Logger {
         this.currentLevel = level;
     }
 
+    /**
+     * Set log level by name, keeping the current level if the name is unknown
+     */
+    public void setLevel(String levelName) {
+        try {
+            this.currentLevel = LogLevel.valueOf(levelName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            warn("Unknown log level: " + levelName);
+        }
+    }
+
+    /**
+     * Check before building an expensive debug message
+     */
+    public boolean isDebugEnabled() {
+        return currentLevel.shouldLog(LogLevel.DEBUG);
+    }
+
     /**
      * Log debug message
      */
@@ -0,0 +1,373 @@
+package com.webserver.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * One upgraded connection, owned by a single event loop.
+ * Inbound bytes are parsed into frames in place; outbound frames wait in a
+ * queue of buffers that may be shared with other connections (broadcasts), and
+ * a connection whose queue grows past the limit is dropped as a slow consumer.
+ * The send and close methods may be called from any thread.
+ */
+public class WebSocketConnection {
+    private static final int INITIAL_READ_BUFFER = 4096;
+    private static final int MAX_GATHER = 16;
+
+    private final SocketChannel channel;
+    private final WebSocketEventLoop loop;
+    private final String path;
+    private final String remoteAddress;
+    private final WebSocketListener listener;
+    private final Runnable onClose;
+    private final long openedAt;
+
+    // Loop-thread state
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long queuedBytes;
+    private long lastActivity;
+    private ByteArrayOutputStream fragments;
+    private int fragmentOpcode;
+    private boolean closeSent;
+    private int pendingCloseCode; // Close once the outbound queue is flushed
+    private boolean closed;
+
+    WebSocketConnection(SocketChannel channel, WebSocketEventLoop loop, String path, String remoteAddress,
+                        WebSocketListener listener, byte[] initialBytes, Runnable onClose) {
+        this.channel = channel;
+        this.loop = loop;
+        this.path = path;
+        this.remoteAddress = remoteAddress;
+        this.listener = listener;
+        this.onClose = onClose;
+        this.openedAt = System.currentTimeMillis();
+        this.lastActivity = openedAt;
+        this.readBuffer = ByteBuffer.allocate(Math.max(INITIAL_READ_BUFFER, initialBytes.length));
+        readBuffer.put(initialBytes);
+    }
+
+    /**
+     * Send a text message
+     */
+    public void send(String message) {
+        send(WebSocketFrame.text(message));
+    }
+
+    /**
+     * Send a binary message
+     */
+    public void send(byte[] message) {
+        send(WebSocketFrame.encode(WebSocketFrame.OP_BINARY, message));
+    }
+
+    /**
+     * Queue an encoded frame; the buffer may be shared, only a duplicate is consumed
+     */
+    void send(ByteBuffer frame) {
+        if (loop.inLoop()) {
+            enqueue(frame.duplicate());
+        } else {
+            loop.execute(() -> enqueue(frame.duplicate()));
+        }
+    }
+
+    /**
+     * Start the close handshake
+     */
+    public void close(int code, String reason) {
+        if (loop.inLoop()) {
+            closeGracefully(code, reason);
+        } else {
+            loop.execute(() -> closeGracefully(code, reason));
+        }
+    }
+
+    public String getPath() { return path; }
+    public String getRemoteAddress() { return remoteAddress; }
+    public long getOpenedAt() { return openedAt; }
+
+    // ---- Event loop side ----
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    WebSocketListener getListener() { return listener; }
+    long getLastActivity() { return lastActivity; }
+    long getQueuedBytes() { return queuedBytes; }
+    boolean isClosed() { return closed; }
+
+    /**
+     * Parse any bytes that arrived with the handshake request
+     */
+    void start() throws IOException {
+        listener.onOpen(this);
+        if (readBuffer.position() > 0) {
+            readBuffer.flip();
+            parseFrames();
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Read what the socket has and dispatch every complete frame
+     */
+    void onReadable() throws IOException {
+        if (closeSent) {
+            // Only waiting for our close frame to flush; discard whatever the peer still sends
+            readBuffer.clear();
+        }
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            abort(closeSent ? WebSocketFrame.CLOSE_NORMAL : WebSocketFrame.CLOSE_ABNORMAL);
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+        readBuffer.flip();
+        parseFrames();
+        if (!closed) {
+            readBuffer.compact();
+        }
+    }
+
+    private void parseFrames() throws IOException {
+        while (!closeSent && readBuffer.remaining() >= 2) {
+            int start = readBuffer.position();
+            int b0 = readBuffer.get(start) & 0xFF;
+            int b1 = readBuffer.get(start + 1) & 0xFF;
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            int lengthCode = b1 & 0x7F;
+            if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0) {
+                // Reserved bits need an extension we did not agree to; client frames must be masked
+                closeGracefully(WebSocketFrame.CLOSE_PROTOCOL_ERROR, "Protocol error");
+                return;
+            }
+
+            int headerSize = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + 4;
+            if (readBuffer.remaining() < headerSize) {
+                return;
+            }
+            long length = lengthCode == 126 ? readBuffer.getShort(start + 2) & 0xFFFF
+                : lengthCode == 127 ? readBuffer.getLong(start + 2) : lengthCode;
+            boolean control = opcode >= WebSocketFrame.OP_CLOSE;
+            if (control && (!fin || length > 125)) {
+                closeGracefully(WebSocketFrame.CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+                return;
+            }
+            int maxMessage = loop.getMaxMessageSize();
+            long buffered = fragments != null ? fragments.size() : 0;
+            if (length < 0 || length + buffered > maxMessage) {
+                closeGracefully(WebSocketFrame.CLOSE_TOO_BIG, "Message too big");
+                return;
+            }
+
+            int frameSize = headerSize + (int) length;
+            if (readBuffer.remaining() < frameSize) {
+                if (frameSize > readBuffer.capacity()) {
+                    growReadBuffer(frameSize);
+                }
+                return;
+            }
+
+            // Unmask the payload
+            byte[] payload = new byte[(int) length];
+            int maskAt = start + headerSize - 4;
+            int dataAt = start + headerSize;
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (readBuffer.get(dataAt + i) ^ readBuffer.get(maskAt + (i & 3)));
+            }
+            readBuffer.position(start + frameSize);
+            onFrame(fin, opcode, payload);
+        }
+    }
+
+    private void growReadBuffer(int frameSize) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(frameSize, readBuffer.capacity() * 2));
+        larger.put(readBuffer);
+        larger.flip();
+        readBuffer = larger;
+    }
+
+    private void onFrame(boolean fin, int opcode, byte[] payload) {
+        switch (opcode) {
+            case WebSocketFrame.OP_TEXT:
+            case WebSocketFrame.OP_BINARY:
+                if (fragments != null) {
+                    closeGracefully(WebSocketFrame.CLOSE_PROTOCOL_ERROR, "Expected continuation frame");
+                } else if (fin) {
+                    deliver(opcode, payload);
+                } else {
+                    fragments = new ByteArrayOutputStream(payload.length * 2);
+                    fragments.write(payload, 0, payload.length);
+                    fragmentOpcode = opcode;
+                }
+                break;
+            case WebSocketFrame.OP_CONTINUATION:
+                if (fragments == null) {
+                    closeGracefully(WebSocketFrame.CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+                    break;
+                }
+                fragments.write(payload, 0, payload.length);
+                if (fin) {
+                    byte[] message = fragments.toByteArray();
+                    fragments = null;
+                    deliver(fragmentOpcode, message);
+                }
+                break;
+            case WebSocketFrame.OP_PING:
+                enqueue(WebSocketFrame.encode(WebSocketFrame.OP_PONG, payload));
+                break;
+            case WebSocketFrame.OP_PONG:
+                break;
+            case WebSocketFrame.OP_CLOSE:
+                int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF)
+                    : WebSocketFrame.CLOSE_NO_STATUS;
+                if (!closeSent) {
+                    enqueue(WebSocketFrame.close(code == WebSocketFrame.CLOSE_NO_STATUS
+                        ? WebSocketFrame.CLOSE_NORMAL : code, ""));
+                    closeSent = true;
+                }
+                // Close handshake complete; the socket closes once the reply is flushed
+                finishAfterFlush(code);
+                break;
+            default:
+                closeGracefully(WebSocketFrame.CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+        }
+    }
+
+    private void deliver(int opcode, byte[] message) {
+        if (opcode == WebSocketFrame.OP_BINARY) {
+            listener.onBinary(this, message);
+            return;
+        }
+        String text;
+        try {
+            text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(message)).toString();
+        } catch (CharacterCodingException e) {
+            closeGracefully(WebSocketFrame.CLOSE_INVALID_DATA, "Invalid UTF-8");
+            return;
+        }
+        listener.onText(this, text);
+    }
+
+    /**
+     * Add a frame to the outbound queue and write as much as the socket takes now
+     */
+    void enqueue(ByteBuffer frame) {
+        if (closed || closeSent && !isCloseFrame(frame)) {
+            return;
+        }
+        if (queuedBytes + frame.remaining() > loop.getMaxQueuedBytes()) {
+            loop.recordSlowConsumer(this);
+            abort(WebSocketFrame.CLOSE_POLICY);
+            return;
+        }
+        outbound.add(frame);
+        queuedBytes += frame.remaining();
+        flush();
+    }
+
+    private static boolean isCloseFrame(ByteBuffer frame) {
+        return (frame.get(frame.position()) & 0x0F) == WebSocketFrame.OP_CLOSE;
+    }
+
+    /**
+     * Gathering write of queued frames; registers for OP_WRITE if the socket is full
+     */
+    void flush() {
+        try {
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : outbound) {
+                    gather[count++] = buffer;
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                long written = channel.write(gather, 0, count);
+                queuedBytes -= written;
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    outbound.poll();
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            abort(WebSocketFrame.CLOSE_ABNORMAL);
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+
+        if (key != null && key.isValid()) {
+            int ops = outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+        if (outbound.isEmpty() && pendingCloseCode != 0) {
+            abort(pendingCloseCode);
+        }
+    }
+
+    private void finishAfterFlush(int code) {
+        pendingCloseCode = code;
+        flush();
+    }
+
+    /**
+     * Send a close frame and drop the connection once it is written
+     */
+    void closeGracefully(int code, String reason) {
+        if (closed) {
+            return;
+        }
+        if (!closeSent) {
+            enqueue(WebSocketFrame.close(code, reason));
+            closeSent = true;
+        }
+        finishAfterFlush(code);
+    }
+
+    /**
+     * Close the socket immediately and tell the listener
+     */
+    void abort(int code) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        outbound.clear();
+        queuedBytes = 0;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        loop.remove(this);
+        if (onClose != null) {
+            onClose.run();
+        }
+        listener.onClose(this, code);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WebSocket{%s %s, queued=%d}", remoteAddress, path, queuedBytes);
+    }
+}
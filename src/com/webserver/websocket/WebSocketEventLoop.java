@@ -0,0 +1,243 @@
+package com.webserver.websocket;
+
+import com.webserver.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector thread that owns a set of WebSocket connections.
+ * Other threads never touch a connection directly: they submit tasks, which
+ * the loop runs between selects. Connections are grouped by endpoint path so a
+ * broadcast walks only its own subscribers, and every one of them gets a
+ * duplicate of the same encoded frame.
+ */
+class WebSocketEventLoop implements Runnable {
+    private final WebSocketHub hub;
+    private volatile Selector selector;
+    private final Thread thread;
+    private final Logger logger;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<String, Set<WebSocketConnection>> byPath = new HashMap<>();
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+    private volatile boolean running = true;
+    private long lastPing;
+
+    WebSocketEventLoop(WebSocketHub hub, int index) {
+        this.hub = hub;
+        this.logger = Logger.getInstance();
+        this.thread = new Thread(this, "WebSocket-Loop-" + index);
+        this.thread.setDaemon(true);
+        this.lastPing = System.currentTimeMillis();
+    }
+
+    void start() throws IOException {
+        selector = Selector.open();
+        thread.start();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the loop thread
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    /**
+     * Take over an upgraded channel; called from a worker thread
+     */
+    void adopt(SocketChannel channel, String path, String remoteAddress, WebSocketListener listener,
+               byte[] initialBytes, Runnable onClose) {
+        execute(() -> {
+            WebSocketConnection connection = new WebSocketConnection(channel, this, path, remoteAddress,
+                listener, initialBytes, onClose);
+            try {
+                channel.configureBlocking(false);
+                connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+                byPath.computeIfAbsent(path, p -> new LinkedHashSet<>()).add(connection);
+                connectionCount.incrementAndGet();
+                connection.start();
+            } catch (IOException e) {
+                logger.warn("Could not register WebSocket connection from " + remoteAddress + ": " + e.getMessage());
+                connection.abort(WebSocketFrame.CLOSE_ABNORMAL);
+            } catch (RuntimeException e) {
+                // A listener that fails in onOpen must not leave the socket open and its slot held
+                logger.error(String.format("WebSocket listener failed to open %s: %s", connection, e));
+                connection.abort(WebSocketFrame.CLOSE_ABNORMAL);
+            }
+        });
+    }
+
+    /**
+     * Queue the same encoded frame on every connection of a path; runs on the loop thread
+     */
+    void broadcast(String path, ByteBuffer frame) {
+        Set<WebSocketConnection> connections = byPath.get(path);
+        if (connections == null) {
+            return;
+        }
+        // Copy first: a slow consumer dropped during the walk removes itself from the set
+        for (WebSocketConnection connection : new ArrayList<>(connections)) {
+            connection.enqueue(frame.duplicate());
+        }
+    }
+
+    /**
+     * Called once per adopted connection, by abort(), even if it never got registered
+     */
+    void remove(WebSocketConnection connection) {
+        Set<WebSocketConnection> connections = byPath.get(connection.getPath());
+        if (connections != null && connections.remove(connection)) {
+            connectionCount.decrementAndGet();
+            if (connections.isEmpty()) {
+                byPath.remove(connection.getPath());
+            }
+        }
+        hub.release();
+    }
+
+    int getConnectionCount() { return connectionCount.get(); }
+    int getMaxMessageSize() { return hub.getMaxMessageSize(); }
+    long getMaxQueuedBytes() { return hub.getMaxQueuedBytes(); }
+
+    void recordSlowConsumer(WebSocketConnection connection) {
+        hub.recordSlowConsumer(connection);
+    }
+
+    /**
+     * Close every connection with the given code and end the loop
+     */
+    void shutdown(int code, String reason) {
+        execute(() -> {
+            for (WebSocketConnection connection : allConnections()) {
+                connection.closeGracefully(code, reason);
+            }
+            running = false;
+        });
+    }
+
+    void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long pingInterval = hub.getPingInterval();
+                selector.select(pingInterval > 0 ? Math.max(100, pingInterval / 2) : 0);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    WebSocketConnection connection = (WebSocketConnection) key.attachment();
+                    handle(key, connection);
+                }
+
+                if (pingInterval > 0) {
+                    pingAndReap(pingInterval);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.error("WebSocket event loop failed: " + e.getMessage());
+        } finally {
+            for (WebSocketConnection connection : allConnections()) {
+                connection.abort(WebSocketFrame.CLOSE_GOING_AWAY);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void handle(SelectionKey key, WebSocketConnection connection) {
+        try {
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+        } catch (IOException e) {
+            connection.abort(WebSocketFrame.CLOSE_ABNORMAL);
+        } catch (RuntimeException e) {
+            // A listener bug must not take down the loop and every other connection on it
+            logger.error(String.format("WebSocket listener failed on %s: %s", connection, e));
+            connection.abort(WebSocketFrame.CLOSE_ABNORMAL);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("WebSocket task failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Ping every connection once per interval and drop those silent for two intervals
+     */
+    private void pingAndReap(long pingInterval) {
+        long now = System.currentTimeMillis();
+        if (now - lastPing < pingInterval) {
+            return;
+        }
+        lastPing = now;
+        ByteBuffer ping = WebSocketFrame.encode(WebSocketFrame.OP_PING, new byte[0]);
+        for (WebSocketConnection connection : allConnections()) {
+            if (now - connection.getLastActivity() > 2 * pingInterval) {
+                connection.abort(WebSocketFrame.CLOSE_ABNORMAL);
+            } else {
+                connection.enqueue(ping.duplicate());
+            }
+        }
+    }
+
+    private List<WebSocketConnection> allConnections() {
+        List<WebSocketConnection> all = new ArrayList<>(connectionCount.get());
+        for (Set<WebSocketConnection> connections : byPath.values()) {
+            all.addAll(connections);
+        }
+        return all;
+    }
+
+    /**
+     * Connection counts per path, read on the loop thread
+     */
+    Map<String, Integer> countByPath() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Set<WebSocketConnection>> entry : byPath.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+}
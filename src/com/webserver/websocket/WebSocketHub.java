@@ -0,0 +1,210 @@
+package com.webserver.websocket;
+
+import com.webserver.core.ServerConfig;
+import com.webserver.util.Logger;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entry point for WebSocket endpoints.
+ * Applications register a listener per path; ConnectionHandler performs the
+ * upgrade handshake on a worker thread and then hands the socket over, so an
+ * open WebSocket costs a selector key and some buffers rather than a worker.
+ * Connections are spread round robin over a few event loops.
+ *
+ * Paths listed in websocket.relayPaths get a built-in listener that
+ * rebroadcasts every text message to all connections on the same path.
+ */
+public class WebSocketHub {
+    private final ServerConfig config;
+    private final Logger logger;
+    private final Map<String, WebSocketListener> endpoints = new ConcurrentHashMap<>();
+    private final WebSocketEventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+    private final AtomicInteger reserved = new AtomicInteger(0);
+    private final AtomicLong opened = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong broadcasts = new AtomicLong(0);
+    private final AtomicLong slowConsumers = new AtomicLong(0);
+
+    public WebSocketHub(ServerConfig config) {
+        this.config = config;
+        this.logger = Logger.getInstance();
+        this.loops = new WebSocketEventLoop[Math.max(1, config.getWebSocketEventLoops())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new WebSocketEventLoop(this, i + 1);
+        }
+        for (String path : config.getWebSocketRelayPaths().split(",")) {
+            if (!path.trim().isEmpty()) {
+                register(path.trim(), new RelayListener(path.trim()));
+            }
+        }
+    }
+
+    public void start() throws IOException {
+        for (WebSocketEventLoop loop : loops) {
+            loop.start();
+        }
+        logger.info(String.format("WebSocket hub started: %d event loops, endpoints %s", loops.length,
+            endpoints.keySet()));
+    }
+
+    /**
+     * Serve WebSocket connections at a normalized request path such as "/ws/feed"
+     */
+    public void register(String path, WebSocketListener listener) {
+        endpoints.put(path, listener);
+    }
+
+    public boolean isEndpoint(String path) {
+        return endpoints.containsKey(path);
+    }
+
+    /**
+     * Claim one of websocket.maxConnections for a handshake about to be accepted.
+     * The slot is held until the adopted connection closes, or until release()
+     * if the socket is never adopted.
+     */
+    public boolean tryReserve() {
+        int max = config.getWebSocketMaxConnections();
+        while (true) {
+            int current = reserved.get();
+            if (current >= max) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a slot taken by tryReserve()
+     */
+    public void release() {
+        reserved.decrementAndGet();
+    }
+
+    /**
+     * Take over a socket whose 101 response has been sent. initialBytes are
+     * whatever the client sent after the handshake and was already buffered;
+     * onClose, if not null, runs once when the connection ends.
+     * Returns false if the socket cannot be switched to non-blocking mode.
+     */
+    public boolean adopt(Socket socket, String path, String remoteAddress, byte[] initialBytes, Runnable onClose) {
+        SocketChannel channel = socket.getChannel();
+        WebSocketListener listener = endpoints.get(path);
+        if (channel == null || listener == null) {
+            return false;
+        }
+        opened.incrementAndGet();
+        WebSocketEventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        loop.adopt(channel, path, remoteAddress, listener, initialBytes, onClose);
+        return true;
+    }
+
+    /**
+     * Send a text message to every connection on a path; the frame is encoded once
+     */
+    public void broadcast(String path, String message) {
+        broadcast(path, WebSocketFrame.text(message));
+    }
+
+    /**
+     * Send a binary message to every connection on a path; the frame is encoded once
+     */
+    public void broadcast(String path, byte[] message) {
+        broadcast(path, WebSocketFrame.encode(WebSocketFrame.OP_BINARY, message));
+    }
+
+    private void broadcast(String path, ByteBuffer frame) {
+        broadcasts.incrementAndGet();
+        for (WebSocketEventLoop loop : loops) {
+            if (loop.inLoop()) {
+                loop.broadcast(path, frame);
+            } else {
+                loop.execute(() -> loop.broadcast(path, frame));
+            }
+        }
+    }
+
+    public int getConnectionCount() {
+        int count = 0;
+        for (WebSocketEventLoop loop : loops) {
+            count += loop.getConnectionCount();
+        }
+        return count;
+    }
+
+    int getMaxMessageSize() { return config.getWebSocketMaxMessageSize(); }
+    long getMaxQueuedBytes() { return config.getWebSocketMaxQueuedBytes(); }
+    long getPingInterval() { return config.getWebSocketPingInterval(); }
+
+    void recordSlowConsumer(WebSocketConnection connection) {
+        slowConsumers.incrementAndGet();
+        logger.warn("Dropping slow WebSocket consumer: " + connection);
+    }
+
+    /**
+     * Send "going away" to every connection and stop the loops
+     */
+    public void stop() {
+        for (WebSocketEventLoop loop : loops) {
+            loop.shutdown(WebSocketFrame.CLOSE_GOING_AWAY, "Server shutting down");
+        }
+        for (WebSocketEventLoop loop : loops) {
+            try {
+                loop.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connection counts and traffic for /_admin/websocket
+     */
+    public String describe() {
+        Map<String, Integer> byPath = new TreeMap<>();
+        for (WebSocketEventLoop loop : loops) {
+            CompletableFuture<Map<String, Integer>> counts = new CompletableFuture<>();
+            loop.execute(() -> counts.complete(loop.countByPath()));
+            try {
+                counts.get(1, TimeUnit.SECONDS).forEach((path, count) -> byPath.merge(path, count, Integer::sum));
+            } catch (Exception e) {
+                // Loop busy or stopped; report what we have
+            }
+        }
+        return String.format("WebSocket connections=%d, loops=%d, opened=%d, rejected=%d, broadcasts=%d, "
+                + "slowConsumersDropped=%d%nBy path: %s%n", getConnectionCount(), loops.length, opened.get(),
+            rejected.get(), broadcasts.get(), slowConsumers.get(), byPath);
+    }
+
+    /**
+     * Rebroadcasts each text message to everyone on the path, sender included
+     */
+    private final class RelayListener implements WebSocketListener {
+        private final String path;
+
+        RelayListener(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void onText(WebSocketConnection connection, String message) {
+            broadcast(path, message);
+        }
+    }
+}
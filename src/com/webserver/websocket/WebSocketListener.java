@@ -0,0 +1,32 @@
+package com.webserver.websocket;
+
+/**
+ * Application callbacks for one WebSocket endpoint path.
+ * All callbacks run on the connection's event loop thread and must not block;
+ * hand slow work to another thread and reply with WebSocketConnection.send().
+ */
+public interface WebSocketListener {
+
+    /**
+     * The handshake completed and the connection joined the event loop
+     */
+    default void onOpen(WebSocketConnection connection) {
+    }
+
+    /**
+     * A complete text message arrived
+     */
+    void onText(WebSocketConnection connection, String message);
+
+    /**
+     * A complete binary message arrived
+     */
+    default void onBinary(WebSocketConnection connection, byte[] message) {
+    }
+
+    /**
+     * The connection is gone; code is the close status, 1006 if it ended without a close frame
+     */
+    default void onClose(WebSocketConnection connection, int code) {
+    }
+}